@@ -0,0 +1,132 @@
+package com.example.demo.benchmark;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.indexer.UByteIndexer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_imgcodecs;
+import org.bytedeco.opencv.global.opencv_imgproc;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.Size;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Inputs shared by the benchmarks: random embeddings, sample face photos and
+ * synthetic camera-sized JPEGs.
+ */
+public final class BenchmarkData {
+
+    // Directory of face photos, overridable with -Dbenchmark.images or BENCHMARK_IMAGES
+    private static final String IMAGES_DIR = System.getProperty("benchmark.images",
+            System.getenv().getOrDefault("BENCHMARK_IMAGES", "src/jmh/resources/samples"));
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * L2-normalized random embeddings, like the ones the OpenFace model produces.
+     */
+    public static List<float[]> randomEmbeddings(int count, int dimension, long seed) {
+        Random random = new Random(seed);
+        List<float[]> embeddings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            embeddings.add(normalize(gaussian(random, dimension, 1.0)));
+        }
+        return embeddings;
+    }
+
+    /**
+     * A noisy, re-normalized copy of an embedding, like a new capture of the
+     * same face.
+     */
+    public static float[] probeFor(float[] embedding, long seed) {
+        float[] noise = gaussian(new Random(seed), embedding.length, 0.03);
+        for (int i = 0; i < noise.length; i++) {
+            noise[i] += embedding[i];
+        }
+        return normalize(noise);
+    }
+
+    /**
+     * Reads the JPEG and PNG face photos from the sample directory.
+     *
+     * @throws IllegalStateException if there are none, since the face
+     *         benchmarks cannot run on synthetic images
+     */
+    public static List<byte[]> faceImages() {
+        Path dir = Paths.get(IMAGES_DIR);
+        List<byte[]> images = new ArrayList<>();
+        if (Files.isDirectory(dir)) {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files.sorted()::iterator) {
+                    String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+                    if (name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png")) {
+                        images.add(Files.readAllBytes(file));
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        if (images.isEmpty()) {
+            throw new IllegalStateException("No face photos found in " + dir.toAbsolutePath()
+                    + "; set -Dbenchmark.images or BENCHMARK_IMAGES to a directory of JPEG/PNG face photos");
+        }
+        return images;
+    }
+
+    /**
+     * Encodes a smooth random picture of the given size as JPEG, standing in
+     * for a phone camera capture in the decode benchmarks.
+     */
+    public static byte[] syntheticJpeg(int width, int height, long seed) {
+        Random random = new Random(seed);
+        Mat small = new Mat(48, 64, opencv_core.CV_8UC3);
+        UByteIndexer pixels = small.createIndexer();
+        for (int y = 0; y < 48; y++) {
+            for (int x = 0; x < 64; x++) {
+                for (int c = 0; c < 3; c++) {
+                    pixels.put(y, x, c, random.nextInt(256));
+                }
+            }
+        }
+        pixels.release();
+
+        Mat image = new Mat();
+        opencv_imgproc.resize(small, image, new Size(width, height), 0, 0, opencv_imgproc.INTER_CUBIC);
+        BytePointer buf = new BytePointer();
+        opencv_imgcodecs.imencode(".jpg", image, buf);
+        byte[] jpeg = new byte[(int) buf.limit()];
+        buf.get(jpeg);
+        return jpeg;
+    }
+
+    private static float[] gaussian(Random random, int dimension, double scale) {
+        float[] values = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            values[i] = (float) (random.nextGaussian() * scale);
+        }
+        return values;
+    }
+
+    private static float[] normalize(float[] values) {
+        float norm = 0;
+        for (float value : values) {
+            norm += value * value;
+        }
+        norm = (float) Math.sqrt(norm);
+        for (int i = 0; i < values.length; i++) {
+            values[i] /= norm;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.gallery.Distances;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distance between two 128-d embeddings: the gallery kernel against the
+ * scalar square-rooted distance the service used per candidate before.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DistanceBenchmark {
+
+    private float[] a;
+    private float[] b;
+
+    @Setup
+    public void setUp() {
+        List<float[]> embeddings = BenchmarkData.randomEmbeddings(2, 128, 1);
+        a = embeddings.get(0);
+        b = embeddings.get(1);
+    }
+
+    @Benchmark
+    public float squaredEuclidean() {
+        return Distances.squaredEuclidean(a, b);
+    }
+
+    @Benchmark
+    public float scalarEuclidean() {
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            float diff = a[i] - b[i];
+            sum += diff * diff;
+        }
+        return (float) Math.sqrt(sum);
+    }
+}
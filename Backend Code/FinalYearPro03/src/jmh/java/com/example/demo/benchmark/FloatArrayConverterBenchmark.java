@@ -0,0 +1,47 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.converter.FloatArrayConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of a 128-d embedding column.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FloatArrayConverterBenchmark {
+
+    private final FloatArrayConverter converter = new FloatArrayConverter();
+    private float[] embedding;
+    private byte[] column;
+
+    @Setup
+    public void setUp() {
+        embedding = BenchmarkData.randomEmbeddings(1, 128, 1).get(0);
+        column = converter.convertToDatabaseColumn(embedding);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return converter.convertToDatabaseColumn(embedding);
+    }
+
+    @Benchmark
+    public float[] decode() {
+        return converter.convertToEntityAttribute(column);
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.gallery.EmbeddingGallery;
+import com.example.demo.gallery.EmbeddingIndex;
+import com.example.demo.gallery.HnswIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nearest-neighbour search over a gallery of enrolled embeddings, with the
+ * exact scan and the HNSW index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GalleryScanBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int gallerySize;
+
+    @Param({"exact", "hnsw"})
+    private String index;
+
+    private EmbeddingIndex gallery;
+    private float[] query;
+
+    @Setup
+    public void setUp() {
+        List<float[]> embeddings = BenchmarkData.randomEmbeddings(gallerySize, 128, 1);
+        List<String> ids = new ArrayList<>(gallerySize);
+        for (int i = 0; i < gallerySize; i++) {
+            ids.add("user" + i);
+        }
+        gallery = "hnsw".equals(index) ? new HnswIndex(16, 200, 64) : new EmbeddingGallery();
+        gallery.putAll(ids, embeddings);
+        query = BenchmarkData.probeFor(embeddings.get(gallerySize / 2), 2);
+    }
+
+    @Benchmark
+    public EmbeddingGallery.Match nearest() {
+        return gallery.nearest(query);
+    }
+}
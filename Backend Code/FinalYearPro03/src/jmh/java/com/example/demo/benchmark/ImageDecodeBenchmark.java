@@ -0,0 +1,69 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.service.ImageIngestor;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_imgcodecs;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JPEG decoding with {@code imdecode} at typical phone camera resolutions,
+ * at full size and at the reduced size recognition uploads are decoded at.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageDecodeBenchmark {
+
+    // width x height of the encoded picture
+    @Param({"1280x960", "4032x3024"})
+    private String resolution;
+
+    private Mat encoded;
+    private int reducedFlags;
+
+    @Setup
+    public void setUp() {
+        String[] size = resolution.split("x");
+        byte[] jpeg = BenchmarkData.syntheticJpeg(Integer.parseInt(size[0]), Integer.parseInt(size[1]), 1);
+        encoded = new Mat(1, jpeg.length, opencv_core.CV_8UC1, new BytePointer(jpeg));
+        reducedFlags = ImageIngestor.decodeFlags(ByteBuffer.wrap(jpeg), jpeg.length, 480);
+    }
+
+    @TearDown
+    public void tearDown() {
+        encoded.close();
+    }
+
+    @Benchmark
+    public int imdecodeColor() {
+        try (Mat image = opencv_imgcodecs.imdecode(encoded, opencv_imgcodecs.IMREAD_COLOR)) {
+            return image.rows();
+        }
+    }
+
+    @Benchmark
+    public int imdecodeReduced() {
+        try (Mat image = opencv_imgcodecs.imdecode(encoded, reducedFlags)) {
+            return image.rows();
+        }
+    }
+}
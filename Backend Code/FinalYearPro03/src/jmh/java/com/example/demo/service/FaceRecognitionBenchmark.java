@@ -0,0 +1,122 @@
+package com.example.demo.service;
+
+import com.example.demo.benchmark.BenchmarkData;
+import com.example.demo.repository.FaceDataRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_imgcodecs;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Face detection, embedding extraction and end-to-end recognition on the
+ * first sample photo. Needs the model files under {@code models/} and at
+ * least one face photo in the sample directory (see {@link BenchmarkData}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FaceRecognitionBenchmark {
+
+    private FaceNets nets;
+    private InferenceExecutor inferenceExecutor;
+    private FaceRecognitionService service;
+    private List<Mat> images;
+    private List<Mat> faces;
+    private MockMultipartFile upload;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] photo = BenchmarkData.faceImages().get(0);
+        FaceModels faceModels = new FaceModels();
+        nets = faceModels.load();
+        if (nets.getDetectionNet() == null) {
+            throw new IllegalStateException("Face models could not be loaded from the models directory");
+        }
+        inferenceExecutor = new InferenceExecutor(faceModels, 1, 16);
+        // No batching wait, so the end-to-end figure is the single-request latency
+        service = new FaceRecognitionService(inMemoryRepository(), null, inferenceExecutor, faceModels,
+                new RecognitionMetrics(new SimpleMeterRegistry()), 1, 0, 16);
+        // Detection settings as in application.properties, which is not read here
+        ReflectionTestUtils.setField(service, "detectionInputSide", 320);
+        ReflectionTestUtils.setField(service, "faceSelection", "largest");
+        ReflectionTestUtils.setField(service, "candidateConfidence", 0.2f);
+        ReflectionTestUtils.setField(service, "cascadeRoiSide", 160);
+        service.init();
+
+        Mat image = opencv_imgcodecs.imdecode(
+                new Mat(1, photo.length, opencv_core.CV_8UC1, new BytePointer(photo)),
+                opencv_imgcodecs.IMREAD_COLOR);
+        images = List.of(image);
+        List<FaceBox> detected = service.detectFacesWithDNN(nets, images).get(0);
+        if (detected.isEmpty()) {
+            throw new IllegalStateException("The DNN detector found no face in the first sample photo");
+        }
+        faces = List.of(new Mat(image, detected.get(0).toRect()));
+
+        upload = new MockMultipartFile("file", "sample.jpg", "image/jpeg", photo);
+        service.registerFace("benchmark", "Benchmark", 0L, "dept", "college", "benchmark", 20, "benchmark", upload, null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.shutdown();
+        inferenceExecutor.shutdown();
+        nets.close();
+    }
+
+    @Benchmark
+    public List<List<FaceBox>> detectFacesWithDNN() {
+        return service.detectFacesWithDNN(nets, images);
+    }
+
+    @Benchmark
+    public List<float[]> extractFaceEmbedding() {
+        return service.extractFaceEmbeddings(nets, FaceModels.DEFAULT_MODEL_VERSION, faces);
+    }
+
+    @Benchmark
+    public String recognizeFace() throws IOException {
+        return service.recognizeFace(upload);
+    }
+
+    /**
+     * Repository that accepts saves and starts out empty, so the service can
+     * run without a database.
+     */
+    private static FaceDataRepository inMemoryRepository() {
+        return (FaceDataRepository) Proxy.newProxyInstance(
+                FaceDataRepository.class.getClassLoader(),
+                new Class<?>[] {FaceDataRepository.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("save")) {
+                        return args[0];
+                    }
+                    if (method.getReturnType() == List.class) {
+                        return List.of();
+                    }
+                    return method.getReturnType() == int.class ? 0 : null;
+                });
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.demo.config;
+
+import jakarta.servlet.MultipartConfigElement;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.servlet.DispatcherServlet;
+
+/**
+ * Gives the bulk enrollment upload its own multipart limits. Servlet
+ * containers apply one multipart configuration per servlet, so the upload
+ * path is served by a second dispatcher over the same application context;
+ * every other endpoint keeps the small global limit and cannot be sent
+ * archive-sized bodies.
+ */
+@Configuration
+public class BulkUploadConfig {
+
+    public static final String BULK_ENROLL_PATH = "/api/admin/enroll/bulk";
+
+    @Bean
+    public ServletRegistrationBean<DispatcherServlet> bulkEnrollmentServlet(
+            WebApplicationContext context,
+            @Value("${face.bulk.max-upload-size:2GB}") DataSize maxUploadSize) {
+        // Mapped to the exact path, so the job status endpoints below it stay on the main dispatcher
+        ServletRegistrationBean<DispatcherServlet> registration =
+                new ServletRegistrationBean<>(new DispatcherServlet(context), BULK_ENROLL_PATH);
+        registration.setName("bulkEnrollmentDispatcher");
+        registration.setLoadOnStartup(1);
+        registration.setMultipartConfig(new MultipartConfigElement("",
+                maxUploadSize.toBytes(), maxUploadSize.toBytes(), 0));
+        return registration;
+    }
+}
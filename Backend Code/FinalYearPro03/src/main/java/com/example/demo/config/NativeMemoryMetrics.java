@@ -0,0 +1,36 @@
+package com.example.demo.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.bytedeco.javacpp.Pointer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes the off-heap memory tracked by JavaCPP, which holds every OpenCV
+ * image, blob and model, next to the JVM heap metrics.
+ */
+@Component
+public class NativeMemoryMetrics implements MeterBinder {
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("javacpp.memory.total", Pointer::totalBytes)
+                .description("Native memory currently allocated through JavaCPP")
+                .baseUnit(BaseUnits.BYTES)
+                .register(registry);
+        Gauge.builder("javacpp.memory.physical", Pointer::physicalBytes)
+                .description("Resident set size of the process")
+                .baseUnit(BaseUnits.BYTES)
+                .register(registry);
+        Gauge.builder("javacpp.memory.max", Pointer::maxBytes)
+                .description("Limit on native memory allocated through JavaCPP")
+                .baseUnit(BaseUnits.BYTES)
+                .register(registry);
+        Gauge.builder("javacpp.pointers", Pointer::totalCount)
+                .description("Native allocations not yet deallocated")
+                .baseUnit(BaseUnits.OBJECTS)
+                .register(registry);
+    }
+}
@@ -1,18 +1,35 @@
 package com.example.demo.controller;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
 
+import com.example.demo.config.BulkUploadConfig;
 import com.example.demo.dtos.AdminRegistrationRequest;
 import com.example.demo.dtos.LoginRequest;
 import com.example.demo.model.Admin;
+import com.example.demo.model.AllowedRouter;
 import com.example.demo.service.AdminService;
 import com.example.demo.service.AttendanceService;
+import com.example.demo.service.BulkEnrollmentService;
+import com.example.demo.service.FaceRecognitionService;
+import com.example.demo.service.RouterAllowList;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
 
 @RestController
 @RequestMapping("/api/admin")
@@ -23,6 +40,15 @@ public class AdminController {
     
     @Autowired
     private AttendanceService attendanceService;
+    
+    @Autowired
+    private FaceRecognitionService faceRecognitionService;
+    
+    @Autowired
+    private BulkEnrollmentService bulkEnrollmentService;
+    
+    @Autowired
+    private RouterAllowList routerAllowList;
 
     @Autowired
     public AdminController(AdminService adminService) {
@@ -49,4 +75,70 @@ public class AdminController {
         }
     }
     
+    // Checks that the recognition index matches the same users as an exact scan
+    @GetMapping("/gallery/recall")
+    public ResponseEntity<?> checkGalleryRecall(@RequestParam(value = "samples", defaultValue = "1000") int samples) {
+        return ResponseEntity.ok(faceRecognitionService.checkIndexRecall(samples));
+    }
+    
+    // Enrolls a cohort from a zip of photos and a CSV of student details as a
+    // background job; the report is polled from the Location returned. This path
+    // is served by its own dispatcher with larger upload limits (BulkUploadConfig)
+    @PostMapping("/enroll/bulk")
+    public ResponseEntity<?> bulkEnroll(@RequestParam MultipartFile archive,
+                                        @RequestParam MultipartFile students) {
+        try {
+            List<BulkEnrollmentService.StudentRow> rows = bulkEnrollmentService.readStudents(students);
+            BulkEnrollmentService.Job job = bulkEnrollmentService.submit(rows, archive);
+            return ResponseEntity.accepted()
+                    .header(HttpHeaders.LOCATION, BulkUploadConfig.BULK_ENROLL_PATH + "/" + job.getId())
+                    .body("Bulk enrollment job " + job.getId() + " queued for " + rows.size() + " students");
+        } catch (IOException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+    
+    // Report of a bulk enrollment job so far; X-Job-State tells whether it is still running
+    @GetMapping("/enroll/bulk/{id}")
+    public ResponseEntity<?> bulkEnrollReport(@PathVariable long id) {
+        BulkEnrollmentService.Job job = bulkEnrollmentService.getJob(id);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(new MediaType("text", "csv", StandardCharsets.UTF_8))
+                .header("X-Job-State", job.getState().name().toLowerCase(Locale.ROOT))
+                .header("X-Job-Progress", job.getCompleted() + "/" + job.getStudents());
+        if (job.getError() != null) {
+            response.header("X-Job-Error", job.getError().replaceAll("[\\r\\n]", " "));
+        }
+        return response.body(job.toCsv());
+    }
+    
+    // Wi-Fi networks each college accepts punches from
+    @GetMapping("/routers")
+    public ResponseEntity<List<AllowedRouter>> listAllowedRouters(
+            @RequestParam(value = "college", required = false) String college) {
+        return ResponseEntity.ok(routerAllowList.list(college));
+    }
+    
+    @PostMapping("/routers")
+    public ResponseEntity<?> addAllowedRouter(@RequestBody AllowedRouter router) {
+        try {
+            return ResponseEntity.ok(routerAllowList.add(router));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+    
+    @DeleteMapping("/routers/{id}")
+    public ResponseEntity<?> removeAllowedRouter(@PathVariable long id) {
+        try {
+            routerAllowList.remove(id);
+            return ResponseEntity.ok("Allowed router " + id + " removed");
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+    
 }
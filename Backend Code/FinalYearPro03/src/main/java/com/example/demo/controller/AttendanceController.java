@@ -1,15 +1,30 @@
 package com.example.demo.controller;
 
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.WebAsyncTask;
 import com.example.demo.model.Attendance;
+import com.example.demo.model.AttendanceDailyRollup;
+import com.example.demo.model.AttendanceMonthlyTotal;
 import com.example.demo.service.AttendanceService;
 
 @RestController
@@ -17,13 +32,29 @@ import com.example.demo.service.AttendanceService;
 @CrossOrigin(origins = "*")
 public class AttendanceController {
 
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+
     @Autowired
     private AttendanceService attendanceService;
     
+    @Value("${face.attendance.export.timeout-ms:1800000}")
+    private long exportTimeoutMillis;
+    
+    /**
+     * Lists a day's attendance, all of it unless a {@code limit} or
+     * {@code cursor} asks for pages. Pages are in punch-in order; pass the
+     * X-Next-Cursor header of a full page as {@code cursor} to get the next
+     * one, and {@code order=desc} lists the latest punches first.
+     */
     @GetMapping("/attendancelist")
     public ResponseEntity<List<Attendance>> getAttendanceRecords(
             @RequestParam(value="date", required = false) String dateStr,
-            @RequestParam(value="department", required = false) String department) {
+            @RequestParam(value="department", required = false) String department,
+            @RequestParam(required = false) Long cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(defaultValue = "asc") String order) {
         LocalDate date;
         if (dateStr == null || dateStr.isEmpty()) {
             date = LocalDate.now();
@@ -31,12 +62,105 @@ public class AttendanceController {
             date = LocalDate.parse(dateStr);
         }
         
-        List<Attendance> attendanceRecords;
-        if (department != null && !department.equalsIgnoreCase("All")) {
-            attendanceRecords = attendanceService.getAttendanceByDateAndDepartment(date, department);
-        } else {
-            attendanceRecords = attendanceService.getAttendanceByDate(date);
+        if (department != null && department.equalsIgnoreCase("All")) {
+            department = null;
+        }
+        if (cursor == null && limit == null) {
+            List<Attendance> attendanceRecords = department != null
+                    ? attendanceService.getAttendanceByDateAndDepartment(date, department)
+                    : attendanceService.getAttendanceByDate(date);
+            return ResponseEntity.ok(attendanceRecords);
+        }
+        int pageSize = Math.max(1, Math.min(limit != null ? limit : DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE));
+        List<Attendance> attendanceRecords = attendanceService.getAttendancePage(date, department, cursor,
+                order.equalsIgnoreCase("desc"), pageSize);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (attendanceRecords.size() == pageSize) {
+            response.header("X-Next-Cursor", String.valueOf(attendanceRecords.get(pageSize - 1).getId()));
+        }
+        return response.body(attendanceRecords);
+    }
+
+    /**
+     * Streams the attendance of a date range, both ends included, as a CSV
+     * download, optionally gzip-compressed. Rows are written as they are read,
+     * so any range can be exported in one request; the request may run for
+     * {@code face.attendance.export.timeout-ms} rather than the usual async
+     * timeout.
+     */
+    @GetMapping("/attendance/export")
+    public WebAsyncTask<ResponseEntity<String>> exportAttendance(
+            @RequestParam String from,
+            @RequestParam String to,
+            @RequestParam(required = false) String college,
+            @RequestParam(value="department", required = false) String department,
+            @RequestParam(defaultValue = "false") boolean gzip,
+            HttpServletResponse response) {
+        return new WebAsyncTask<>(exportTimeoutMillis, () -> {
+            LocalDate fromDate;
+            LocalDate toDate;
+            try {
+                fromDate = LocalDate.parse(from);
+                toDate = LocalDate.parse(to);
+            } catch (DateTimeParseException e) {
+                return ResponseEntity.badRequest().body(e.getMessage());
+            }
+            if (toDate.isBefore(fromDate)) {
+                return ResponseEntity.badRequest().body("'to' must not be before 'from'");
+            }
+            String dept = department != null && department.equalsIgnoreCase("All") ? null : department;
+
+            String fileName = "attendance_" + fromDate + "_" + toDate + (gzip ? ".csv.gz" : ".csv");
+            response.setContentType(gzip ? "application/gzip" : "text/csv;charset=UTF-8");
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"");
+            // Sync flushes let the header and each full buffer reach the client straight away
+            OutputStream out = response.getOutputStream();
+            OutputStream target = gzip ? new GZIPOutputStream(out, EXPORT_BUFFER_SIZE, true) : out;
+            Writer writer = new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8),
+                    EXPORT_BUFFER_SIZE);
+            attendanceService.exportCsv(fromDate, toDate, college, dept, writer);
+            if (gzip) {
+                ((GZIPOutputStream) target).finish();
+            }
+            // The body is already written
+            return null;
+        });
+    }
+
+    /**
+     * Present, punched-out and late counts and the average punch-in time of
+     * each department on a day, read from the rollups.
+     */
+    @GetMapping("/attendance-summary")
+    public ResponseEntity<List<AttendanceDailyRollup>> getAttendanceSummary(
+            @RequestParam(value="date", required = false) String dateStr,
+            @RequestParam(required = false) String college) {
+        LocalDate date = dateStr == null || dateStr.isEmpty() ? LocalDate.now() : LocalDate.parse(dateStr);
+        return ResponseEntity.ok(attendanceService.getDailySummary(date, college));
+    }
+
+    /**
+     * Days a student was present in one month (yyyy-MM), or in every month
+     * when none is given.
+     */
+    @GetMapping("/attendance-summary/monthly")
+    public ResponseEntity<?> getMonthlyAttendance(@RequestParam long mobno,
+                                                  @RequestParam(required = false) String month) {
+        if (month == null || month.isEmpty()) {
+            return ResponseEntity.ok(attendanceService.getMonthlyTotals(mobno));
+        }
+        AttendanceMonthlyTotal total = attendanceService.getMonthlyTotal(mobno, YearMonth.parse(month));
+        if (total == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(total);
+    }
+
+    @PostMapping("/attendance-summary/rebuild")
+    public ResponseEntity<String> rebuildAttendanceSummary() {
+        if (!attendanceService.rebuildSummaries()) {
+            return ResponseEntity.badRequest().body("A rebuild is already running");
         }
-        return ResponseEntity.ok(attendanceRecords);
+        return ResponseEntity.accepted().body("Rebuilding attendance summaries from the attendance table");
     }
 }
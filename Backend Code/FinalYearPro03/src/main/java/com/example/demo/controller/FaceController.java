@@ -1,30 +1,49 @@
 package com.example.demo.controller;
 
+import org.bytedeco.javacpp.BytePointer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
 
-import com.example.demo.model.Attendance;
-import com.example.demo.model.FaceData;
-import com.example.demo.repository.AttendanceRepository;
+import com.example.demo.dtos.RegisteredUserSummary;
 import com.example.demo.repository.FaceDataRepository;
 import com.example.demo.service.AttendanceService;
 import com.example.demo.service.FaceRecognitionService;
+import com.example.demo.service.ImageIngestor;
+import com.example.demo.service.PunchResult;
+import com.example.demo.service.RecognitionAdmission;
+import com.example.demo.service.RecognitionCache;
+import com.example.demo.service.RecognitionExecutor;
+import com.example.demo.service.RecognitionMetrics;
+import com.example.demo.service.RecognitionTrace;
+import com.example.demo.service.RouterAllowList;
 
-import java.time.LocalTime;
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api")
 @CrossOrigin(origins = "*")
 public class FaceController {
 
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+
     @Autowired
     private FaceRecognitionService faceService;
     
@@ -35,7 +54,19 @@ public class FaceController {
     private AttendanceService attendanceService;
     
     @Autowired
-    private AttendanceRepository attendanceRepository;
+    private RecognitionMetrics metrics;
+    
+    @Autowired
+    private RecognitionExecutor recognitionExecutor;
+    
+    @Autowired
+    private RecognitionAdmission admission;
+    
+    @Autowired
+    private RouterAllowList routerAllowList;
+    
+    @Autowired
+    private RecognitionCache recognitionCache;
 
     @PostMapping("/register")
     public ResponseEntity<?> registerFace(
@@ -48,92 +79,248 @@ public class FaceController {
             @RequestParam int age,
             @RequestParam String password,
             @RequestParam MultipartFile file) {
+        RecognitionTrace trace = new RecognitionTrace();
         try {
-            String result = faceService.registerFace(username, name, mobNo, dept, college, collegeUsername, age, password, file);
-            return ResponseEntity.ok(result);
+            String result = faceService.registerFace(username, name, mobNo, dept, college, collegeUsername, age, password, file, trace);
+            return withTrace(ResponseEntity.ok(result), trace);
         } catch (Exception e) {
-            return ResponseEntity.badRequest().body(e.getMessage());
+            return withTrace(ResponseEntity.badRequest().body(e.getMessage()), trace);
         }
     }
 
+    /**
+     * Recognizes the face and punches the user in. Requests from a network
+     * that is not on the college's allow-list are refused with 403 first,
+     * without any other work. An upload resent shortly after it was
+     * recognized is then answered from {@link RecognitionCache}, ahead of the
+     * limits and the queue. Requests over the rate limits of their access
+     * point or of the device named in X-Device-Id, or over the in-flight
+     * budget, get 429 with Retry-After before the image is decoded. Admitted
+     * work runs on a recognition thread so the servlet thread is released
+     * straight away; a full queue or a timeout is answered with 503 so the
+     * client retries, and work that timed out stops before it records a
+     * punch. The detector that found the face and the time of each stage are
+     * returned in the X-Face-Detector and Server-Timing headers.
+     */
     @PostMapping("/recognize")
-    public ResponseEntity<?> recognizeFace(@RequestParam MultipartFile file,
-                                           @RequestParam String routerIP,
-                                           @RequestParam String wifiSignalStrength) {
+    public CompletableFuture<ResponseEntity<?>> recognizeFace(
+            @RequestParam MultipartFile file,
+            @RequestParam String routerIP,
+            @RequestParam String wifiSignalStrength,
+            @RequestParam(required = false) String college,
+            @RequestParam(required = false) String dept,
+            @RequestHeader(value = "X-Device-Id", required = false) String deviceId) {
+        return recognizeAsync(file, "in", college, dept, routerIP, wifiSignalStrength, deviceId,
+                (image, cacheKey, deadline) -> recognizeAndPunchIn(image, cacheKey, deadline, college, dept));
+    }
+
+    /**
+     * Recognizes the face and punches the user out, like {@link #recognizeFace}.
+     */
+    @PostMapping("/recognizeout")
+    public CompletableFuture<ResponseEntity<?>> recognizeFaceOut(
+            @RequestParam MultipartFile file,
+            @RequestParam String routerIP,
+            @RequestParam String wifiSignalStrength,
+            @RequestParam(required = false) String college,
+            @RequestParam(required = false) String dept,
+            @RequestHeader(value = "X-Device-Id", required = false) String deviceId) {
+        if (file.isEmpty()) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body("File is empty or missing."));
+        }
+        return recognizeAsync(file, "out", college, dept, routerIP, wifiSignalStrength, deviceId,
+                (image, cacheKey, deadline) -> recognizeAndPunchOut(image, cacheKey, deadline, college, dept));
+    }
+
+    private CompletableFuture<ResponseEntity<?>> recognizeAsync(MultipartFile file, String direction, String college,
+                                                                String dept, String routerIP,
+                                                                String wifiSignalStrength, String client,
+                                                                RecognitionTask task) {
+        String refused = routerAllowList.check(college, routerIP, wifiSignalStrength);
+        if (refused != null) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.FORBIDDEN).body(refused));
+        }
+        BytePointer image;
         try {
-            String recognizedUserName = faceService.recognizeFace(file);
-            FaceData identifiedFaceData = faceDataRepository.findByUsername(recognizedUserName);
-            if (identifiedFaceData == null) {
-                return ResponseEntity.badRequest().body("User not found in database.");
-            }
-            
-            System.out.println("Wifi ip "+routerIP);
-            System.out.println("Wifi signal strength "+wifiSignalStrength);
-            
-            // Record attendance
-            Attendance attendanceMarked = attendanceService.recordAttendance(
-                identifiedFaceData.getName(),
-                identifiedFaceData.getMobno(),
-                identifiedFaceData.getDept(),
-                identifiedFaceData.getAge(),
-                identifiedFaceData.getCollege()
-            );
+            // Read here: the upload's temporary file is deleted once the request is answered,
+            // which can happen before a timed-out task gets to it. The copy is native memory
+            // owned by the task, so queued uploads do not sit on the heap
+            image = ImageIngestor.read(file);
+        } catch (IOException e) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(e.getMessage()));
+        }
+        // A resent upload gets the answer of the first one straight away, without taking
+        // tokens or a permit or waiting behind the work queued since
+        String cacheKey = recognitionCache.key(image.asByteBuffer(), direction, college, dept);
+        RecognitionCache.Entry cached = recognitionCache.get(cacheKey);
+        if (cached != null) {
+            image.close();
+            RecognitionTrace trace = new RecognitionTrace();
+            trace.markCached();
+            ResponseEntity<?> answer = direction.equals("out")
+                    ? punchOutResponse(cached.getUsername(), cached.getPunch())
+                    : punchInResponse(cached.getUsername(), cached.getPunch());
+            return CompletableFuture.completedFuture(withTrace(answer, trace));
+        }
+        long retryAfter = admission.tryAdmit(routerIP, client);
+        if (retryAfter > 0) {
+            image.close();
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter))
+                    .body("Too many recognition requests, please retry in " + retryAfter + " s"));
+        }
+        try {
+            // The permit is held until the work ends, even if the client was already answered
+            return recognitionExecutor.submit(deadline -> {
+                try {
+                    if (deadline.isExpired()) {
+                        // Answered with the timeout while queued; the result goes nowhere
+                        return null;
+                    }
+                    return task.run(image, cacheKey, deadline);
+                } finally {
+                    image.close();
+                    admission.release();
+                }
+            }, ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Face recognition timed out, please retry"));
+        } catch (RejectedExecutionException e) {
+            image.close();
+            admission.release();
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body("Face recognition is busy, please retry"));
+        }
+    }
+
+    private ResponseEntity<?> recognizeAndPunchIn(BytePointer image, String cacheKey,
+                                                  RecognitionExecutor.Deadline deadline, String college, String dept) {
+        RecognitionTrace trace = new RecognitionTrace();
+        try {
+            String recognizedUserName = faceService.recognizeFace(image, college, dept, trace);
             
-            if(attendanceMarked != null) {
-                return ResponseEntity.ok("User already marked attendance");
+            // Record attendance, unless the client has already been told to retry
+            if (!deadline.commit()) {
+                return null;
             }
-            
-            return ResponseEntity.ok("Attendance recorded for user: " + recognizedUserName);
+            long start = System.nanoTime();
+            PunchResult punch = attendanceService.punchIn(recognizedUserName);
+            metrics.record(RecognitionMetrics.Stage.PUNCH, start, trace);
+            metrics.punchIn(punch);
+            recognitionCache.put(cacheKey, recognizedUserName, punch);
+            return withTrace(punchInResponse(recognizedUserName, punch), trace);
         } catch (Exception e) {
-            return ResponseEntity.badRequest().body(e.getMessage());
+            return withTrace(ResponseEntity.badRequest().body(e.getMessage()), trace);
         }
     }
     
-    @PostMapping("/recognizeout")
-    public ResponseEntity<?> recognizeFaceOut(
-            @RequestParam MultipartFile file,
-            @RequestParam String routerIP,
-            @RequestParam String wifiSignalStrength) {
+    private static ResponseEntity<?> punchInResponse(String recognizedUserName, PunchResult punch) {
+        if (punch == PunchResult.UNKNOWN_USER) {
+            return ResponseEntity.badRequest().body("User not found in database.");
+        }
+        if (punch == PunchResult.ALREADY_PUNCHED_IN) {
+            return ResponseEntity.ok("User already marked attendance");
+        }
+        
+        return ResponseEntity.ok("Attendance recorded for user: " + recognizedUserName);
+    }
+    
+    private ResponseEntity<?> recognizeAndPunchOut(BytePointer image, String cacheKey,
+                                                   RecognitionExecutor.Deadline deadline, String college, String dept) {
+        RecognitionTrace trace = new RecognitionTrace();
         try {
-            if (file == null || file.isEmpty()) {
-                return ResponseEntity.badRequest().body("File is empty or missing.");
-            }
-            
-            String recognizedUserName = faceService.recognizeFace(file);
+            String recognizedUserName = faceService.recognizeFace(image, college, dept, trace);
             if (recognizedUserName == null || recognizedUserName.isEmpty()) {
                 return ResponseEntity.badRequest().body("Face could not be recognized.");
             }
             
-            FaceData identifiedFaceData = faceDataRepository.findByUsername(recognizedUserName);
-            System.out.println("Wifi ip "+routerIP);
-            System.out.println("Wifi signal strength "+wifiSignalStrength);
-            if (identifiedFaceData == null) {
-                return ResponseEntity.badRequest()
-                        .body("user did not mark Attendance In (or) User not found in database.");
-            }
-            
-            Long userMobNo = identifiedFaceData.getMobno();
-            Attendance attendeeOutReq = attendanceService.getDetailsByMobNo(userMobNo);
-            if (attendeeOutReq == null) {
-                return ResponseEntity.badRequest()
-                        .body("Attendance record not found for user: " + recognizedUserName);
-            }
-            
-            if (attendeeOutReq.getOutTime() == null) {
-                attendeeOutReq.setOutTime(LocalTime.now());
-                attendanceRepository.save(attendeeOutReq);
-                return ResponseEntity.ok("Attendance Out recorded for user: " + recognizedUserName);
-            } else {
-                return ResponseEntity.ok("User already marked as Attendance Out: " + recognizedUserName);
+            // Record attendance, unless the client has already been told to retry
+            if (!deadline.commit()) {
+                return null;
             }
+            long start = System.nanoTime();
+            PunchResult punch = attendanceService.punchOut(recognizedUserName);
+            metrics.record(RecognitionMetrics.Stage.PUNCH, start, trace);
+            metrics.punchOut(punch);
+            recognitionCache.put(cacheKey, recognizedUserName, punch);
+            return withTrace(punchOutResponse(recognizedUserName, punch), trace);
         } catch (Exception e) {
             e.printStackTrace();
-            return ResponseEntity.badRequest().body("Error: " + e.getMessage());
+            return withTrace(ResponseEntity.badRequest().body("Error: " + e.getMessage()), trace);
+        }
+    }
+    
+    private static ResponseEntity<?> punchOutResponse(String recognizedUserName, PunchResult punch) {
+        switch (punch) {
+            case PUNCHED_OUT:
+                return ResponseEntity.ok("Attendance Out recorded for user: " + recognizedUserName);
+            case ALREADY_PUNCHED_OUT:
+                return ResponseEntity.ok("User already marked as Attendance Out: " + recognizedUserName);
+            case NOT_PUNCHED_IN:
+                return ResponseEntity.badRequest()
+                        .body("Attendance record not found for user: " + recognizedUserName);
+            default:
+                return ResponseEntity.badRequest()
+                        .body("user did not mark Attendance In (or) User not found in database.");
+        }
+    }
+    
+    /**
+     * Recognize work run on a recognition thread, given the upload read into
+     * native memory, which is freed once the work returns, and the key to
+     * cache its result under.
+     */
+    private interface RecognitionTask {
+        ResponseEntity<?> run(BytePointer image, String cacheKey, RecognitionExecutor.Deadline deadline);
+    }
+    
+    /**
+     * Adds the detector and stage times of the request to its response.
+     */
+    private static ResponseEntity<?> withTrace(ResponseEntity<?> response, RecognitionTrace trace) {
+        if (trace.isEmpty()) {
+            return response;
+        }
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(response.getStatusCode());
+        if (trace.getDetector() != null) {
+            builder.header("X-Face-Detector", trace.getDetector());
         }
+        String timing = trace.toServerTiming();
+        if (!timing.isEmpty()) {
+            builder.header("Server-Timing", timing);
+        }
+        return builder.body(response.getBody());
     }
     
+    /**
+     * Lists registered users in id order, all of them unless an
+     * {@code afterId} or {@code limit} asks for pages. Pass the id from the
+     * X-Next-After-Id header of a page as afterId to get the next one; the
+     * header is absent on the last page.
+     */
     @GetMapping("/registered-users")
-    public List<FaceData> getRegisteredUsers() {
-        return faceDataRepository.findAll();
+    public ResponseEntity<List<RegisteredUserSummary>> getRegisteredUsers(
+            @RequestParam(required = false) Long afterId,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String college,
+            @RequestParam(required = false) String dept) {
+        if (afterId == null && limit == null) {
+            return ResponseEntity.ok(faceDataRepository.findSummaries(0, college, dept, Pageable.unpaged()));
+        }
+        int pageSize = Math.max(1, Math.min(limit != null ? limit : DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE));
+        List<RegisteredUserSummary> users = faceDataRepository.findSummaries(afterId != null ? afterId : 0,
+                college, dept, PageRequest.of(0, pageSize));
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (users.size() == pageSize) {
+            response.header("X-Next-After-Id", String.valueOf(users.get(users.size() - 1).getId()));
+        }
+        return response.body(users);
+    }
+
+    @GetMapping("/registered-users/{username}/image")
+    public ResponseEntity<byte[]> getRegisteredUserImage(@PathVariable String username) {
+        byte[] faceImage = faceDataRepository.findFaceImageByUsername(username);
+        if (faceImage == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok().contentType(MediaType.IMAGE_PNG).body(faceImage);
     }
 }
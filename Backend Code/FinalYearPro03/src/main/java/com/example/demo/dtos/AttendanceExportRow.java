@@ -0,0 +1,66 @@
+package com.example.demo.dtos;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * One attendance row as exported, read as a projection so streaming a long
+ * date range does not fill the persistence context with entities.
+ */
+public class AttendanceExportRow {
+
+    private final LocalDate date;
+    private final String name;
+    private final long mobno;
+    private final String dept;
+    private final int age;
+    private final String college;
+    private final LocalTime inTime;
+    private final LocalTime outTime;
+
+    public AttendanceExportRow(LocalDate date, String name, long mobno, String dept, int age, String college,
+                               LocalTime inTime, LocalTime outTime) {
+        this.date = date;
+        this.name = name;
+        this.mobno = mobno;
+        this.dept = dept;
+        this.age = age;
+        this.college = college;
+        this.inTime = inTime;
+        this.outTime = outTime;
+    }
+
+    // Getters
+
+    public LocalDate getDate() {
+        return date;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getMobno() {
+        return mobno;
+    }
+
+    public String getDept() {
+        return dept;
+    }
+
+    public int getAge() {
+        return age;
+    }
+
+    public String getCollege() {
+        return college;
+    }
+
+    public LocalTime getInTime() {
+        return inTime;
+    }
+
+    public LocalTime getOutTime() {
+        return outTime;
+    }
+}
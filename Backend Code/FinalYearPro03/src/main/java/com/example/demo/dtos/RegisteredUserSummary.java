@@ -0,0 +1,63 @@
+package com.example.demo.dtos;
+
+/**
+ * A registered user without the password, face image or embedding, for
+ * listings and lookups that only need the personal details.
+ */
+public class RegisteredUserSummary {
+
+    private final Long id;
+    private final String username;
+    private final String name;
+    private final long mobno;
+    private final String dept;
+    private final String college;
+    private final String collegeUsername;
+    private final int age;
+
+    public RegisteredUserSummary(Long id, String username, String name, long mobno, String dept,
+                                 String college, String collegeUsername, int age) {
+        this.id = id;
+        this.username = username;
+        this.name = name;
+        this.mobno = mobno;
+        this.dept = dept;
+        this.college = college;
+        this.collegeUsername = collegeUsername;
+        this.age = age;
+    }
+
+    // Getters
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getMobno() {
+        return mobno;
+    }
+
+    public String getDept() {
+        return dept;
+    }
+
+    public String getCollege() {
+        return college;
+    }
+
+    public String getCollegeUsername() {
+        return collegeUsername;
+    }
+
+    public int getAge() {
+        return age;
+    }
+}
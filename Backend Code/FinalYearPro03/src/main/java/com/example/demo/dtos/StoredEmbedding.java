@@ -0,0 +1,79 @@
+package com.example.demo.dtos;
+
+import com.example.demo.model.FaceData;
+
+/**
+ * The columns the recognition galleries are built from: who the user is,
+ * where they are enrolled, and their live and pending embeddings.
+ */
+public class StoredEmbedding {
+
+    private final String username;
+    private final String college;
+    private final String dept;
+    private final float[] faceEmbedding;
+    private final String embeddingModelVersion;
+    private final float[] pendingEmbedding;
+    private final String pendingModelVersion;
+
+    public StoredEmbedding(String username, String college, String dept, float[] faceEmbedding,
+                           String embeddingModelVersion, float[] pendingEmbedding, String pendingModelVersion) {
+        this.username = username;
+        this.college = college;
+        this.dept = dept;
+        this.faceEmbedding = faceEmbedding;
+        this.embeddingModelVersion = embeddingModelVersion;
+        this.pendingEmbedding = pendingEmbedding;
+        this.pendingModelVersion = pendingModelVersion;
+    }
+
+    public static StoredEmbedding of(FaceData faceData) {
+        return new StoredEmbedding(faceData.getUsername(), faceData.getCollege(), faceData.getDept(),
+                faceData.getFaceEmbedding(), faceData.getEmbeddingModelVersion(),
+                faceData.getPendingEmbedding(), faceData.getPendingModelVersion());
+    }
+
+    /**
+     * Returns the embedding produced by the given model version, whether it
+     * is the live or the pending one, or {@code null} if there is none.
+     */
+    public float[] embeddingFor(String version) {
+        if (version.equals(embeddingModelVersion)) {
+            return faceEmbedding;
+        }
+        if (version.equals(pendingModelVersion)) {
+            return pendingEmbedding;
+        }
+        return null;
+    }
+
+    // Getters
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getCollege() {
+        return college;
+    }
+
+    public String getDept() {
+        return dept;
+    }
+
+    public float[] getFaceEmbedding() {
+        return faceEmbedding;
+    }
+
+    public String getEmbeddingModelVersion() {
+        return embeddingModelVersion;
+    }
+
+    public float[] getPendingEmbedding() {
+        return pendingEmbedding;
+    }
+
+    public String getPendingModelVersion() {
+        return pendingModelVersion;
+    }
+}
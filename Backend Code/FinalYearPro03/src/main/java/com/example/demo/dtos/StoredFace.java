@@ -0,0 +1,50 @@
+package com.example.demo.dtos;
+
+/**
+ * A user's stored face crop, as read by the re-embedding job.
+ */
+public class StoredFace {
+
+    private final Long id;
+    private final String username;
+    private final String college;
+    private final String dept;
+    private final byte[] faceImage;
+    private final String pendingModelVersion;
+
+    public StoredFace(Long id, String username, String college, String dept, byte[] faceImage,
+                      String pendingModelVersion) {
+        this.id = id;
+        this.username = username;
+        this.college = college;
+        this.dept = dept;
+        this.faceImage = faceImage;
+        this.pendingModelVersion = pendingModelVersion;
+    }
+
+    // Getters
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getCollege() {
+        return college;
+    }
+
+    public String getDept() {
+        return dept;
+    }
+
+    public byte[] getFaceImage() {
+        return faceImage;
+    }
+
+    public String getPendingModelVersion() {
+        return pendingModelVersion;
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.demo.gallery;
+
+/**
+ * Distance kernels used by the gallery scans.
+ * <p>
+ * When the JVM is started with {@code --add-modules jdk.incubator.vector} the
+ * squared distance is computed with SIMD lanes, otherwise a scalar loop is used.
+ * The choice is made once, so the JIT folds the branch away.
+ */
+public final class Distances {
+
+    static final boolean VECTOR_API_AVAILABLE =
+            ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private Distances() {
+    }
+
+    /**
+     * Squared Euclidean distance between {@code query} and the row of
+     * {@code matrix} starting at {@code offset}.
+     */
+    public static float squaredEuclidean(float[] query, float[] matrix, int offset, int dimension) {
+        return squaredEuclidean(query, 0, matrix, offset, dimension);
+    }
+
+    /**
+     * Squared Euclidean distance between two rows that may live in different
+     * arrays at arbitrary offsets.
+     */
+    public static float squaredEuclidean(float[] a, int aOffset, float[] b, int bOffset, int dimension) {
+        if (VECTOR_API_AVAILABLE) {
+            return VectorizedDistances.squaredEuclidean(a, aOffset, b, bOffset, dimension);
+        }
+        return scalarSquaredEuclidean(a, aOffset, b, bOffset, dimension);
+    }
+
+    public static float squaredEuclidean(float[] a, float[] b) {
+        return squaredEuclidean(a, 0, b, 0, a.length);
+    }
+
+    static float scalarSquaredEuclidean(float[] a, int aOffset, float[] b, int bOffset, int dimension) {
+        float sum = 0;
+        for (int i = 0; i < dimension; i++) {
+            float diff = a[aOffset + i] - b[bOffset + i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+}
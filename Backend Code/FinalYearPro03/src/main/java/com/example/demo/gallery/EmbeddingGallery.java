@@ -0,0 +1,267 @@
+package com.example.demo.gallery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory face gallery that keeps every enrolled embedding in one contiguous
+ * row-major float matrix with a parallel array of usernames.
+ * <p>
+ * Searches run against an immutable {@link Snapshot} and never take a lock.
+ * Enrollment is serialized on a single writer lock and publishes a new snapshot
+ * atomically, so a search that is already running keeps scanning the rows it
+ * started with.
+ */
+public class EmbeddingGallery implements EmbeddingIndex {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Object writeLock = new Object();
+    // Row index of every enrolled username, only touched under writeLock
+    private final Map<String, Integer> rowIndex = new HashMap<>();
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    /**
+     * Adds or replaces several embeddings and publishes them as one snapshot.
+     */
+    @Override
+    public void putAll(List<String> ids, List<float[]> embeddings) {
+        if (ids.size() != embeddings.size()) {
+            throw new IllegalArgumentException("ids and embeddings must have the same length");
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        synchronized (writeLock) {
+            Snapshot current = snapshot;
+            int dimension = current.size == 0 ? embeddings.get(0).length : current.dimension;
+            for (float[] embedding : embeddings) {
+                if (embedding.length != dimension) {
+                    throw new IllegalArgumentException("Expected embedding of dimension " + dimension
+                            + " but got " + embedding.length);
+                }
+            }
+
+            int needed = current.size + ids.size();
+            String[] rowIds = current.ids;
+            float[] matrix = current.matrix;
+            boolean replacesRow = false;
+            for (String id : ids) {
+                if (rowIndex.containsKey(id)) {
+                    replacesRow = true;
+                    break;
+                }
+            }
+
+            // Rows below current.size are visible to running searches, so they are
+            // only ever overwritten in a private copy. Appending past the end of the
+            // shared arrays is safe because older snapshots never read that far.
+            if (replacesRow || needed > rowIds.length || current.dimension != dimension) {
+                int capacity = Math.max(INITIAL_CAPACITY, rowIds.length);
+                while (capacity < needed) {
+                    capacity *= 2;
+                }
+                rowIds = Arrays.copyOf(rowIds, capacity);
+                float[] grown = new float[capacity * dimension];
+                System.arraycopy(matrix, 0, grown, 0, current.size * dimension);
+                matrix = grown;
+            }
+
+            int size = current.size;
+            for (int i = 0; i < ids.size(); i++) {
+                String id = ids.get(i);
+                Integer row = rowIndex.get(id);
+                if (row == null) {
+                    row = size++;
+                    rowIndex.put(id, row);
+                    rowIds[row] = id;
+                }
+                System.arraycopy(embeddings.get(i), 0, matrix, row * dimension, dimension);
+            }
+            snapshot = new Snapshot(rowIds, matrix, dimension, size);
+        }
+    }
+
+    /**
+     * Removes users and publishes the result as one snapshot. The last rows
+     * are moved into the gaps, so rows change position.
+     */
+    @Override
+    public void removeAll(Collection<String> ids) {
+        synchronized (writeLock) {
+            Snapshot current = snapshot;
+            int dimension = current.dimension;
+            int size = current.size;
+            String[] rowIds = null;
+            float[] matrix = null;
+            for (String id : ids) {
+                Integer row = rowIndex.remove(id);
+                if (row == null) {
+                    continue;
+                }
+                if (rowIds == null) {
+                    // Running searches still read these rows, so they are changed in a copy
+                    rowIds = Arrays.copyOf(current.ids, current.ids.length);
+                    matrix = Arrays.copyOf(current.matrix, current.matrix.length);
+                }
+                int last = --size;
+                if (row != last) {
+                    rowIds[row] = rowIds[last];
+                    System.arraycopy(matrix, last * dimension, matrix, row * dimension, dimension);
+                    rowIndex.put(rowIds[row], row);
+                }
+                rowIds[last] = null;
+            }
+            if (rowIds != null) {
+                snapshot = new Snapshot(rowIds, matrix, dimension, size);
+            }
+        }
+    }
+
+    /**
+     * Adds rows given as a row-major matrix, as read from a stored snapshot.
+     * An empty gallery adopts the arrays without copying them, so the caller
+     * must not modify them afterwards.
+     */
+    public void putMatrix(String[] ids, float[] matrix, int dimension) {
+        if (matrix.length != ids.length * dimension) {
+            throw new IllegalArgumentException("Matrix does not hold " + ids.length + " rows of dimension "
+                    + dimension);
+        }
+        synchronized (writeLock) {
+            if (snapshot.size == 0 && ids.length > 0) {
+                for (int row = 0; row < ids.length; row++) {
+                    if (rowIndex.put(ids[row], row) != null) {
+                        rowIndex.clear();
+                        break;
+                    }
+                }
+                if (rowIndex.size() == ids.length) {
+                    snapshot = new Snapshot(ids, matrix, dimension, ids.length);
+                    return;
+                }
+            }
+        }
+        // Not empty or ids repeat: merge row by row
+        List<float[]> embeddings = new ArrayList<>(ids.length);
+        for (int row = 0; row < ids.length; row++) {
+            embeddings.add(Arrays.copyOfRange(matrix, row * dimension, (row + 1) * dimension));
+        }
+        putAll(Arrays.asList(ids), embeddings);
+    }
+
+    @Override
+    public Match nearest(float[] query) {
+        return snapshot.nearest(query);
+    }
+
+    @Override
+    public int size() {
+        return snapshot.size;
+    }
+
+    /**
+     * Returns the current immutable view of the gallery.
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Immutable view of the gallery. The backing arrays may be longer than
+     * {@link #size()}; rows past the end belong to later snapshots.
+     */
+    public static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(new String[0], new float[0], 0, 0);
+
+        private final String[] ids;
+        private final float[] matrix;
+        private final int dimension;
+        private final int size;
+
+        Snapshot(String[] ids, float[] matrix, int dimension, int size) {
+            this.ids = ids;
+            this.matrix = matrix;
+            this.dimension = dimension;
+            this.size = size;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int dimension() {
+            return dimension;
+        }
+
+        public String id(int row) {
+            return ids[row];
+        }
+
+        /**
+         * Backing row-major matrix; only the first {@code size() * dimension()}
+         * values belong to this snapshot.
+         */
+        float[] matrix() {
+            return matrix;
+        }
+
+        /**
+         * Copies one row of the matrix into a new array.
+         */
+        public float[] embedding(int row) {
+            return Arrays.copyOfRange(matrix, row * dimension, (row + 1) * dimension);
+        }
+
+        public Match nearest(float[] query) {
+            if (size == 0) {
+                return null;
+            }
+            if (query.length != dimension) {
+                throw new IllegalArgumentException("Expected query of dimension " + dimension
+                        + " but got " + query.length);
+            }
+            int bestRow = -1;
+            float bestDistance = Float.MAX_VALUE;
+            for (int row = 0, offset = 0; row < size; row++, offset += dimension) {
+                float distance = Distances.squaredEuclidean(query, matrix, offset, dimension);
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    bestRow = row;
+                }
+            }
+            return new Match(ids[bestRow], bestDistance);
+        }
+    }
+
+    /**
+     * Closest gallery entry for a query, with its squared Euclidean distance.
+     */
+    public static final class Match {
+
+        private final String id;
+        private final float squaredDistance;
+
+        public Match(String id, float squaredDistance) {
+            this.id = id;
+            this.squaredDistance = squaredDistance;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public float getSquaredDistance() {
+            return squaredDistance;
+        }
+
+        public float getDistance() {
+            return (float) Math.sqrt(squaredDistance);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.demo.gallery;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Nearest-neighbour lookup over enrolled face embeddings, keyed by username.
+ * Implementations are safe for concurrent searches while enrollment is going on.
+ */
+public interface EmbeddingIndex extends EmbeddingSearch {
+
+    /**
+     * Adds or replaces the embedding stored for a username.
+     */
+    default void put(String id, float[] embedding) {
+        putAll(List.of(id), List.of(embedding));
+    }
+
+    /**
+     * Adds or replaces several embeddings at once.
+     */
+    void putAll(List<String> ids, List<float[]> embeddings);
+
+    /**
+     * Removes the embeddings of the given usernames; usernames that are not
+     * enrolled here are ignored.
+     */
+    void removeAll(Collection<String> ids);
+}
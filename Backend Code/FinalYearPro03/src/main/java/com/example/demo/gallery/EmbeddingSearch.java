@@ -0,0 +1,16 @@
+package com.example.demo.gallery;
+
+/**
+ * Read side of an {@link EmbeddingIndex}: searches the enrolled embeddings
+ * without any way to change them.
+ */
+public interface EmbeddingSearch {
+
+    /**
+     * Returns the closest enrolled embedding to the query, or {@code null} when
+     * the index is empty.
+     */
+    EmbeddingGallery.Match nearest(float[] query);
+
+    int size();
+}
@@ -0,0 +1,409 @@
+package com.example.demo.gallery;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps a copy of an exact gallery on disk so a restart can load it without
+ * reading every embedding from the database.
+ * <p>
+ * {@code gallery.snapshot} holds the whole gallery: a header with the model
+ * version, the embedding dimension and the highest database id it covers,
+ * then per partition the usernames followed by the raw little-endian float
+ * matrix. It is memory-mapped on load, so every partition is one bulk copy.
+ * Embeddings enrolled after the snapshot was written are appended to
+ * {@code gallery.log} as checksummed records; a record cut short by a crash
+ * ends the log there. Neither file is the source of truth, but a start only
+ * reads users added after the snapshot from the database, so re-enrollments
+ * of existing users are known from the log alone. Appends therefore reach
+ * the disk before they return, and a store that could not append is
+ * discarded so the next start loads everything from the database.
+ */
+public class GallerySnapshotStore {
+
+    private static final int SNAPSHOT_MAGIC = 0x46475331; // "FGS1"
+    private static final int LOG_MAGIC = 0x46474C31;      // "FGL1"
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+    private final Path snapshotFile;
+    private final Path logFile;
+    // Log open for appending and the model version its records belong to
+    private FileChannel log;
+    private String logModelVersion;
+
+    public GallerySnapshotStore(Path directory) {
+        this.snapshotFile = directory.resolve("gallery.snapshot");
+        this.logFile = directory.resolve("gallery.log");
+    }
+
+    /**
+     * Loads the snapshot and the log into an empty gallery. Returns
+     * {@code null} if there is no snapshot of the given model version, in
+     * which case the gallery is left untouched.
+     */
+    public synchronized Loaded load(String modelVersion, PartitionedGallery<EmbeddingGallery> gallery)
+            throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return null;
+        }
+        Set<String> ids = new HashSet<>();
+        long watermark;
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Gallery snapshot is larger than 2GB");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a gallery snapshot: " + snapshotFile);
+            }
+            if (!modelVersion.equals(getString(buffer))) {
+                return null;
+            }
+            int dimension = buffer.getInt();
+            watermark = buffer.getLong();
+            int partitions = buffer.getInt();
+            for (int p = 0; p < partitions; p++) {
+                String college = getString(buffer);
+                String dept = getString(buffer);
+                String[] rowIds = new String[buffer.getInt()];
+                for (int row = 0; row < rowIds.length; row++) {
+                    rowIds[row] = getString(buffer);
+                    ids.add(rowIds[row]);
+                }
+                float[] matrix = new float[rowIds.length * dimension];
+                buffer.asFloatBuffer().get(matrix);
+                buffer.position(buffer.position() + matrix.length * Float.BYTES);
+                EmbeddingGallery partition = gallery.partition(college, dept);
+                partition.putMatrix(rowIds, matrix, dimension);
+                gallery.placed(partition, Arrays.asList(rowIds));
+            }
+        }
+        int logEntries = replayLog(modelVersion, gallery, ids);
+        return new Loaded(watermark, ids, logEntries);
+    }
+
+    /**
+     * Replays the log records of the given model version and leaves the log
+     * open for appending after the last intact one. A log of another model
+     * version is ignored and replaced on the next append.
+     */
+    private int replayLog(String modelVersion, PartitionedGallery<EmbeddingGallery> gallery, Set<String> ids)
+            throws IOException {
+        closeLog();
+        if (!Files.exists(logFile)) {
+            return 0;
+        }
+        FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Gallery log is larger than 2GB");
+            }
+            // Read rather than mapped, since the file may be truncated below
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading until the whole log is in memory
+            }
+            buffer.flip();
+            if (buffer.remaining() < 4 || buffer.getInt() != LOG_MAGIC
+                    || !modelVersion.equals(getString(buffer))) {
+                channel.close();
+                return 0;
+            }
+            int entries = 0;
+            int end = buffer.position();
+            CRC32 crc = new CRC32();
+            while (buffer.remaining() >= 8) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    break;
+                }
+                ByteBuffer payload = buffer.slice(buffer.position(), length).order(ByteOrder.LITTLE_ENDIAN);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                buffer.position(buffer.position() + length);
+                String college = getString(payload);
+                String dept = getString(payload);
+                String id = getString(payload);
+                float[] embedding = new float[payload.getInt()];
+                payload.asFloatBuffer().get(embedding);
+                gallery.put(college, dept, id, embedding);
+                ids.add(id);
+                entries++;
+                end = buffer.position();
+            }
+            // Drop a torn record so new ones are appended after intact data
+            channel.truncate(end);
+            channel.position(end);
+            log = channel;
+            logModelVersion = modelVersion;
+            return entries;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the whole gallery as the new snapshot, covering every database
+     * row up to {@code watermark}, and starts an empty log. The snapshot is
+     * written to a temporary file first and moved into place, so a crash
+     * never leaves a partial snapshot behind.
+     */
+    public synchronized void write(String modelVersion, PartitionedGallery<EmbeddingGallery> gallery,
+                                   long watermark) throws IOException {
+        List<String> colleges = new ArrayList<>();
+        List<String> depts = new ArrayList<>();
+        List<EmbeddingGallery.Snapshot> partitions = new ArrayList<>();
+        gallery.forEachPartition((college, dept, partition) -> {
+            EmbeddingGallery.Snapshot snapshot = partition.snapshot();
+            if (snapshot.size() > 0) {
+                colleges.add(college);
+                depts.add(dept);
+                partitions.add(snapshot);
+            }
+        });
+        int dimension = partitions.isEmpty() ? 0 : partitions.get(0).dimension();
+
+        Files.createDirectories(snapshotFile.toAbsolutePath().getParent());
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(channel);
+            out.putInt(SNAPSHOT_MAGIC);
+            out.putString(modelVersion);
+            out.putInt(dimension);
+            out.putLong(watermark);
+            out.putInt(partitions.size());
+            for (int p = 0; p < partitions.size(); p++) {
+                EmbeddingGallery.Snapshot snapshot = partitions.get(p);
+                out.putString(colleges.get(p));
+                out.putString(depts.get(p));
+                out.putInt(snapshot.size());
+                for (int row = 0; row < snapshot.size(); row++) {
+                    out.putString(snapshot.id(row));
+                }
+                out.putFloats(snapshot.matrix(), snapshot.size() * dimension);
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        resetLog(modelVersion);
+    }
+
+    /**
+     * Appends newly enrolled embeddings to the log and syncs it to disk.
+     * Appending embeddings of another model version than the log holds
+     * starts a new log.
+     */
+    public synchronized void append(String modelVersion, List<Entry> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        if (!modelVersion.equals(logModelVersion)) {
+            resetLog(modelVersion);
+        }
+        Output out = new Output(log);
+        CRC32 crc = new CRC32();
+        for (Entry entry : entries) {
+            ByteBuffer payload = encode(entry);
+            crc.reset();
+            crc.update(payload.duplicate());
+            out.putInt(payload.remaining());
+            out.putInt((int) crc.getValue());
+            out.put(payload);
+        }
+        out.flush();
+        log.force(false);
+    }
+
+    /**
+     * Deletes the snapshot and the log, for when the log may have missed an
+     * enrollment and the next start has to read the database instead.
+     */
+    public synchronized void discard() throws IOException {
+        closeLog();
+        Files.deleteIfExists(snapshotFile);
+        Files.deleteIfExists(logFile);
+    }
+
+    public synchronized void close() throws IOException {
+        closeLog();
+    }
+
+    private void resetLog(String modelVersion) throws IOException {
+        closeLog();
+        Files.createDirectories(logFile.toAbsolutePath().getParent());
+        log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        Output out = new Output(log);
+        out.putInt(LOG_MAGIC);
+        out.putString(modelVersion);
+        out.flush();
+        logModelVersion = modelVersion;
+    }
+
+    private void closeLog() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+            logModelVersion = null;
+        }
+    }
+
+    private static ByteBuffer encode(Entry entry) {
+        byte[] college = bytes(entry.college);
+        byte[] dept = bytes(entry.dept);
+        byte[] id = bytes(entry.id);
+        ByteBuffer payload = ByteBuffer.allocate(16 + college.length + dept.length + id.length
+                + entry.embedding.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        payload.putInt(college.length).put(college);
+        payload.putInt(dept.length).put(dept);
+        payload.putInt(id.length).put(id);
+        payload.putInt(entry.embedding.length);
+        payload.asFloatBuffer().put(entry.embedding);
+        payload.position(payload.limit());
+        return payload.flip();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Little-endian writer that fills one buffer and hands it to the channel
+     * whenever it is full.
+     */
+    private static final class Output {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        void putString(String value) throws IOException {
+            byte[] bytes = bytes(value);
+            putInt(bytes.length);
+            put(ByteBuffer.wrap(bytes));
+        }
+
+        void put(ByteBuffer source) throws IOException {
+            while (source.hasRemaining()) {
+                ensure(1);
+                int chunk = Math.min(source.remaining(), buffer.remaining());
+                buffer.put(buffer.position(), source, source.position(), chunk);
+                buffer.position(buffer.position() + chunk);
+                source.position(source.position() + chunk);
+            }
+        }
+
+        void putFloats(float[] values, int count) throws IOException {
+            int offset = 0;
+            while (offset < count) {
+                ensure(Float.BYTES);
+                int chunk = Math.min(count - offset, buffer.remaining() / Float.BYTES);
+                buffer.asFloatBuffer().put(values, offset, chunk);
+                buffer.position(buffer.position() + chunk * Float.BYTES);
+                offset += chunk;
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * One embedding to append to the log.
+     */
+    public static final class Entry {
+
+        private final String college;
+        private final String dept;
+        private final String id;
+        private final float[] embedding;
+
+        public Entry(String college, String dept, String id, float[] embedding) {
+            this.college = college;
+            this.dept = dept;
+            this.id = id;
+            this.embedding = embedding;
+        }
+    }
+
+    /**
+     * What a load restored: the highest database id the snapshot covers,
+     * the ids now in the gallery and how many came from the log.
+     */
+    public static final class Loaded {
+
+        private final long watermark;
+        private final Set<String> ids;
+        private final int logEntries;
+
+        Loaded(long watermark, Set<String> ids, int logEntries) {
+            this.watermark = watermark;
+            this.ids = ids;
+            this.logEntries = logEntries;
+        }
+
+        public long getWatermark() {
+            return watermark;
+        }
+
+        public Set<String> getIds() {
+            return ids;
+        }
+
+        public int getLogEntries() {
+            return logEntries;
+        }
+    }
+}
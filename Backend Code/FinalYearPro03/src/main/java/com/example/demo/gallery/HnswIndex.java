@@ -0,0 +1,398 @@
+package com.example.demo.gallery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Approximate nearest-neighbour index over face embeddings using a
+ * Hierarchical Navigable Small World graph (Malkov and Yashunin, 2016).
+ * <p>
+ * {@code m} is the number of links each node keeps per layer (twice that on
+ * the bottom layer), {@code efConstruction} the candidate list size while
+ * inserting and {@code efSearch} the candidate list size while searching.
+ * Larger values trade latency for recall.
+ * <p>
+ * Searches share a read lock and inserts take the write lock. Replacing a
+ * username's embedding adds a new node and hides the old one from results;
+ * the old node stays in the graph as a routing point.
+ */
+public class HnswIndex implements EmbeddingIndex {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private volatile int efSearch;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Random random = new Random(42);
+    private final Map<String, Integer> nodeById = new HashMap<>();
+    private final ThreadLocal<VisitedSet> visitedSets = ThreadLocal.withInitial(VisitedSet::new);
+
+    private int dimension;
+    private int nodeCount;
+    private int liveCount;
+    private float[] vectors = new float[0];
+    private String[] ids = new String[0];
+    private boolean[] deleted = new boolean[0];
+    // links[node][level] holds the neighbours of node on that level
+    private int[][][] links = new int[0][][];
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswIndex(int m, int efConstruction, int efSearch) {
+        if (m < 2) {
+            throw new IllegalArgumentException("m must be at least 2");
+        }
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.efSearch = Math.max(1, efSearch);
+        this.levelMultiplier = 1 / Math.log(m);
+    }
+
+    public int getEfSearch() {
+        return efSearch;
+    }
+
+    public void setEfSearch(int efSearch) {
+        this.efSearch = Math.max(1, efSearch);
+    }
+
+    @Override
+    public void putAll(List<String> ids, List<float[]> embeddings) {
+        if (ids.size() != embeddings.size()) {
+            throw new IllegalArgumentException("ids and embeddings must have the same length");
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                insert(ids.get(i), embeddings.get(i));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Marks the users' nodes deleted. They stay in the graph as waypoints
+     * but are never returned.
+     */
+    @Override
+    public void removeAll(Collection<String> ids) {
+        lock.writeLock().lock();
+        try {
+            for (String id : ids) {
+                Integer node = nodeById.remove(id);
+                if (node != null) {
+                    deleted[node] = true;
+                    liveCount--;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public EmbeddingGallery.Match nearest(float[] query) {
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0) {
+                return null;
+            }
+            if (query.length != dimension) {
+                throw new IllegalArgumentException("Expected query of dimension " + dimension
+                        + " but got " + query.length);
+            }
+            int entry = entryPoint;
+            for (int level = maxLevel; level > 0; level--) {
+                entry = greedyClosest(query, 0, entry, level);
+            }
+            for (Candidate candidate : searchLayer(query, 0, entry, efSearch, 0)) {
+                if (!deleted[candidate.node]) {
+                    return new EmbeddingGallery.Match(ids[candidate.node], candidate.distance);
+                }
+            }
+            // Every candidate was replaced or removed; rare enough to answer with an exact scan
+            return liveCount > 0 ? scanLive(query) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private EmbeddingGallery.Match scanLive(float[] query) {
+        int best = -1;
+        float bestDistance = Float.MAX_VALUE;
+        for (int node = 0; node < nodeCount; node++) {
+            if (!deleted[node]) {
+                float distance = distance(query, 0, node);
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = node;
+                }
+            }
+        }
+        return best < 0 ? null : new EmbeddingGallery.Match(ids[best], bestDistance);
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void insert(String id, float[] embedding) {
+        if (nodeCount == 0) {
+            dimension = embedding.length;
+        } else if (embedding.length != dimension) {
+            throw new IllegalArgumentException("Expected embedding of dimension " + dimension
+                    + " but got " + embedding.length);
+        }
+        Integer previous = nodeById.get(id);
+        if (previous != null) {
+            deleted[previous] = true;
+            liveCount--;
+        }
+
+        ensureCapacity(nodeCount + 1);
+        int node = nodeCount++;
+        System.arraycopy(embedding, 0, vectors, node * dimension, dimension);
+        ids[node] = id;
+        int level = randomLevel();
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[node][l] = new int[0];
+        }
+        nodeById.put(id, node);
+        liveCount++;
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        int offset = node * dimension;
+        int entry = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            entry = greedyClosest(vectors, offset, entry, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            List<Candidate> candidates = searchLayer(vectors, offset, entry, efConstruction, l);
+            int[] neighbours = selectNeighbours(candidates, m);
+            links[node][l] = neighbours;
+            int maxLinks = l == 0 ? maxM0 : m;
+            for (int neighbour : neighbours) {
+                connect(neighbour, node, l, maxLinks);
+            }
+            entry = candidates.get(0).node;
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+    }
+
+    /**
+     * Adds a back link from {@code from} to {@code to}, pruning the neighbour
+     * list with the selection heuristic once it exceeds {@code maxLinks}.
+     */
+    private void connect(int from, int to, int level, int maxLinks) {
+        int[] current = links[from][level];
+        if (current.length < maxLinks) {
+            int[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = to;
+            links[from][level] = grown;
+            return;
+        }
+        int offset = from * dimension;
+        List<Candidate> candidates = new ArrayList<>(current.length + 1);
+        for (int neighbour : current) {
+            candidates.add(new Candidate(neighbour, distance(offset, neighbour)));
+        }
+        candidates.add(new Candidate(to, distance(offset, to)));
+        candidates.sort(Candidate.BY_DISTANCE);
+        links[from][level] = selectNeighbours(candidates, maxLinks);
+    }
+
+    /**
+     * Neighbour selection heuristic: prefer candidates that are closer to the
+     * base node than to any neighbour already chosen, so links spread out in
+     * different directions. Remaining slots are filled with the closest
+     * skipped candidates. {@code candidates} must be sorted by distance.
+     */
+    private int[] selectNeighbours(List<Candidate> candidates, int max) {
+        List<Candidate> selected = new ArrayList<>(max);
+        List<Candidate> skipped = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (selected.size() >= max) {
+                break;
+            }
+            boolean diverse = true;
+            for (Candidate chosen : selected) {
+                if (distance(candidate.node * dimension, chosen.node) < candidate.distance) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(candidate);
+            } else {
+                skipped.add(candidate);
+            }
+        }
+        for (int i = 0; i < skipped.size() && selected.size() < max; i++) {
+            selected.add(skipped.get(i));
+        }
+        int[] neighbours = new int[selected.size()];
+        for (int i = 0; i < neighbours.length; i++) {
+            neighbours[i] = selected.get(i).node;
+        }
+        return neighbours;
+    }
+
+    private int greedyClosest(float[] query, int queryOffset, int entry, int level) {
+        int current = entry;
+        float currentDistance = distance(query, queryOffset, current);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int neighbour : links[current][level]) {
+                float d = distance(query, queryOffset, neighbour);
+                if (d < currentDistance) {
+                    currentDistance = d;
+                    current = neighbour;
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Best-first search on one layer. Returns up to {@code ef} nodes sorted by
+     * ascending distance to the query.
+     */
+    private List<Candidate> searchLayer(float[] query, int queryOffset, int entry, int ef, int level) {
+        VisitedSet visited = visitedSets.get();
+        visited.reset(nodeCount);
+
+        PriorityQueue<Candidate> frontier = new PriorityQueue<>(Candidate.BY_DISTANCE);
+        PriorityQueue<Candidate> results = new PriorityQueue<>(Candidate.BY_DISTANCE.reversed());
+        Candidate start = new Candidate(entry, distance(query, queryOffset, entry));
+        frontier.add(start);
+        results.add(start);
+        visited.visit(entry);
+
+        while (!frontier.isEmpty()) {
+            Candidate closest = frontier.poll();
+            if (results.size() >= ef && closest.distance > results.peek().distance) {
+                break;
+            }
+            for (int neighbour : links[closest.node][level]) {
+                if (!visited.visit(neighbour)) {
+                    continue;
+                }
+                float d = distance(query, queryOffset, neighbour);
+                if (results.size() < ef || d < results.peek().distance) {
+                    Candidate candidate = new Candidate(neighbour, d);
+                    frontier.add(candidate);
+                    results.add(candidate);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+
+        List<Candidate> sorted = new ArrayList<>(results);
+        sorted.sort(Candidate.BY_DISTANCE);
+        return sorted;
+    }
+
+    private float distance(float[] query, int queryOffset, int node) {
+        return Distances.squaredEuclidean(query, queryOffset, vectors, node * dimension, dimension);
+    }
+
+    private float distance(int offset, int node) {
+        return Distances.squaredEuclidean(vectors, offset, vectors, node * dimension, dimension);
+    }
+
+    private int randomLevel() {
+        return (int) Math.floor(-Math.log(1 - random.nextDouble()) * levelMultiplier);
+    }
+
+    private void ensureCapacity(int needed) {
+        if (needed <= ids.length) {
+            return;
+        }
+        int capacity = Math.max(INITIAL_CAPACITY, ids.length);
+        while (capacity < needed) {
+            capacity *= 2;
+        }
+        vectors = Arrays.copyOf(vectors, capacity * dimension);
+        ids = Arrays.copyOf(ids, capacity);
+        deleted = Arrays.copyOf(deleted, capacity);
+        links = Arrays.copyOf(links, capacity);
+    }
+
+    private static final class Candidate {
+
+        static final Comparator<Candidate> BY_DISTANCE = Comparator.comparingDouble(c -> c.distance);
+
+        private final int node;
+        private final float distance;
+
+        Candidate(int node, float distance) {
+            this.node = node;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * Per-thread visited marks, cleared in O(1) by bumping the generation.
+     */
+    private static final class VisitedSet {
+
+        private int[] marks = new int[0];
+        private int generation;
+
+        void reset(int size) {
+            if (marks.length < size) {
+                marks = new int[Math.max(size, marks.length * 2)];
+                generation = 0;
+            }
+            generation++;
+            if (generation == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+
+        /**
+         * Marks the node visited, returning {@code false} if it already was.
+         */
+        boolean visit(int node) {
+            if (marks[node] == generation) {
+                return false;
+            }
+            marks[node] = generation;
+            return true;
+        }
+    }
+}
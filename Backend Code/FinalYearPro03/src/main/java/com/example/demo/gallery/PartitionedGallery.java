@@ -0,0 +1,187 @@
+package com.example.demo.gallery;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Face gallery split into one {@link EmbeddingIndex} per college and
+ * department, so a recognition request scoped to a college only scans the
+ * embeddings enrolled there.
+ * <p>
+ * College and department names are compared case-insensitively and ignoring
+ * surrounding whitespace. A {@code null} or blank scope matches every
+ * partition on that level. A user lives in one partition at a time: adding
+ * them to another one removes them from where they were.
+ */
+public class PartitionedGallery<T extends EmbeddingIndex> {
+
+    private final PartitionFactory<T> partitionFactory;
+    private final Map<String, Map<String, T>> colleges = new ConcurrentHashMap<>();
+    // Partition of every user added through this gallery
+    private final Map<String, T> homes = new ConcurrentHashMap<>();
+    // False once a partition came with embeddings of its own, whose users are missing from homes
+    private volatile boolean homesComplete = true;
+
+    public PartitionedGallery(Supplier<T> partitionFactory) {
+        this((college, dept) -> partitionFactory.get());
+    }
+
+    /**
+     * Creates partitions that depend on their college and department, such
+     * as indexes over the matching partition of another gallery.
+     */
+    public PartitionedGallery(PartitionFactory<T> partitionFactory) {
+        this.partitionFactory = partitionFactory;
+    }
+
+    /**
+     * Adds or replaces a user's embedding in their college and department
+     * partition.
+     */
+    public void put(String college, String dept, String id, float[] embedding) {
+        putAll(partition(college, dept), List.of(id), List.of(embedding));
+    }
+
+    /**
+     * Adds or replaces embeddings in one of this gallery's partitions, as
+     * returned by {@link #partition}, and removes those users from any other
+     * partition.
+     */
+    public void putAll(T partition, List<String> ids, List<float[]> embeddings) {
+        partition.putAll(ids, embeddings);
+        placed(partition, ids);
+    }
+
+    /**
+     * Records that users were just added to a partition directly, such as
+     * from a stored matrix, and removes them from any other partition.
+     */
+    public void placed(T partition, Collection<String> ids) {
+        Map<T, List<String>> moved = new HashMap<>();
+        for (String id : ids) {
+            T previous = homes.put(id, partition);
+            if (previous != null && previous != partition) {
+                moved.computeIfAbsent(previous, p -> new ArrayList<>()).add(id);
+            } else if (previous == null && !homesComplete) {
+                // Unknown here, so it may be in any partition
+                forEachPartition((college, dept, index) -> {
+                    if (index != partition) {
+                        moved.computeIfAbsent(index, p -> new ArrayList<>()).add(id);
+                    }
+                });
+            }
+        }
+        moved.forEach(EmbeddingIndex::removeAll);
+    }
+
+    /**
+     * Returns the partition for a college and department, creating it if needed.
+     */
+    public T partition(String college, String dept) {
+        return colleges.computeIfAbsent(normalize(college), c -> new ConcurrentHashMap<>())
+                .computeIfAbsent(normalize(dept), d -> {
+                    T created = partitionFactory.create(normalize(college), d);
+                    if (created.size() > 0) {
+                        homesComplete = false;
+                    }
+                    return created;
+                });
+    }
+
+    /**
+     * Returns the closest embedding within the scope, or {@code null} if the
+     * scope holds no embeddings.
+     */
+    public EmbeddingGallery.Match nearest(String college, String dept, float[] query) {
+        EmbeddingGallery.Match best = null;
+        for (T index : scope(college, dept)) {
+            EmbeddingGallery.Match match = index.nearest(query);
+            if (match != null && (best == null || match.getSquaredDistance() < best.getSquaredDistance())) {
+                best = match;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the partitions a search with this scope has to visit.
+     */
+    public List<T> scope(String college, String dept) {
+        List<T> partitions = new ArrayList<>();
+        Collection<Map<String, T>> collegeScope;
+        if (isBlank(college)) {
+            collegeScope = colleges.values();
+        } else {
+            Map<String, T> departments = colleges.get(normalize(college));
+            collegeScope = departments == null ? List.of() : List.of(departments);
+        }
+        for (Map<String, T> departments : collegeScope) {
+            if (isBlank(dept)) {
+                partitions.addAll(departments.values());
+            } else {
+                T partition = departments.get(normalize(dept));
+                if (partition != null) {
+                    partitions.add(partition);
+                }
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Searches every partition of one scope as a single index.
+     */
+    public EmbeddingSearch view(String college, String dept) {
+        return new EmbeddingSearch() {
+            @Override
+            public EmbeddingGallery.Match nearest(float[] query) {
+                return PartitionedGallery.this.nearest(college, dept, query);
+            }
+
+            @Override
+            public int size() {
+                int size = 0;
+                for (T index : scope(college, dept)) {
+                    size += index.size();
+                }
+                return size;
+            }
+        };
+    }
+
+    public int size() {
+        return view(null, null).size();
+    }
+
+    /**
+     * Visits every partition with its normalized college and department.
+     */
+    public void forEachPartition(PartitionVisitor<T> visitor) {
+        colleges.forEach((college, departments) ->
+                departments.forEach((dept, index) -> visitor.visit(college, dept, index)));
+    }
+
+    public static String normalize(String name) {
+        return name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isBlank(String name) {
+        return name == null || name.isBlank();
+    }
+
+    @FunctionalInterface
+    public interface PartitionVisitor<T> {
+        void visit(String college, String dept, T index);
+    }
+
+    @FunctionalInterface
+    public interface PartitionFactory<T> {
+        T create(String college, String dept);
+    }
+}
@@ -0,0 +1,375 @@
+package com.example.demo.gallery;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Search index that scans a compact copy of an exact gallery's embeddings,
+ * stored as int8 codes with a per-dimension scale or as fp16 values, and
+ * re-ranks the closest few candidates against the full-precision rows.
+ * <p>
+ * The scan reads a quarter (int8) or half (fp16) of the bytes an exact scan
+ * reads. Because the returned distance is always computed in full precision,
+ * the accept/reject decision under a distance threshold matches the exact
+ * scan as long as the true nearest neighbour is among the re-ranked
+ * candidates.
+ * <p>
+ * The index follows its source gallery rather than holding embeddings of its
+ * own: {@link #putAll} re-reads the source, so the source must be updated
+ * first. Like {@link EmbeddingGallery}, searches run against an immutable
+ * snapshot and never take a lock.
+ */
+public class QuantizedGallery implements EmbeddingIndex {
+
+    public enum Encoding {
+        INT8, FP16;
+
+        /**
+         * Parses a {@code face.gallery.index} value, or returns {@code null}
+         * if it does not name an encoding.
+         */
+        public static Encoding parse(String name) {
+            for (Encoding encoding : values()) {
+                if (encoding.name().equals(name.trim().toUpperCase(Locale.ROOT))) {
+                    return encoding;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+    // Headroom over the largest value seen, so new enrollments rarely force a rescale
+    private static final float SCALE_HEADROOM = 1.1f;
+    private static final float[] HALF_TO_FLOAT = new float[1 << 16];
+
+    static {
+        for (int half = 0; half < HALF_TO_FLOAT.length; half++) {
+            HALF_TO_FLOAT[half] = halfToFloat(half);
+        }
+    }
+
+    private final EmbeddingGallery source;
+    private final Encoding encoding;
+    private final int rerankCandidates;
+
+    private final Object writeLock = new Object();
+    // Row of every coded username, only touched under writeLock
+    private final Map<String, Integer> rowIndex = new HashMap<>();
+    private volatile Codes codes = Codes.EMPTY;
+
+    public QuantizedGallery(EmbeddingGallery source, Encoding encoding, int rerankCandidates) {
+        this.source = source;
+        this.encoding = encoding;
+        this.rerankCandidates = Math.max(1, rerankCandidates);
+        refresh(List.of(), false);
+    }
+
+    /**
+     * Brings the codes up to date with the source gallery, re-encoding the
+     * rows of the given usernames, which the source has just replaced.
+     */
+    @Override
+    public void putAll(List<String> ids, List<float[]> embeddings) {
+        refresh(ids, false);
+    }
+
+    /**
+     * Follows users removed from the source gallery. The source moves rows
+     * to fill the gaps, so every row is coded again; removals only happen
+     * when a user changes department, which is rare.
+     */
+    @Override
+    public void removeAll(Collection<String> ids) {
+        synchronized (writeLock) {
+            for (String id : ids) {
+                if (rowIndex.containsKey(id)) {
+                    rowIndex.clear();
+                    refresh(List.of(), true);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void refresh(List<String> replacedIds, boolean recodeAll) {
+        synchronized (writeLock) {
+            EmbeddingGallery.Snapshot full = source.snapshot();
+            Codes current = codes;
+            int dimension = full.dimension();
+            float[] matrix = full.matrix();
+
+            int[] replacedRows = new int[replacedIds.size()];
+            int replaced = 0;
+            for (String id : replacedIds) {
+                Integer row = rowIndex.get(id);
+                if (row != null && row < current.size) {
+                    replacedRows[replaced++] = row;
+                }
+            }
+            for (int row = recodeAll ? 0 : current.size; row < full.size(); row++) {
+                rowIndex.put(full.id(row), row);
+            }
+
+            float[] scales = current.scales;
+            boolean rescale = recodeAll || current.size == 0 || current.dimension != dimension;
+            if (encoding == Encoding.INT8 && !rescale) {
+                // Values outside the current range would be clipped
+                rescale = exceedsScale(matrix, current.size, full.size(), dimension, scales)
+                        || exceedsScale(matrix, replacedRows, replaced, dimension, scales);
+            }
+
+            if (rescale) {
+                scales = encoding == Encoding.INT8 ? computeScales(matrix, full.size(), dimension) : null;
+                Object packed = allocate(Math.max(INITIAL_CAPACITY, full.size()) * dimension);
+                encodeRows(packed, matrix, 0, full.size(), dimension, scales);
+                codes = new Codes(full, packed, scales, dimension, full.size());
+                return;
+            }
+
+            // Rows below current.size are read by running searches, so they are
+            // only rewritten in a private copy; appending past the end is safe.
+            Object packed = current.packed;
+            int needed = full.size() * dimension;
+            if (replaced > 0 || needed > capacity(packed)) {
+                int capacity = Math.max(INITIAL_CAPACITY * dimension, capacity(packed));
+                while (capacity < needed) {
+                    capacity *= 2;
+                }
+                packed = copyOf(packed, capacity);
+            }
+            encodeRows(packed, matrix, current.size, full.size(), dimension, scales);
+            for (int i = 0; i < replaced; i++) {
+                encodeRows(packed, matrix, replacedRows[i], replacedRows[i] + 1, dimension, scales);
+            }
+            codes = new Codes(full, packed, scales, dimension, full.size());
+        }
+    }
+
+    @Override
+    public EmbeddingGallery.Match nearest(float[] query) {
+        Codes current = codes;
+        if (current.size == 0) {
+            return null;
+        }
+        int dimension = current.dimension;
+        if (query.length != dimension) {
+            throw new IllegalArgumentException("Expected query of dimension " + dimension
+                    + " but got " + query.length);
+        }
+
+        // Closest rows in the quantized domain, kept sorted by distance
+        int limit = Math.min(rerankCandidates, current.size);
+        int[] candidateRows = new int[limit];
+        float[] candidateDistances = new float[limit];
+        int candidates = 0;
+        if (encoding == Encoding.INT8) {
+            byte[] packed = (byte[]) current.packed;
+            float[] scaledQuery = new float[dimension];
+            float[] weights = new float[dimension];
+            for (int d = 0; d < dimension; d++) {
+                scaledQuery[d] = query[d] / current.scales[d];
+                weights[d] = current.scales[d] * current.scales[d];
+            }
+            for (int row = 0, offset = 0; row < current.size; row++, offset += dimension) {
+                float distance = 0;
+                for (int d = 0; d < dimension; d++) {
+                    float diff = scaledQuery[d] - packed[offset + d];
+                    distance += weights[d] * diff * diff;
+                }
+                candidates = offer(candidateRows, candidateDistances, candidates, row, distance);
+            }
+        } else {
+            short[] packed = (short[]) current.packed;
+            for (int row = 0, offset = 0; row < current.size; row++, offset += dimension) {
+                float distance = 0;
+                for (int d = 0; d < dimension; d++) {
+                    float diff = query[d] - HALF_TO_FLOAT[packed[offset + d] & 0xFFFF];
+                    distance += diff * diff;
+                }
+                candidates = offer(candidateRows, candidateDistances, candidates, row, distance);
+            }
+        }
+
+        float[] matrix = current.full.matrix();
+        int bestRow = -1;
+        float bestDistance = Float.MAX_VALUE;
+        for (int i = 0; i < candidates; i++) {
+            int row = candidateRows[i];
+            float distance = Distances.squaredEuclidean(query, matrix, row * dimension, dimension);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                bestRow = row;
+            }
+        }
+        return new EmbeddingGallery.Match(current.full.id(bestRow), bestDistance);
+    }
+
+    @Override
+    public int size() {
+        return codes.size;
+    }
+
+    /**
+     * Bytes held by the codes of this gallery, not counting the source.
+     */
+    public long codeBytes() {
+        Codes current = codes;
+        long perValue = encoding == Encoding.INT8 ? Byte.BYTES : Short.BYTES;
+        return (long) current.size * current.dimension * perValue;
+    }
+
+    /**
+     * Inserts a candidate into the sorted list if it is closer than the
+     * farthest one kept. Returns the new number of candidates.
+     */
+    private static int offer(int[] rows, float[] distances, int count, int row, float distance) {
+        if (count == rows.length) {
+            if (distance >= distances[count - 1]) {
+                return count;
+            }
+            count--;
+        }
+        int position = count;
+        while (position > 0 && distances[position - 1] > distance) {
+            rows[position] = rows[position - 1];
+            distances[position] = distances[position - 1];
+            position--;
+        }
+        rows[position] = row;
+        distances[position] = distance;
+        return count + 1;
+    }
+
+    private Object allocate(int length) {
+        return encoding == Encoding.INT8 ? new byte[length] : new short[length];
+    }
+
+    private static int capacity(Object packed) {
+        return packed instanceof byte[] ? ((byte[]) packed).length : ((short[]) packed).length;
+    }
+
+    private static Object copyOf(Object packed, int length) {
+        return packed instanceof byte[] ? Arrays.copyOf((byte[]) packed, length)
+                : Arrays.copyOf((short[]) packed, length);
+    }
+
+    private void encodeRows(Object packed, float[] matrix, int fromRow, int toRow, int dimension, float[] scales) {
+        int from = fromRow * dimension;
+        int to = toRow * dimension;
+        if (encoding == Encoding.INT8) {
+            byte[] bytes = (byte[]) packed;
+            for (int i = from; i < to; i++) {
+                int code = Math.round(matrix[i] / scales[i % dimension]);
+                bytes[i] = (byte) Math.max(-127, Math.min(127, code));
+            }
+        } else {
+            short[] halves = (short[]) packed;
+            for (int i = from; i < to; i++) {
+                halves[i] = floatToHalf(matrix[i]);
+            }
+        }
+    }
+
+    private static float[] computeScales(float[] matrix, int rows, int dimension) {
+        float[] maxAbs = new float[dimension];
+        for (int i = 0; i < rows * dimension; i++) {
+            maxAbs[i % dimension] = Math.max(maxAbs[i % dimension], Math.abs(matrix[i]));
+        }
+        float[] scales = new float[dimension];
+        for (int d = 0; d < dimension; d++) {
+            scales[d] = Math.max(maxAbs[d] * SCALE_HEADROOM, Float.MIN_NORMAL) / 127f;
+        }
+        return scales;
+    }
+
+    private static boolean exceedsScale(float[] matrix, int fromRow, int toRow, int dimension, float[] scales) {
+        for (int i = fromRow * dimension; i < toRow * dimension; i++) {
+            if (Math.abs(matrix[i]) > scales[i % dimension] * 127f) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean exceedsScale(float[] matrix, int[] rows, int count, int dimension, float[] scales) {
+        for (int i = 0; i < count; i++) {
+            if (exceedsScale(matrix, rows[i], rows[i] + 1, dimension, scales)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rounds a float to the nearest IEEE 754 half-precision value.
+     */
+    static short floatToHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = ((bits >>> 23) & 0xFF) - 127 + 15;
+        int mantissa = bits & 0x7FFFFF;
+        if (exponent >= 31) {
+            return (short) (sign | 0x7C00); // too large for a half: infinity
+        }
+        if (exponent <= 0) {
+            if (exponent < -10) {
+                return (short) sign;
+            }
+            // Subnormal half: shift in the implicit leading bit
+            mantissa |= 0x800000;
+            int shift = 14 - exponent;
+            int half = mantissa >> shift;
+            if (((mantissa >> (shift - 1)) & 1) != 0) {
+                half++;
+            }
+            return (short) (sign | half);
+        }
+        int half = sign | (exponent << 10) | (mantissa >> 13);
+        if ((mantissa & 0x1000) != 0) {
+            half++; // a carry into the exponent still gives the right value
+        }
+        return (short) half;
+    }
+
+    static float halfToFloat(int half) {
+        int exponent = (half >>> 10) & 0x1F;
+        int mantissa = half & 0x3FF;
+        float magnitude;
+        if (exponent == 0) {
+            magnitude = mantissa * 0x1p-24f;
+        } else if (exponent == 31) {
+            magnitude = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+        } else {
+            magnitude = (1024 + mantissa) * Math.scalb(1f, exponent - 25);
+        }
+        return (half & 0x8000) != 0 ? -magnitude : magnitude;
+    }
+
+    /**
+     * Immutable view of the codes and the source snapshot they were made
+     * from. The packed array may be longer than {@code size} rows.
+     */
+    private static final class Codes {
+
+        static final Codes EMPTY = new Codes(EmbeddingGallery.Snapshot.EMPTY, new byte[0], null, 0, 0);
+
+        private final EmbeddingGallery.Snapshot full;
+        private final Object packed;
+        private final float[] scales;
+        private final int dimension;
+        private final int size;
+
+        Codes(EmbeddingGallery.Snapshot full, Object packed, float[] scales, int dimension, int size) {
+            this.full = full;
+            this.packed = packed;
+            this.scales = scales;
+            this.dimension = dimension;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.demo.gallery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares an approximate index against the exact gallery scan on a set of
+ * probe embeddings, both for the raw nearest neighbour and for the match
+ * decision taken under the recognition threshold.
+ */
+public final class RecallCheck {
+
+    private RecallCheck() {
+    }
+
+    /**
+     * Builds probes by taking up to {@code samples} enrolled embeddings and
+     * adding Gaussian noise, then re-normalizing them, so each probe looks
+     * like a new capture of an enrolled face.
+     */
+    public static List<float[]> noisyProbes(EmbeddingGallery.Snapshot gallery, int samples, double noise, long seed) {
+        Random random = new Random(seed);
+        int count = Math.min(samples, gallery.size());
+        List<float[]> probes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            float[] probe = gallery.embedding(random.nextInt(gallery.size()));
+            float norm = 0;
+            for (int d = 0; d < probe.length; d++) {
+                probe[d] += (float) (random.nextGaussian() * noise);
+                norm += probe[d] * probe[d];
+            }
+            norm = (float) Math.sqrt(norm);
+            for (int d = 0; d < probe.length; d++) {
+                probe[d] /= norm;
+            }
+            probes.add(probe);
+        }
+        return probes;
+    }
+
+    public static Report compare(EmbeddingSearch exact, EmbeddingSearch approximate, List<float[]> probes,
+                                 float threshold) {
+        float squaredThreshold = threshold * threshold;
+        int sameNearest = 0;
+        int sameDecision = 0;
+        List<String> mismatches = new ArrayList<>();
+        for (float[] probe : probes) {
+            EmbeddingGallery.Match expected = exact.nearest(probe);
+            EmbeddingGallery.Match actual = approximate.nearest(probe);
+            String expectedId = expected != null ? expected.getId() : null;
+            String actualId = actual != null ? actual.getId() : null;
+            if (expectedId == null ? actualId == null : expectedId.equals(actualId)) {
+                sameNearest++;
+            }
+            String expectedDecision = decision(expected, squaredThreshold);
+            String actualDecision = decision(actual, squaredThreshold);
+            if (expectedDecision == null ? actualDecision == null : expectedDecision.equals(actualDecision)) {
+                sameDecision++;
+            } else if (mismatches.size() < 20) {
+                mismatches.add(expectedDecision + " -> " + actualDecision);
+            }
+        }
+        return new Report(probes.size(), sameNearest, sameDecision, mismatches);
+    }
+
+    /**
+     * Username the recognizer would accept for this match, or {@code null}
+     * when it would reject it.
+     */
+    private static String decision(EmbeddingGallery.Match match, float squaredThreshold) {
+        return match != null && match.getSquaredDistance() < squaredThreshold ? match.getId() : null;
+    }
+
+    public static final class Report {
+
+        private final int probes;
+        private final int sameNearest;
+        private final int sameDecision;
+        private final List<String> mismatches;
+
+        Report(int probes, int sameNearest, int sameDecision, List<String> mismatches) {
+            this.probes = probes;
+            this.sameNearest = sameNearest;
+            this.sameDecision = sameDecision;
+            this.mismatches = mismatches;
+        }
+
+        public int getProbes() {
+            return probes;
+        }
+
+        /**
+         * Fraction of probes whose nearest neighbour matches the exact scan.
+         */
+        public double getRecallAt1() {
+            return probes == 0 ? 1.0 : (double) sameNearest / probes;
+        }
+
+        /**
+         * Fraction of probes that are accepted as the same user, or rejected,
+         * by both the index and the exact scan.
+         */
+        public double getDecisionAgreement() {
+            return probes == 0 ? 1.0 : (double) sameDecision / probes;
+        }
+
+        /**
+         * First few decisions that differ, as {@code expected -> actual}.
+         */
+        public List<String> getMismatches() {
+            return mismatches;
+        }
+
+        @Override
+        public String toString() {
+            return "Report [probes=" + probes + ", recallAt1=" + getRecallAt1()
+                    + ", decisionAgreement=" + getDecisionAgreement() + "]";
+        }
+    }
+}
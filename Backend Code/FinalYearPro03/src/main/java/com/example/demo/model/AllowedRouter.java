@@ -0,0 +1,61 @@
+package com.example.demo.model;
+
+import jakarta.persistence.*;
+
+/**
+ * A Wi-Fi network of a college that students may punch attendance from:
+ * the address of its router, or a subnet in CIDR notation, and optionally
+ * the weakest signal accepted.
+ */
+@Entity
+@Table(name = "allowed_routers")
+public class AllowedRouter {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String college;
+
+    // e.g. 10.20.0.0/16, or 10.20.1.1 for a single address
+    @Column(nullable = false)
+    private String cidr;
+
+    // Weakest accepted signal in dBm, e.g. -75; null accepts any strength
+    private Integer minSignalStrength;
+
+    // Getters and Setters
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getCollege() {
+        return college;
+    }
+
+    public void setCollege(String college) {
+        this.college = college;
+    }
+
+    public String getCidr() {
+        return cidr;
+    }
+
+    public void setCidr(String cidr) {
+        this.cidr = cidr;
+    }
+
+    public Integer getMinSignalStrength() {
+        return minSignalStrength;
+    }
+
+    public void setMinSignalStrength(Integer minSignalStrength) {
+        this.minSignalStrength = minSignalStrength;
+    }
+}
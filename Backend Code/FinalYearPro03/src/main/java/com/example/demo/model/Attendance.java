@@ -5,7 +5,15 @@ import java.time.LocalTime;
 import jakarta.persistence.*;
 
 @Entity
-@Table(name = "attendance")
+// One row per phone number and day; the punch statements rely on it, and it
+// doubles as the (mobno, date) index. The date indexes serve the admin list,
+// which pages through a day by id with or without a department.
+@Table(name = "attendance", uniqueConstraints = @UniqueConstraint(name = "uk_attendance_mobno_date",
+        columnNames = {"mobno", "date"}),
+        indexes = {
+                @Index(name = "idx_attendance_date_id", columnList = "date, id"),
+                @Index(name = "idx_attendance_date_dept_id", columnList = "date, dept, id")
+        })
 public class Attendance {
 
     @Id
@@ -0,0 +1,44 @@
+package com.example.demo.model;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import jakarta.persistence.*;
+
+/**
+ * Attendance counters of one department of one college on one day, kept up
+ * to date as punches are written so the dashboard does not count rows.
+ */
+@Entity
+@Table(name = "attendance_daily_rollup", uniqueConstraints = @UniqueConstraint(
+        name = "uk_attendance_daily_rollup", columnNames = {"date", "college", "dept"}))
+public class AttendanceDailyRollup {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    private LocalDate date;
+    private String college;
+    private String dept;
+    private long present;
+    private long punchedOut;
+    // Punched in after face.attendance.late-after
+    private long late;
+    // Sum of punch-in times as seconds after midnight
+    private long inTimeSeconds;
+
+    public AttendanceDailyRollup() {
+    }
+
+    // Getters
+    public Long getId() { return id; }
+    public LocalDate getDate() { return date; }
+    public String getCollege() { return college; }
+    public String getDept() { return dept; }
+    public long getPresent() { return present; }
+    public long getPunchedOut() { return punchedOut; }
+    public long getLate() { return late; }
+
+    public LocalTime getAverageInTime() {
+        return present == 0 ? null : LocalTime.ofSecondOfDay(inTimeSeconds / present);
+    }
+}
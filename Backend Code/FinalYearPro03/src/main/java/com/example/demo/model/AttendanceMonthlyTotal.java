@@ -0,0 +1,31 @@
+package com.example.demo.model;
+
+import java.time.LocalDate;
+import jakarta.persistence.*;
+
+/**
+ * Days one student was present in one month, kept up to date as punches are
+ * written.
+ */
+@Entity
+@Table(name = "attendance_monthly_total", uniqueConstraints = @UniqueConstraint(
+        name = "uk_attendance_monthly_total", columnNames = {"mobno", "month_start"}))
+public class AttendanceMonthlyTotal {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    private long mobno;
+    // First day of the month
+    private LocalDate monthStart;
+    private long daysPresent;
+
+    public AttendanceMonthlyTotal() {
+    }
+
+    // Getters
+    public Long getId() { return id; }
+    public long getMobno() { return mobno; }
+    public LocalDate getMonthStart() { return monthStart; }
+    public long getDaysPresent() { return daysPresent; }
+}
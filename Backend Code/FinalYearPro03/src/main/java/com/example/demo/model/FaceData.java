@@ -1,10 +1,13 @@
 package com.example.demo.model;
 
 import com.example.demo.converter.FloatArrayConverter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
+import jakarta.persistence.Basic;
 import jakarta.persistence.Column;
 import jakarta.persistence.Convert;
 import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
@@ -25,15 +28,31 @@ public class FaceData {
     private String college;
     private String collegeUsername;
     private int age;
+    @JsonIgnore
     private String password;
     
+    // The blobs are only read when accessed; listings use the summary queries instead
     @Lob
+    @Basic(fetch = FetchType.LAZY)
     private byte[] faceImage;
     
     @Lob
+    @Basic(fetch = FetchType.LAZY)
     @Convert(converter = FloatArrayConverter.class)
     @Column(columnDefinition = "LONGBLOB")
     private float[] faceEmbedding;
+    
+    // Recognition model that produced faceEmbedding
+    private String embeddingModelVersion;
+    
+    // Embedding from a model being migrated to, promoted once every user has one
+    @Lob
+    @Basic(fetch = FetchType.LAZY)
+    @Convert(converter = FloatArrayConverter.class)
+    @Column(columnDefinition = "LONGBLOB")
+    private float[] pendingEmbedding;
+    
+    private String pendingModelVersion;
 
     
     public FaceData() {
@@ -144,4 +163,28 @@ public class FaceData {
         this.faceEmbedding = faceEmbedding;
     }
     
+    public String getEmbeddingModelVersion() {
+        return embeddingModelVersion;
+    }
+    
+    public void setEmbeddingModelVersion(String embeddingModelVersion) {
+        this.embeddingModelVersion = embeddingModelVersion;
+    }
+    
+    public float[] getPendingEmbedding() {
+        return pendingEmbedding;
+    }
+    
+    public void setPendingEmbedding(float[] pendingEmbedding) {
+        this.pendingEmbedding = pendingEmbedding;
+    }
+    
+    public String getPendingModelVersion() {
+        return pendingModelVersion;
+    }
+    
+    public void setPendingModelVersion(String pendingModelVersion) {
+        this.pendingModelVersion = pendingModelVersion;
+    }
+    
 }
\ No newline at end of file
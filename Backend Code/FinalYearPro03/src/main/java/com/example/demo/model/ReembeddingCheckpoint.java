@@ -0,0 +1,80 @@
+package com.example.demo.model;
+
+import java.time.LocalDateTime;
+import jakarta.persistence.*;
+
+/**
+ * Progress of re-embedding every user with a new recognition model, so the
+ * job can resume where it stopped after a restart.
+ */
+@Entity
+@Table(name = "reembedding_checkpoint")
+public class ReembeddingCheckpoint {
+
+    // Model version the job is migrating to
+    @Id
+    private String modelVersion;
+    // Highest FaceData id already processed
+    private long lastFaceDataId;
+    private long processed;
+    private long failed;
+    private LocalDateTime startedAt;
+    private LocalDateTime completedAt;
+
+    public ReembeddingCheckpoint() {
+    }
+
+    public ReembeddingCheckpoint(String modelVersion, LocalDateTime startedAt) {
+        this.modelVersion = modelVersion;
+        this.startedAt = startedAt;
+    }
+
+    // Getters and setters
+    public String getModelVersion() {
+        return modelVersion;
+    }
+
+    public void setModelVersion(String modelVersion) {
+        this.modelVersion = modelVersion;
+    }
+
+    public long getLastFaceDataId() {
+        return lastFaceDataId;
+    }
+
+    public void setLastFaceDataId(long lastFaceDataId) {
+        this.lastFaceDataId = lastFaceDataId;
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(long processed) {
+        this.processed = processed;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public void setFailed(long failed) {
+        this.failed = failed;
+    }
+
+    public LocalDateTime getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(LocalDateTime startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public LocalDateTime getCompletedAt() {
+        return completedAt;
+    }
+
+    public void setCompletedAt(LocalDateTime completedAt) {
+        this.completedAt = completedAt;
+    }
+}
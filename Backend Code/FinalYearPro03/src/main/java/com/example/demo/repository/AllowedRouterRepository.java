@@ -0,0 +1,7 @@
+package com.example.demo.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import com.example.demo.model.AllowedRouter;
+
+public interface AllowedRouterRepository extends JpaRepository<AllowedRouter, Long> {
+}
@@ -0,0 +1,11 @@
+package com.example.demo.repository;
+
+import java.time.LocalDate;
+import java.util.List;
+import org.springframework.data.jpa.repository.JpaRepository;
+import com.example.demo.model.AttendanceDailyRollup;
+
+public interface AttendanceDailyRollupRepository extends JpaRepository<AttendanceDailyRollup, Long> {
+    List<AttendanceDailyRollup> findByDate(LocalDate date);
+    List<AttendanceDailyRollup> findByDateAndCollege(LocalDate date, String college);
+}
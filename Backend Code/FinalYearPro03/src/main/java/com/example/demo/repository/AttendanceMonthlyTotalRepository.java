@@ -0,0 +1,11 @@
+package com.example.demo.repository;
+
+import java.time.LocalDate;
+import java.util.List;
+import org.springframework.data.jpa.repository.JpaRepository;
+import com.example.demo.model.AttendanceMonthlyTotal;
+
+public interface AttendanceMonthlyTotalRepository extends JpaRepository<AttendanceMonthlyTotal, Long> {
+    AttendanceMonthlyTotal findByMobnoAndMonthStart(long mobno, LocalDate monthStart);
+    List<AttendanceMonthlyTotal> findByMobnoOrderByMonthStartDesc(long mobno);
+}
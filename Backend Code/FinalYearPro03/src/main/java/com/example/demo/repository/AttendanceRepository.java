@@ -1,17 +1,59 @@
 package com.example.demo.repository;
 
 import java.time.LocalDate;
+import java.time.LocalTime;
 import java.util.List;
+import java.util.stream.Stream;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import com.example.demo.dtos.AttendanceExportRow;
 import com.example.demo.model.Attendance;
+import jakarta.persistence.QueryHint;
 
 public interface AttendanceRepository extends JpaRepository<Attendance, Long> {
-    // If the date column is stored as DATE, the derived method may work.
-    // Otherwise, using a JPQL query to extract the date part:
-    @Query("SELECT a FROM Attendance a WHERE FUNCTION('DATE', a.date) = :date")
-    List<Attendance> findByDate(@Param("date") LocalDate date);
+    // The date column is a DATE, so compare it directly and let MySQL use its index
+    List<Attendance> findByDate(LocalDate date);
     Attendance findByMobnoAndDate(long mobno, LocalDate date);
     List<Attendance> findByDateAndDept(LocalDate date, String dept);
+
+    // Keyset pages of a day in punch-in order (ids are assigned on punch-in), oldest or newest first
+    List<Attendance> findByDateAndIdGreaterThanOrderByIdAsc(LocalDate date, long afterId, Pageable pageable);
+    List<Attendance> findByDateAndIdLessThanOrderByIdDesc(LocalDate date, long beforeId, Pageable pageable);
+    List<Attendance> findByDateAndDeptAndIdGreaterThanOrderByIdAsc(LocalDate date, String dept, long afterId,
+                                                                   Pageable pageable);
+    List<Attendance> findByDateAndDeptAndIdLessThanOrderByIdDesc(LocalDate date, String dept, long beforeId,
+                                                                 Pageable pageable);
+
+    // Rows of a date range in date and id order for exports, optionally narrowed to a college and
+    // department. MySQL's driver streams rows instead of buffering the result only with this fetch size.
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE))
+    @Query("SELECT new com.example.demo.dtos.AttendanceExportRow(a.date, a.name, a.mobno, a.dept, a.age, "
+            + "a.college, a.inTime, a.outTime) FROM Attendance a WHERE a.date BETWEEN :from AND :to "
+            + "AND (:college IS NULL OR a.college = :college) AND (:dept IS NULL OR a.dept = :dept) "
+            + "ORDER BY a.date, a.id")
+    Stream<AttendanceExportRow> streamExportRows(@Param("from") LocalDate from, @Param("to") LocalDate to,
+                                                 @Param("college") String college, @Param("dept") String dept);
+
+    // Punch-in in one statement: copies the user's details and changes nothing if the
+    // (mobno, date) unique key shows they already punched in. Other errors still fail.
+    // Returns rows inserted, since the connection reports affected rather than found rows.
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO attendance (name, mobno, dept, age, college, date, in_time) "
+            + "SELECT f.name, f.mobno, f.dept, f.age, f.college, :date, :time FROM face_data f "
+            + "WHERE f.username = :username ON DUPLICATE KEY UPDATE id = id", nativeQuery = true)
+    int punchIn(@Param("username") String username, @Param("date") LocalDate date, @Param("time") LocalTime time);
+
+    // Punch-out in one statement; only matches a punch-in without an out time. Returns rows updated.
+    @Modifying
+    @Transactional
+    @Query(value = "UPDATE attendance SET out_time = :time "
+            + "WHERE mobno = :mobno AND date = :date AND out_time IS NULL", nativeQuery = true)
+    int punchOut(@Param("mobno") long mobno, @Param("date") LocalDate date, @Param("time") LocalTime time);
 }
@@ -1,9 +1,82 @@
 package com.example.demo.repository;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import com.example.demo.dtos.RegisteredUserSummary;
+import com.example.demo.dtos.StoredEmbedding;
+import com.example.demo.dtos.StoredFace;
 import com.example.demo.model.FaceData;
 
+import java.util.Collection;
+import java.util.List;
+
 public interface FaceDataRepository extends JpaRepository<FaceData, Long> {
     FaceData findByUsername(String username);
-}
 
+    @Query("SELECT f.mobno FROM FaceData f WHERE f.username = :username")
+    Long findMobnoByUsername(@Param("username") String username);
+
+    @Query("SELECT f.username FROM FaceData f WHERE f.username IN :usernames")
+    List<String> findExistingUsernames(@Param("usernames") Collection<String> usernames);
+
+    // Lean reads that never touch the image and embedding blobs
+
+    @Query("SELECT new com.example.demo.dtos.RegisteredUserSummary(f.id, f.username, f.name, f.mobno, "
+            + "f.dept, f.college, f.collegeUsername, f.age) FROM FaceData f WHERE f.username = :username")
+    RegisteredUserSummary findSummaryByUsername(@Param("username") String username);
+
+    // Keyset page of users after the given id, optionally narrowed to a college and department
+    @Query("SELECT new com.example.demo.dtos.RegisteredUserSummary(f.id, f.username, f.name, f.mobno, "
+            + "f.dept, f.college, f.collegeUsername, f.age) FROM FaceData f WHERE f.id > :afterId "
+            + "AND (:college IS NULL OR f.college = :college) AND (:dept IS NULL OR f.dept = :dept) "
+            + "ORDER BY f.id")
+    List<RegisteredUserSummary> findSummaries(@Param("afterId") long afterId, @Param("college") String college,
+                                              @Param("dept") String dept, Pageable pageable);
+
+    @Query("SELECT f.faceImage FROM FaceData f WHERE f.username = :username")
+    byte[] findFaceImageByUsername(@Param("username") String username);
+
+    @Query("SELECT new com.example.demo.dtos.StoredEmbedding(f.username, f.college, f.dept, f.faceEmbedding, "
+            + "f.embeddingModelVersion, f.pendingEmbedding, f.pendingModelVersion) FROM FaceData f")
+    List<StoredEmbedding> findAllEmbeddings();
+
+    @Query("SELECT new com.example.demo.dtos.StoredEmbedding(f.username, f.college, f.dept, f.faceEmbedding, "
+            + "f.embeddingModelVersion, f.pendingEmbedding, f.pendingModelVersion) FROM FaceData f "
+            + "WHERE f.username IN :usernames")
+    List<StoredEmbedding> findEmbeddingsByUsernames(@Param("usernames") Collection<String> usernames);
+
+    @Query("SELECT f.username FROM FaceData f WHERE f.id > :afterId")
+    List<String> findUsernamesAfter(@Param("afterId") long afterId);
+
+    @Query("SELECT MAX(f.id) FROM FaceData f")
+    Long findMaxId();
+
+    @Query("SELECT new com.example.demo.dtos.StoredEmbedding(f.username, f.college, f.dept, f.faceEmbedding, "
+            + "f.embeddingModelVersion, f.pendingEmbedding, f.pendingModelVersion) FROM FaceData f "
+            + "WHERE f.pendingModelVersion = :version")
+    List<StoredEmbedding> findPendingEmbeddings(@Param("version") String version);
+
+    @Query("SELECT new com.example.demo.dtos.StoredFace(f.id, f.username, f.college, f.dept, f.faceImage, "
+            + "f.pendingModelVersion) FROM FaceData f WHERE f.id > :afterId ORDER BY f.id")
+    List<StoredFace> findStoredFacesAfter(@Param("afterId") long afterId, Pageable pageable);
+
+    // Embeddings stored before versioning came from the model configured at the time
+    @Modifying
+    @Transactional
+    @Query("UPDATE FaceData f SET f.embeddingModelVersion = :version "
+            + "WHERE f.embeddingModelVersion IS NULL AND f.faceEmbedding IS NOT NULL")
+    int tagUnversionedEmbeddings(@Param("version") String version);
+
+    // Makes the pending embeddings of a finished migration the live ones
+    @Modifying
+    @Transactional
+    @Query("UPDATE FaceData f SET f.faceEmbedding = f.pendingEmbedding, "
+            + "f.embeddingModelVersion = f.pendingModelVersion, "
+            + "f.pendingEmbedding = NULL, f.pendingModelVersion = NULL "
+            + "WHERE f.pendingModelVersion = :version")
+    int promotePendingEmbeddings(@Param("version") String version);
+}
@@ -0,0 +1,7 @@
+package com.example.demo.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import com.example.demo.model.ReembeddingCheckpoint;
+
+public interface ReembeddingCheckpointRepository extends JpaRepository<ReembeddingCheckpoint, String> {
+}
@@ -0,0 +1,325 @@
+package com.example.demo.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.sql.Date;
+import java.sql.Time;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Maintains the attendance rollups: per-day counters for each college and
+ * department, and the days each student was present per month. The punch
+ * paths report the punches that actually changed a row once they have
+ * committed, and a background flusher adds them to the counters every
+ * {@code face.attendance.rollup.flush-ms} with one statement per day. The
+ * punch transaction never touches the rollups, and a burst of punch-ins
+ * updates each department's counter row once per flush instead of once per
+ * punch. A backfill rebuilds them from the attendance table one day at a
+ * time, which keeps the rows it locks to a single day.
+ */
+@Service
+// Reads the attendance tables on startup, so let Hibernate create them first
+@DependsOn("entityManagerFactory")
+public class AttendanceRollupService {
+
+    // College and department are stored as '' when missing, since NULLs never collide in a unique key
+    private static final String DAILY_IN = "INSERT INTO attendance_daily_rollup "
+            + "(date, college, dept, present, punched_out, late, in_time_seconds) "
+            + "SELECT a.date, COALESCE(a.college, ''), COALESCE(a.dept, ''), COUNT(*), 0, SUM(a.in_time > ?), "
+            + "SUM(TIME_TO_SEC(a.in_time)) FROM attendance a WHERE a.date = ? AND a.mobno IN (%s) "
+            + "GROUP BY a.date, COALESCE(a.college, ''), COALESCE(a.dept, '') "
+            + "ON DUPLICATE KEY UPDATE present = present + VALUES(present), late = late + VALUES(late), "
+            + "in_time_seconds = in_time_seconds + VALUES(in_time_seconds)";
+    private static final String DAILY_OUT = "INSERT INTO attendance_daily_rollup "
+            + "(date, college, dept, present, punched_out, late, in_time_seconds) "
+            + "SELECT a.date, COALESCE(a.college, ''), COALESCE(a.dept, ''), 0, COUNT(*), 0, 0 "
+            + "FROM attendance a WHERE a.date = ? AND a.mobno IN (%s) "
+            + "GROUP BY a.date, COALESCE(a.college, ''), COALESCE(a.dept, '') "
+            + "ON DUPLICATE KEY UPDATE punched_out = punched_out + VALUES(punched_out)";
+    private static final String MONTHLY_IN = "INSERT INTO attendance_monthly_total (mobno, month_start, days_present) "
+            + "VALUES (?, ?, 1) ON DUPLICATE KEY UPDATE days_present = days_present + 1";
+
+    private static final String ATTENDANCE_DATES = "SELECT DISTINCT date FROM attendance ORDER BY date";
+    private static final String LAST_ATTENDANCE_DATES = "SELECT DISTINCT date FROM attendance ORDER BY date DESC LIMIT 2";
+    // Students per statement when counting a flush
+    private static final int CHUNK = 500;
+    private static final String DELETE_DAY = "DELETE FROM attendance_daily_rollup WHERE date = ?";
+    private static final String REBUILD_DAY = "INSERT INTO attendance_daily_rollup "
+            + "(date, college, dept, present, punched_out, late, in_time_seconds) "
+            + "SELECT ?, COALESCE(college, ''), COALESCE(dept, ''), COUNT(*), COUNT(out_time), SUM(in_time > ?), "
+            + "SUM(TIME_TO_SEC(in_time)) FROM attendance WHERE date = ? "
+            + "GROUP BY COALESCE(college, ''), COALESCE(dept, '')";
+    private static final String DELETE_MONTH = "DELETE FROM attendance_monthly_total WHERE month_start = ?";
+    private static final String REBUILD_MONTH = "INSERT INTO attendance_monthly_total "
+            + "(mobno, month_start, days_present) "
+            + "SELECT mobno, ?, COUNT(*) FROM attendance WHERE date >= ? AND date < ? GROUP BY mobno";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    // Punches hold the read lock from their write until they are queued here; a rebuild holds the write lock
+    private final ReadWriteLock countLock = new ReentrantReadWriteLock();
+    // Held while a flush writes what it took, so a rebuild never runs between the two
+    private final Object flushLock = new Object();
+    private Map<LocalDate, Set<Long>> pendingIns = new HashMap<>();
+    private Map<LocalDate, Set<Long>> pendingOuts = new HashMap<>();
+    private ScheduledExecutorService flusher;
+    private Time lateAfter;
+
+    @Value("${face.attendance.late-after:09:30}")
+    private String lateAfterValue;
+    @Value("${face.attendance.rollup.flush-ms:1000}")
+    private long flushMillis;
+
+    private final AttendanceSchemaMigration migration;
+
+    @Autowired
+    public AttendanceRollupService(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                                   AttendanceSchemaMigration migration) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.migration = migration;
+    }
+
+    @PostConstruct
+    public void init() {
+        lateAfter = Time.valueOf(LocalTime.parse(lateAfterValue));
+        // First start with rollups: build them from the attendance already recorded
+        Boolean missing = jdbcTemplate.queryForObject("SELECT EXISTS(SELECT 1 FROM attendance) "
+                + "AND NOT EXISTS(SELECT 1 FROM attendance_daily_rollup)", Boolean.class);
+        // Merged duplicate punches were counted once per row
+        if (Boolean.TRUE.equals(missing) || migration.getRemovedRows() > 0) {
+            rebuildInBackground();
+        } else {
+            // Counts still queued when the server stopped were lost, and they can only belong to the last days punched
+            List<LocalDate> last = new ArrayList<>(jdbcTemplate.queryForList(LAST_ATTENDANCE_DATES, LocalDate.class));
+            Collections.reverse(last);
+            rebuild(last);
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "attendance-rollup-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (Exception e) {
+                System.err.println("Could not update the attendance rollups, will retry: " + e.getMessage());
+            }
+        }, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (flusher == null) {
+            return;
+        }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("Attendance rollups not updated on shutdown, rebuilt on the next start: "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs a punch and returns its result. The punch must queue what it
+     * changed with {@link #recordPunchIns} or {@link #recordPunchOuts}
+     * before returning, so a rebuild never counts a committed punch that is
+     * about to be counted again by the flusher.
+     */
+    public <T> T counting(Supplier<T> punch) {
+        countLock.readLock().lock();
+        try {
+            return punch.get();
+        } finally {
+            countLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Queues punch-ins just committed for the given day, to be counted by
+     * the next flush.
+     */
+    public void recordPunchIns(LocalDate date, Collection<Long> mobnos) {
+        if (mobnos.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            pendingIns.computeIfAbsent(date, day -> new HashSet<>()).addAll(mobnos);
+        }
+    }
+
+    /**
+     * Queues punch-outs just committed for the given day, to be counted by
+     * the next flush.
+     */
+    public void recordPunchOuts(LocalDate date, Collection<Long> mobnos) {
+        if (mobnos.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            pendingOuts.computeIfAbsent(date, day -> new HashSet<>()).addAll(mobnos);
+        }
+    }
+
+    /**
+     * Adds the queued punches to the rollups in one transaction. On failure
+     * they are queued again for the next flush.
+     */
+    private void flush() {
+        synchronized (flushLock) {
+            Map<LocalDate, Set<Long>> ins;
+            Map<LocalDate, Set<Long>> outs;
+            synchronized (this) {
+                if (pendingIns.isEmpty() && pendingOuts.isEmpty()) {
+                    return;
+                }
+                ins = pendingIns;
+                outs = pendingOuts;
+                pendingIns = new HashMap<>();
+                pendingOuts = new HashMap<>();
+            }
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    ins.forEach(this::countPunchIns);
+                    outs.forEach(this::countPunchOuts);
+                });
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    ins.forEach((date, mobnos) -> pendingIns.computeIfAbsent(date, day -> new HashSet<>()).addAll(mobnos));
+                    outs.forEach((date, mobnos) -> pendingOuts.computeIfAbsent(date, day -> new HashSet<>()).addAll(mobnos));
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void countPunchIns(LocalDate date, Set<Long> mobnos) {
+        Date day = Date.valueOf(date);
+        Date monthStart = Date.valueOf(date.withDayOfMonth(1));
+        List<Long> all = new ArrayList<>(mobnos);
+        for (int from = 0; from < all.size(); from += CHUNK) {
+            List<Long> chunk = all.subList(from, Math.min(from + CHUNK, all.size()));
+            List<Object> args = new ArrayList<>(chunk.size() + 2);
+            args.add(lateAfter);
+            args.add(day);
+            args.addAll(chunk);
+            jdbcTemplate.update(String.format(DAILY_IN, placeholders(chunk.size())), args.toArray());
+        }
+        // One row per student, so these never contend with each other
+        List<Object[]> monthly = new ArrayList<>(all.size());
+        for (Long mobno : all) {
+            monthly.add(new Object[] {mobno, monthStart});
+        }
+        jdbcTemplate.batchUpdate(MONTHLY_IN, monthly);
+    }
+
+    private void countPunchOuts(LocalDate date, Set<Long> mobnos) {
+        Date day = Date.valueOf(date);
+        List<Long> all = new ArrayList<>(mobnos);
+        for (int from = 0; from < all.size(); from += CHUNK) {
+            List<Long> chunk = all.subList(from, Math.min(from + CHUNK, all.size()));
+            List<Object> args = new ArrayList<>(chunk.size() + 1);
+            args.add(day);
+            args.addAll(chunk);
+            jdbcTemplate.update(String.format(DAILY_OUT, placeholders(chunk.size())), args.toArray());
+        }
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    /**
+     * Starts rebuilding every rollup from the attendance table. Returns
+     * {@code false} if a rebuild is already running.
+     */
+    public boolean rebuildInBackground() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread job = new Thread(() -> {
+            try {
+                rebuild(jdbcTemplate.queryForList(ATTENDANCE_DATES, LocalDate.class));
+            } catch (Exception e) {
+                System.err.println("Attendance rollup backfill stopped: " + e.getMessage());
+                e.printStackTrace();
+            } finally {
+                rebuilding.set(false);
+            }
+        }, "attendance-rollup-backfill");
+        job.setDaemon(true);
+        job.start();
+        return true;
+    }
+
+    /**
+     * Rebuilds the given days, in ascending order, and the months they end.
+     */
+    private void rebuild(List<LocalDate> dates) {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < dates.size(); i++) {
+            Date day = Date.valueOf(dates.get(i));
+            rebuildFromTable(() -> {
+                jdbcTemplate.update(DELETE_DAY, day);
+                jdbcTemplate.update(REBUILD_DAY, day, lateAfter, day);
+            });
+            // Rebuild a month's totals once its last day is done
+            LocalDate monthStart = dates.get(i).withDayOfMonth(1);
+            if (i == dates.size() - 1 || !dates.get(i + 1).withDayOfMonth(1).equals(monthStart)) {
+                Date from = Date.valueOf(monthStart);
+                Date to = Date.valueOf(monthStart.plusMonths(1));
+                rebuildFromTable(() -> {
+                    jdbcTemplate.update(DELETE_MONTH, from);
+                    jdbcTemplate.update(REBUILD_MONTH, from, from, to);
+                });
+            }
+        }
+        System.out.println("Rebuilt attendance rollups for " + dates.size() + " days in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Recounts part of the rollups from the attendance table. Punches wait
+     * meanwhile, and everything queued before is flushed first, so each
+     * punch is counted either by the table or by a later flush, never both.
+     */
+    private void rebuildFromTable(Runnable statements) {
+        countLock.writeLock().lock();
+        try {
+            flush();
+            transactionTemplate.executeWithoutResult(status -> statements.run());
+        } finally {
+            countLock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.demo.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Puts the (mobno, date) unique key on the attendance table, which the punch
+ * statements rely on to keep one row per student and day. Hibernate's schema
+ * update cannot add the key while a student has two rows for a day and only
+ * logs that it failed, so this merges such rows first, keeping the earliest
+ * punch-in and the latest punch-out, and then adds the key itself. Startup
+ * stops if either step fails rather than taking punches without the key.
+ */
+@Component
+// Runs after Hibernate has updated the schema
+@DependsOn("entityManagerFactory")
+public class AttendanceSchemaMigration {
+
+    private static final String UNIQUE_KEY = "uk_attendance_mobno_date";
+    private static final String HAS_KEY = "SELECT COUNT(*) FROM information_schema.statistics "
+            + "WHERE table_schema = DATABASE() AND table_name = 'attendance' AND index_name = ?";
+    // NULL mobnos or dates never collide in the key, so they are left alone
+    private static final String DUPLICATES = "SELECT mobno, date, MIN(id) AS keep_id, MIN(in_time) AS first_in, "
+            + "MAX(out_time) AS last_out FROM attendance WHERE mobno IS NOT NULL AND date IS NOT NULL "
+            + "GROUP BY mobno, date HAVING COUNT(*) > 1";
+    private static final String MERGE = "UPDATE attendance a JOIN (" + DUPLICATES + ") d ON a.id = d.keep_id "
+            + "SET a.in_time = d.first_in, a.out_time = d.last_out";
+    private static final String DELETE_DUPLICATES = "DELETE a FROM attendance a JOIN (" + DUPLICATES + ") d "
+            + "ON a.mobno = d.mobno AND a.date = d.date AND a.id <> d.keep_id";
+    private static final String ADD_KEY = "ALTER TABLE attendance ADD CONSTRAINT " + UNIQUE_KEY
+            + " UNIQUE (mobno, date)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private int removedRows;
+
+    @Autowired
+    public AttendanceSchemaMigration(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @PostConstruct
+    public void migrate() {
+        Integer keys = jdbcTemplate.queryForObject(HAS_KEY, Integer.class, UNIQUE_KEY);
+        if (keys != null && keys > 0) {
+            return;
+        }
+        try {
+            Integer removed = transactionTemplate.execute(status -> {
+                jdbcTemplate.update(MERGE);
+                return jdbcTemplate.update(DELETE_DUPLICATES);
+            });
+            removedRows = removed != null ? removed : 0;
+            // DDL commits on its own, so it runs after the merge has committed
+            jdbcTemplate.execute(ADD_KEY);
+        } catch (DataAccessException e) {
+            throw new IllegalStateException("Could not add the unique key " + UNIQUE_KEY
+                    + " on attendance (mobno, date); fix the table by hand before starting", e);
+        }
+        System.out.println("Added the unique key " + UNIQUE_KEY + " to attendance after merging "
+                + removedRows + " duplicate punch rows");
+    }
+
+    /**
+     * Returns how many duplicate rows this start removed, after which the
+     * attendance rollups no longer match the table.
+     */
+    public int getRemovedRows() {
+        return removedRows;
+    }
+}
@@ -1,42 +1,224 @@
 package com.example.demo.service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.time.LocalDate;
 import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import com.example.demo.dtos.AttendanceExportRow;
 import com.example.demo.model.Attendance;
+import com.example.demo.model.AttendanceDailyRollup;
+import com.example.demo.model.AttendanceMonthlyTotal;
+import com.example.demo.repository.AttendanceDailyRollupRepository;
+import com.example.demo.repository.AttendanceMonthlyTotalRepository;
 import com.example.demo.repository.AttendanceRepository;
+import com.example.demo.repository.FaceDataRepository;
 
 @Service
 public class AttendanceService {
 
+    private static final String EXPORT_HEADER = "date,name,mobno,dept,age,college,in_time,out_time\n";
+    
     @Autowired
     private AttendanceRepository attendanceRepository;
     
-    // Record attendance using current date/time
-    public Attendance recordAttendance(String name, long mobno, String dept, int age, String college) {
-        Attendance existingUser = attendanceRepository.findByMobnoAndDate(mobno, LocalDate.now());
-        
-        if (existingUser == null) {
-            Attendance attendance = new Attendance(name, mobno, dept, age, college, LocalDate.now(), LocalTime.now());
-            attendanceRepository.save(attendance);
+    @Autowired
+    private FaceDataRepository faceDataRepository;
+    
+    @Autowired
+    private AttendanceWriteBehindService writeBehind;
+    
+    @Autowired
+    private PresenceIndex presence;
+    
+    @Autowired
+    private AttendanceRollupService rollups;
+    
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+    
+    @Autowired
+    private AttendanceDailyRollupRepository dailyRollupRepository;
+    
+    @Autowired
+    private AttendanceMonthlyTotalRepository monthlyTotalRepository;
+    
+    // Mobile number of each user who has punched since startup; users never change it
+    private final Map<String, Long> mobnos = new ConcurrentHashMap<>();
+    
+    /**
+     * Punches a recognized user in for today with a single statement. The
+     * unique key on (mobno, date) keeps concurrent taps from creating two
+     * rows; a second punch-in changes nothing and is reported as such. A
+     * new punch is queued for the rollups once it has committed.
+     * Repeated punches are answered from the presence index without
+     * touching the database. With write-behind enabled the punch is only
+     * logged locally here.
+     */
+    public PunchResult punchIn(String username) throws IOException {
+        Long mobno = mobnoOf(username);
+        if (mobno == null) {
+            return PunchResult.UNKNOWN_USER;
+        }
+        LocalDate today = LocalDate.now();
+        if (presence.get(today, mobno) != PresenceIndex.Presence.ABSENT) {
+            return PunchResult.ALREADY_PUNCHED_IN;
+        }
+        if (writeBehind.isEnabled()) {
+            return writeBehind.punchIn(username, mobno);
         }
-        
-        // Returning existing record instead of null (optional improvement)
-        return existingUser;
+        boolean inserted = rollups.counting(() -> {
+            if (attendanceRepository.punchIn(username, today, LocalTime.now()) == 0) {
+                return false;
+            }
+            rollups.recordPunchIns(today, List.of(mobno));
+            return true;
+        });
+        presence.markIn(today, mobno);
+        return inserted ? PunchResult.PUNCHED_IN : PunchResult.ALREADY_PUNCHED_IN;
     }
     
-    public List<Attendance> getAttendanceByDate(LocalDate date) {
-        return attendanceRepository.findByDate(date);
+    /**
+     * Punches a recognized user out for today with a single conditional
+     * update, which only succeeds once per punch-in.
+     */
+    public PunchResult punchOut(String username) throws IOException {
+        Long mobno = mobnoOf(username);
+        if (mobno == null) {
+            return PunchResult.UNKNOWN_USER;
+        }
+        LocalDate today = LocalDate.now();
+        if (presence.get(today, mobno) == PresenceIndex.Presence.OUT) {
+            return PunchResult.ALREADY_PUNCHED_OUT;
+        }
+        if (writeBehind.isEnabled()) {
+            return writeBehind.punchOut(username, mobno);
+        }
+        boolean updated = rollups.counting(() -> {
+            if (attendanceRepository.punchOut(mobno, today, LocalTime.now()) == 0) {
+                return false;
+            }
+            rollups.recordPunchOuts(today, List.of(mobno));
+            return true;
+        });
+        if (updated) {
+            presence.set(today, mobno, PresenceIndex.Presence.OUT);
+            return PunchResult.PUNCHED_OUT;
+        }
+        // Only when nothing was updated: tell an earlier punch-out from a missing punch-in
+        Attendance existing = attendanceRepository.findByMobnoAndDate(mobno, today);
+        if (existing == null) {
+            return PunchResult.NOT_PUNCHED_IN;
+        }
+        presence.set(today, mobno, PresenceIndex.Presence.OUT);
+        return PunchResult.ALREADY_PUNCHED_OUT;
+    }
+    
+    private Long mobnoOf(String username) {
+        Long mobno = mobnos.get(username);
+        if (mobno == null) {
+            mobno = faceDataRepository.findMobnoByUsername(username);
+            if (mobno != null) {
+                mobnos.put(username, mobno);
+            }
+        }
+        return mobno;
     }
     
-    public Attendance getDetailsByMobNo(long mobno) {
-    	return attendanceRepository.findByMobnoAndDate(mobno,LocalDate.now());
+    public List<Attendance> getAttendanceByDate(LocalDate date) {
+        return attendanceRepository.findByDate(date);
     }
     
     public List<Attendance> getAttendanceByDateAndDepartment(LocalDate date, String department) {
         return attendanceRepository.findByDateAndDept(date, department);
     }
+    
+    /**
+     * Returns one page of a day's attendance in punch-in order, starting
+     * after the given id, or before it when {@code newestFirst}. A null
+     * department means every department.
+     */
+    public List<Attendance> getAttendancePage(LocalDate date, String department, Long cursor, boolean newestFirst,
+                                              int pageSize) {
+        Pageable page = PageRequest.of(0, pageSize);
+        if (newestFirst) {
+            long beforeId = cursor != null ? cursor : Long.MAX_VALUE;
+            return department != null
+                    ? attendanceRepository.findByDateAndDeptAndIdLessThanOrderByIdDesc(date, department, beforeId, page)
+                    : attendanceRepository.findByDateAndIdLessThanOrderByIdDesc(date, beforeId, page);
+        }
+        long afterId = cursor != null ? cursor : 0;
+        return department != null
+                ? attendanceRepository.findByDateAndDeptAndIdGreaterThanOrderByIdAsc(date, department, afterId, page)
+                : attendanceRepository.findByDateAndIdGreaterThanOrderByIdAsc(date, afterId, page);
+    }
+    
+    /**
+     * Returns the day's counters for each department, of one college or of
+     * all of them.
+     */
+    public List<AttendanceDailyRollup> getDailySummary(LocalDate date, String college) {
+        return college != null ? dailyRollupRepository.findByDateAndCollege(date, college)
+                : dailyRollupRepository.findByDate(date);
+    }
+    
+    public List<AttendanceMonthlyTotal> getMonthlyTotals(long mobno) {
+        return monthlyTotalRepository.findByMobnoOrderByMonthStartDesc(mobno);
+    }
+    
+    public AttendanceMonthlyTotal getMonthlyTotal(long mobno, YearMonth month) {
+        return monthlyTotalRepository.findByMobnoAndMonthStart(mobno, month.atDay(1));
+    }
+    
+    /**
+     * Writes the attendance of a date range, both ends included, as CSV. Rows
+     * come from a database cursor and are written as they arrive, so memory
+     * use does not grow with the range and the header goes out before the
+     * query has finished.
+     */
+    public void exportCsv(LocalDate from, LocalDate to, String college, String department, Writer writer)
+            throws IOException {
+        writer.write(EXPORT_HEADER);
+        writer.flush();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                try (Stream<AttendanceExportRow> rows = attendanceRepository.streamExportRows(from, to, college,
+                        department)) {
+                    Iterator<AttendanceExportRow> iterator = rows.iterator();
+                    while (iterator.hasNext()) {
+                        AttendanceExportRow row = iterator.next();
+                        writer.write(row.getDate() + "," + Csv.field(row.getName()) + ","
+                                + row.getMobno() + "," + Csv.field(row.getDept()) + ","
+                                + row.getAge() + "," + Csv.field(row.getCollege()) + ","
+                                + timeField(row.getInTime()) + "," + timeField(row.getOutTime()) + "\n");
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            // Usually the client went away; the cursor is closed with the transaction
+            throw e.getCause();
+        }
+        writer.flush();
+    }
+    
+    private static String timeField(LocalTime time) {
+        return time == null ? "" : time.withNano(0).toString();
+    }
+    
+    public boolean rebuildSummaries() {
+        return rollups.rebuildInBackground();
+    }
 }
-
@@ -0,0 +1,526 @@
+package com.example.demo.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.sql.Time;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Optional write-behind path for attendance punches. A punch is decided
+ * against the {@link PresenceIndex} and acknowledged as soon as it is
+ * on a local append log that has been synced to disk; a background flusher
+ * then writes queued punches to the database in JDBC batches, retrying
+ * while the database is unavailable. A batch the database refuses outright
+ * is written one punch at a time, and the punches it still refuses are moved
+ * to a dead-letter file for an operator instead of holding up the rest.
+ * Punches still in the log after a crash are replayed on startup. Both punch
+ * statements are idempotent, so a punch written twice has no effect.
+ */
+@Service
+public class AttendanceWriteBehindService {
+
+    private static final String PUNCH_IN = "INSERT INTO attendance "
+            + "(name, mobno, dept, age, college, date, in_time) "
+            + "SELECT f.name, f.mobno, f.dept, f.age, f.college, ?, ? FROM face_data f WHERE f.username = ? "
+            + "ON DUPLICATE KEY UPDATE id = id";
+    private static final String PUNCH_OUT = "UPDATE attendance SET out_time = ? "
+            + "WHERE mobno = ? AND date = ? AND out_time IS NULL";
+    private static final String PUNCHED_IN_ON = "SELECT mobno FROM attendance WHERE date = ? AND mobno IN (%s)";
+    private static final String OPEN_ON = PUNCHED_IN_ON + " AND out_time IS NULL";
+    private static final long MAX_RETRY_DELAY_MILLIS = 30_000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final PresenceIndex presence;
+    private final AttendanceRollupService rollups;
+    private final BlockingQueue<Punch> queue = new LinkedBlockingQueue<>();
+    private volatile boolean running = true;
+    private PunchLog log;
+    private Thread flusher;
+    private Timer flushTimer;
+    private Timer commitLag;
+    private DistributionSummary batchSizes;
+    private Counter failedPunches;
+
+    @Value("${face.attendance.write-behind.enabled:false}")
+    private boolean enabled;
+    @Value("${face.attendance.write-behind.log:data/attendance/punches.log}")
+    private String logPath;
+    @Value("${face.attendance.write-behind.batch-size:200}")
+    private int batchSize;
+    @Value("${face.attendance.write-behind.max-delay-ms:200}")
+    private long maxDelayMillis;
+    @Value("${face.attendance.write-behind.dead-letter:data/attendance/failed-punches.tsv}")
+    private String deadLetterPath;
+
+    @Autowired
+    public AttendanceWriteBehindService(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                                        MeterRegistry meterRegistry, PresenceIndex presence,
+                                        AttendanceRollupService rollups) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.meterRegistry = meterRegistry;
+        this.presence = presence;
+        this.rollups = rollups;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        flushTimer = Timer.builder("attendance.writebehind.flush")
+                .description("Time to write one batch of punches to the database")
+                .register(meterRegistry);
+        commitLag = Timer.builder("attendance.writebehind.lag")
+                .description("Time from acknowledging a punch to committing it")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        batchSizes = DistributionSummary.builder("attendance.writebehind.batch.size")
+                .description("Punches written per batch")
+                .register(meterRegistry);
+        failedPunches = Counter.builder("attendance.writebehind.failed")
+                .description("Punches the database refused, moved to the dead-letter file")
+                .register(meterRegistry);
+        Gauge.builder("attendance.writebehind.queue.depth", queue, BlockingQueue::size)
+                .description("Acknowledged punches not yet written to the database")
+                .register(meterRegistry);
+
+        log = new PunchLog(Path.of(logPath));
+        List<Punch> replayed;
+        try {
+            replayed = log.open();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open the attendance log " + logPath, e);
+        }
+        // The presence index was loaded from the database, which may not have these yet
+        for (Punch punch : replayed) {
+            if (punch.type == Punch.IN) {
+                presence.markIn(punch.date, punch.mobno);
+            } else {
+                presence.set(punch.date, punch.mobno, PresenceIndex.Presence.OUT);
+            }
+        }
+        queue.addAll(replayed);
+        if (!replayed.isEmpty()) {
+            System.out.println("Replaying " + replayed.size() + " attendance punches from " + logPath);
+        }
+
+        flusher = new Thread(this::flushLoop, "attendance-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!enabled) {
+            return;
+        }
+        running = false;
+        flusher.interrupt();
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+            // Whatever is still queued stays in the log and is replayed on the next start
+            log.close();
+        } catch (InterruptedException | IOException e) {
+            System.err.println("Attendance log not closed cleanly: " + e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public PunchResult punchIn(String username, long mobno) throws IOException {
+        Punch punch = new Punch(Punch.IN, username, mobno, LocalDate.now(), LocalTime.now());
+        if (!presence.markIn(punch.date, mobno)) {
+            return PunchResult.ALREADY_PUNCHED_IN;
+        }
+        try {
+            accept(punch);
+        } catch (IOException e) {
+            presence.set(punch.date, mobno, PresenceIndex.Presence.ABSENT);
+            throw e;
+        }
+        return PunchResult.PUNCHED_IN;
+    }
+
+    public PunchResult punchOut(String username, long mobno) throws IOException {
+        Punch punch = new Punch(Punch.OUT, username, mobno, LocalDate.now(), LocalTime.now());
+        if (!presence.markOut(punch.date, mobno)) {
+            return presence.get(punch.date, mobno) == PresenceIndex.Presence.OUT
+                    ? PunchResult.ALREADY_PUNCHED_OUT : PunchResult.NOT_PUNCHED_IN;
+        }
+        try {
+            accept(punch);
+        } catch (IOException e) {
+            presence.set(punch.date, mobno, PresenceIndex.Presence.IN);
+            throw e;
+        }
+        return PunchResult.PUNCHED_OUT;
+    }
+
+    /**
+     * Makes the punch durable, then hands it to the flusher.
+     */
+    private void accept(Punch punch) throws IOException {
+        log.append(punch);
+        queue.add(punch);
+    }
+
+    private void flushLoop() {
+        List<Punch> batch = new ArrayList<>();
+        while (running) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+                while (batch.size() < batchSize) {
+                    Punch next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                writeWithRetry(batch);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        // Last attempt on shutdown; anything that fails is replayed from the log
+        queue.drainTo(batch);
+        if (!batch.isEmpty()) {
+            try {
+                write(batch);
+            } catch (RuntimeException e) {
+                System.err.println("Leaving " + batch.size() + " attendance punches in the log: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes a batch, falling back to one punch at a time if the database
+     * refuses it. Punches are removed from the batch once they are handled,
+     * so an interrupted call leaves only the unwritten ones behind.
+     */
+    private void writeWithRetry(List<Punch> batch) throws InterruptedException {
+        DataAccessException refused = retryWhileTransient(batch);
+        if (refused == null) {
+            batch.clear();
+            return;
+        }
+        System.err.println("Database refused a batch of " + batch.size()
+                + " attendance punches, writing them one by one: " + refused.getMessage());
+        for (Iterator<Punch> punches = batch.iterator(); punches.hasNext(); ) {
+            Punch punch = punches.next();
+            DataAccessException error = batch.size() == 1 ? refused : retryWhileTransient(List.of(punch));
+            if (error != null) {
+                deadLetter(punch, error);
+            }
+            punches.remove();
+        }
+    }
+
+    /**
+     * Writes the punches, retrying with backoff while the failure is one
+     * that clears up by itself. Returns the error the database refused them
+     * with, or {@code null} once they are written.
+     */
+    private DataAccessException retryWhileTransient(List<Punch> punches) throws InterruptedException {
+        long delay = 500;
+        while (true) {
+            try {
+                write(punches);
+                return null;
+            } catch (RuntimeException e) {
+                if (isPermanent(e)) {
+                    return (DataAccessException) e;
+                }
+                System.err.println("Could not write " + punches.size() + " attendance punches, retrying in "
+                        + delay + " ms: " + e.getMessage());
+                Thread.sleep(delay);
+                delay = Math.min(delay * 2, MAX_RETRY_DELAY_MILLIS);
+            }
+        }
+    }
+
+    // Constraint violations, bad data and bad SQL fail the same way every time; a lost
+    // connection, lock timeouts, deadlocks and failing to start a transaction do not
+    private static boolean isPermanent(RuntimeException e) {
+        return e instanceof NonTransientDataAccessException && !(e instanceof DataAccessResourceFailureException);
+    }
+
+    /**
+     * Appends a refused punch to the dead-letter file, one tab-separated line
+     * each, and drops it from the log. If the file cannot be written the
+     * punch stays in the log and is tried again on the next start.
+     */
+    private void deadLetter(Punch punch, DataAccessException error) {
+        failedPunches.increment();
+        String reason = String.valueOf(error.getMostSpecificCause().getMessage()).replaceAll("\\s+", " ");
+        String line = String.join("\t", punch.type == Punch.IN ? "in" : "out", punch.date.toString(),
+                punch.time.toString(), Long.toString(punch.mobno), punch.username, reason) + "\n";
+        try {
+            Path file = Path.of(deadLetterPath);
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            Files.writeString(file, line, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+            log.flushed(1);
+            System.err.println("Moved a refused attendance punch of " + punch.username + " to " + deadLetterPath
+                    + ": " + reason);
+        } catch (IOException e) {
+            System.err.println("Could not move a refused attendance punch to " + deadLetterPath
+                    + ", it stays in the attendance log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a batch in one transaction: punch-ins first, so a punch-out in
+     * the same batch finds its row. Punches replayed from the log may already
+     * be in the database, and batched statements do not report which rows
+     * they changed, so the rows a batch will change are looked up first and
+     * only those are queued for the rollups once the batch has committed.
+     */
+    private void write(List<Punch> batch) {
+        List<Object[]> ins = new ArrayList<>();
+        List<Object[]> outs = new ArrayList<>();
+        for (Punch punch : batch) {
+            if (punch.type == Punch.IN) {
+                ins.add(new Object[] {Date.valueOf(punch.date), Time.valueOf(punch.time), punch.username});
+            } else {
+                outs.add(new Object[] {Time.valueOf(punch.time), punch.mobno, Date.valueOf(punch.date)});
+            }
+        }
+        long start = System.nanoTime();
+        rollups.counting(() -> {
+            Map<LocalDate, Set<Long>> newIns = mobnosByDate(batch, Punch.IN);
+            Map<LocalDate, Set<Long>> newOuts = mobnosByDate(batch, Punch.OUT);
+            transactionTemplate.executeWithoutResult(status -> {
+                newIns.forEach((date, mobnos) -> mobnos.removeAll(select(PUNCHED_IN_ON, date, mobnos)));
+                if (!ins.isEmpty()) {
+                    jdbcTemplate.batchUpdate(PUNCH_IN, ins);
+                }
+                newOuts.forEach((date, mobnos) -> mobnos.retainAll(select(OPEN_ON, date, mobnos)));
+                if (!outs.isEmpty()) {
+                    jdbcTemplate.batchUpdate(PUNCH_OUT, outs);
+                }
+            });
+            newIns.forEach(rollups::recordPunchIns);
+            newOuts.forEach(rollups::recordPunchOuts);
+            return null;
+        });
+        long committed = System.nanoTime();
+        flushTimer.record(committed - start, TimeUnit.NANOSECONDS);
+        batchSizes.record(batch.size());
+        for (Punch punch : batch) {
+            commitLag.record(committed - punch.acceptedNanos, TimeUnit.NANOSECONDS);
+        }
+        try {
+            log.flushed(batch.size());
+        } catch (IOException e) {
+            System.err.println("Could not truncate the attendance log: " + e.getMessage());
+        }
+    }
+
+    private static Map<LocalDate, Set<Long>> mobnosByDate(List<Punch> batch, byte type) {
+        Map<LocalDate, Set<Long>> mobnos = new HashMap<>();
+        for (Punch punch : batch) {
+            if (punch.type == type) {
+                mobnos.computeIfAbsent(punch.date, date -> new HashSet<>()).add(punch.mobno);
+            }
+        }
+        return mobnos;
+    }
+
+    private List<Long> select(String query, LocalDate date, Set<Long> mobnos) {
+        if (mobnos.isEmpty()) {
+            return List.of();
+        }
+        List<Object> args = new ArrayList<>(mobnos.size() + 1);
+        args.add(Date.valueOf(date));
+        args.addAll(mobnos);
+        String placeholders = String.join(", ", Collections.nCopies(mobnos.size(), "?"));
+        return jdbcTemplate.queryForList(String.format(query, placeholders), Long.class, args.toArray());
+    }
+
+    // Package-private for the log tests
+    static final class Punch {
+        static final byte IN = 1;
+        static final byte OUT = 2;
+
+        final byte type;
+        final String username;
+        final long mobno;
+        final LocalDate date;
+        final LocalTime time;
+        private final long acceptedNanos = System.nanoTime();
+
+        Punch(byte type, String username, long mobno, LocalDate date, LocalTime time) {
+            this.type = type;
+            this.username = username;
+            this.mobno = mobno;
+            this.date = date;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Append-only file of acknowledged punches as length-prefixed, CRC-checked
+     * records. Appenders that arrive while another one syncs the file are
+     * covered by the next sync, so concurrent punches share one fsync. The
+     * file is emptied whenever every punch in it has been written to the
+     * database.
+     */
+    static final class PunchLog {
+
+        private final Path file;
+        private final Object syncLock = new Object();
+        private FileChannel channel;
+        // Bytes appended and bytes known to be on disk
+        private long written;
+        private volatile long synced;
+        // Punches in the file that are not in the database yet
+        private long pending;
+
+        PunchLog(Path file) {
+            this.file = file;
+        }
+
+        /**
+         * Opens the log and returns the punches it still holds, dropping a
+         * record cut short by a crash.
+         */
+        synchronized List<Punch> open() throws IOException {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading until the whole log is in memory
+            }
+            buffer.flip();
+            List<Punch> punches = new ArrayList<>();
+            CRC32 crc = new CRC32();
+            int end = 0;
+            while (buffer.remaining() >= 8) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    break;
+                }
+                ByteBuffer payload = buffer.slice(buffer.position(), length).order(ByteOrder.LITTLE_ENDIAN);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                buffer.position(buffer.position() + length);
+                byte type = payload.get();
+                LocalDate date = LocalDate.ofEpochDay(payload.getInt());
+                LocalTime time = LocalTime.ofNanoOfDay(payload.getLong());
+                long mobno = payload.getLong();
+                byte[] username = new byte[payload.remaining()];
+                payload.get(username);
+                punches.add(new Punch(type, new String(username, StandardCharsets.UTF_8), mobno, date, time));
+                end = buffer.position();
+            }
+            channel.truncate(end);
+            channel.position(end);
+            written = end;
+            synced = end;
+            pending = punches.size();
+            return punches;
+        }
+
+        void append(Punch punch) throws IOException {
+            byte[] username = punch.username.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer payload = ByteBuffer.allocate(21 + username.length).order(ByteOrder.LITTLE_ENDIAN);
+            payload.put(punch.type).putInt((int) punch.date.toEpochDay()).putLong(punch.time.toNanoOfDay())
+                    .putLong(punch.mobno).put(username).flip();
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            ByteBuffer record = ByteBuffer.allocate(8 + payload.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+            record.putInt(payload.remaining()).putInt((int) crc.getValue()).put(payload).flip();
+
+            long end;
+            synchronized (this) {
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+                written += record.limit();
+                pending++;
+                end = written;
+            }
+            sync(end);
+        }
+
+        private void sync(long end) throws IOException {
+            if (synced >= end) {
+                return;
+            }
+            synchronized (syncLock) {
+                if (synced >= end) {
+                    return;
+                }
+                long target;
+                synchronized (this) {
+                    target = written;
+                }
+                channel.force(false);
+                synced = target;
+            }
+        }
+
+        synchronized void flushed(int punches) throws IOException {
+            pending -= punches;
+            if (pending == 0) {
+                channel.truncate(0);
+                channel.position(0);
+                written = 0;
+                synced = 0;
+            }
+        }
+
+        synchronized void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+}
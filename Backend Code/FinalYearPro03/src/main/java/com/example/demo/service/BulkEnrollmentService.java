@@ -0,0 +1,579 @@
+package com.example.demo.service;
+
+import com.example.demo.converter.FloatArrayConverter;
+import com.example.demo.dtos.StoredEmbedding;
+import com.example.demo.model.FaceData;
+import com.example.demo.repository.FaceDataRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+
+import jakarta.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Enrolls a whole cohort from a zip archive of photos and a CSV of student
+ * details. Photos are decoded in parallel and go through the shared
+ * detection and embedding batchers, rows are inserted with JDBC batches and
+ * the recognition gallery is updated once at the end. Uploads run as jobs
+ * on a background thread, one at a time, and their reports are kept in
+ * memory for the admin to poll.
+ */
+@Service
+public class BulkEnrollmentService {
+
+    private static final String INSERT_FACE_DATA = "INSERT INTO face_data (username, name, mobno, dept, college, "
+            + "college_username, age, password, face_image, face_embedding, embedding_model_version, "
+            + "pending_embedding, pending_model_version) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    // CSV columns, matched case-insensitively and ignoring '_' and spaces
+    private static final List<String> COLUMNS = List.of(
+            "username", "name", "mobno", "dept", "college", "collegeusername", "age", "password", "image");
+    // Usernames per lookup of already registered users
+    private static final int LOOKUP_CHUNK = 1000;
+    // Finished jobs whose reports are kept
+    private static final int RETAINED_JOBS = 20;
+
+    private final FaceRecognitionService faceRecognitionService;
+    private final FaceDataRepository faceDataRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final FloatArrayConverter embeddingConverter = new FloatArrayConverter();
+    private final AtomicLong jobIds = new AtomicLong();
+    private final Map<Long, Job> jobs = new LinkedHashMap<>();
+    private final ExecutorService jobRunner = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bulk-enrollment-job");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${face.bulk.parallelism:0}")
+    private int parallelism;
+    @Value("${face.bulk.insert-batch-size:200}")
+    private int insertBatchSize;
+
+    @Autowired
+    public BulkEnrollmentService(FaceRecognitionService faceRecognitionService, FaceDataRepository faceDataRepository,
+                                 JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        this.faceRecognitionService = faceRecognitionService;
+        this.faceDataRepository = faceDataRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    /**
+     * Parses the student CSV. The first line names the columns; rows with
+     * missing or invalid values are kept with an error so they can be
+     * reported instead of stopping the whole upload.
+     *
+     * @throws IOException if the file cannot be read or lacks a column
+     */
+    public List<StudentRow> readStudents(MultipartFile csv) throws IOException {
+        List<StudentRow> rows = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(csv.getInputStream(), StandardCharsets.UTF_8))) {
+            String headerLine = reader.readLine();
+            if (headerLine == null) {
+                throw new IOException("Student CSV is empty");
+            }
+            Map<String, Integer> columnIndex = new HashMap<>();
+            List<String> header = parseCsvLine(headerLine.replace("\uFEFF", ""));
+            for (int i = 0; i < header.size(); i++) {
+                columnIndex.put(header.get(i).toLowerCase(Locale.ROOT).replaceAll("[_ ]", ""), i);
+            }
+            for (String column : COLUMNS) {
+                if (!columnIndex.containsKey(column)) {
+                    throw new IOException("Student CSV is missing the '" + column + "' column");
+                }
+            }
+
+            Set<String> usernames = new HashSet<>();
+            Set<String> images = new HashSet<>();
+            String line;
+            int rowNumber = 1;
+            while ((line = reader.readLine()) != null) {
+                rowNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                StudentRow row = new StudentRow(rowNumber, parseCsvLine(line), columnIndex);
+                if (row.error == null && !usernames.add(row.username)) {
+                    row.error = "Duplicate username in CSV";
+                }
+                if (row.error == null && !images.add(imageKey(row.image))) {
+                    row.error = "Image is used by another row";
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Queues the enrollment of the given students from the photo archive and
+     * returns straight away. The archive is moved out of the request first,
+     * since the upload's temporary file is deleted when the request ends.
+     */
+    public Job submit(List<StudentRow> students, MultipartFile archive) throws IOException {
+        Path archiveFile = Files.createTempFile("bulk-enrollment-", ".zip");
+        try {
+            archive.transferTo(archiveFile);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(archiveFile);
+            throw e;
+        }
+        Job job = new Job(jobIds.incrementAndGet(), students.size());
+        synchronized (jobs) {
+            jobs.put(job.id, job);
+            // Forget the oldest finished jobs; running and queued ones are always kept
+            int finished = 0;
+            for (Job existing : jobs.values()) {
+                if (existing.isFinished()) {
+                    finished++;
+                }
+            }
+            Iterator<Job> oldest = jobs.values().iterator();
+            while (finished > RETAINED_JOBS && oldest.hasNext()) {
+                if (oldest.next().isFinished()) {
+                    oldest.remove();
+                    finished--;
+                }
+            }
+        }
+        jobRunner.execute(() -> {
+            job.state = JobState.RUNNING;
+            try {
+                enroll(students, archiveFile, job::add);
+                job.state = JobState.DONE;
+            } catch (Exception e) {
+                System.err.println("Bulk enrollment job " + job.id + " failed: " + e.getMessage());
+                job.error = e.getMessage() != null ? e.getMessage() : e.toString();
+                job.state = JobState.FAILED;
+            } finally {
+                try {
+                    Files.deleteIfExists(archiveFile);
+                } catch (IOException e) {
+                    System.err.println("Could not delete " + archiveFile + ": " + e.getMessage());
+                }
+            }
+        });
+        return job;
+    }
+
+    /**
+     * Returns the job with the given id, or {@code null} if it is unknown or
+     * has been forgotten.
+     */
+    public Job getJob(long id) {
+        synchronized (jobs) {
+            return jobs.get(id);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobRunner.shutdownNow();
+    }
+
+    /**
+     * Enrolls the given students from the photo archive. One {@link Outcome}
+     * per row is passed to {@code report} as soon as it is known; all calls
+     * come from the calling thread.
+     */
+    void enroll(List<StudentRow> students, Path archive, Consumer<Outcome> report)
+            throws IOException {
+        long start = System.currentTimeMillis();
+        Map<String, StudentRow> pending = new LinkedHashMap<>();
+        for (StudentRow row : students) {
+            if (row.error != null) {
+                report.accept(Outcome.failed(row, row.error));
+            } else {
+                pending.put(imageKey(row.image), row);
+            }
+        }
+        Set<String> registered = findRegistered(pending.values());
+        pending.values().removeIf(row -> {
+            if (registered.contains(row.username)) {
+                report.accept(Outcome.failed(row, "Username already registered"));
+                return true;
+            }
+            return false;
+        });
+
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "bulk-enrollment-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<Prepared> completions = new ExecutorCompletionService<>(pool);
+        // Enough photos in flight to keep every worker and the batchers busy
+        int maxInFlight = threads * 2;
+        int inFlight = 0;
+        List<Prepared> ready = new ArrayList<>();
+        List<StoredEmbedding> enrolled = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                StudentRow row = pending.remove(imageKey(entry.getName()));
+                if (row == null) {
+                    continue;
+                }
+                // Read one byte past the limit so oversized photos are rejected, not buffered
+                byte[] photo = zip.readNBytes(ImageIngestor.MAX_IMAGE_BYTES + 1);
+                completions.submit(() -> prepare(row, photo));
+                inFlight++;
+                while (inFlight >= maxInFlight) {
+                    collect(take(completions), ready, enrolled, report);
+                    inFlight--;
+                }
+            }
+            while (inFlight > 0) {
+                collect(take(completions), ready, enrolled, report);
+                inFlight--;
+            }
+            insert(ready, enrolled, report);
+            for (StudentRow row : pending.values()) {
+                report.accept(Outcome.failed(row, "Image not found in archive"));
+            }
+        } finally {
+            pool.shutdownNow();
+            // Whatever made it into the database becomes recognizable
+            faceRecognitionService.publishEmbeddings(enrolled);
+        }
+        System.out.println("Bulk enrollment added " + enrolled.size() + " of " + students.size()
+                + " students in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private Prepared prepare(StudentRow row, byte[] photo) {
+        try {
+            return new Prepared(row, faceRecognitionService.prepareEnrollment(photo), null);
+        } catch (Exception e) {
+            return new Prepared(row, null, e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+    }
+
+    private static Prepared take(CompletionService<Prepared> completions) throws IOException {
+        try {
+            return completions.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted during bulk enrollment", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void collect(Prepared prepared, List<Prepared> ready, List<StoredEmbedding> enrolled, Consumer<Outcome> report) {
+        if (prepared.error != null) {
+            report.accept(Outcome.failed(prepared.row, prepared.error));
+            return;
+        }
+        ready.add(prepared);
+        if (ready.size() >= insertBatchSize) {
+            insert(ready, enrolled, report);
+        }
+    }
+
+    /**
+     * Inserts the prepared rows in one JDBC batch and clears the list. If the
+     * batch fails it is rolled back and retried row by row, so one bad row
+     * only fails itself.
+     */
+    private void insert(List<Prepared> ready, List<StoredEmbedding> enrolled, Consumer<Outcome> report) {
+        if (ready.isEmpty()) {
+            return;
+        }
+        List<FaceData> rows = new ArrayList<>(ready.size());
+        List<Object[]> values = new ArrayList<>(ready.size());
+        for (Prepared prepared : ready) {
+            FaceData faceData = prepared.toFaceData();
+            rows.add(faceData);
+            values.add(insertValues(faceData));
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(INSERT_FACE_DATA, values));
+            for (int i = 0; i < rows.size(); i++) {
+                enrolled.add(StoredEmbedding.of(rows.get(i)));
+                report.accept(Outcome.enrolled(ready.get(i).row));
+            }
+        } catch (DataAccessException e) {
+            for (int i = 0; i < rows.size(); i++) {
+                try {
+                    jdbcTemplate.update(INSERT_FACE_DATA, values.get(i));
+                    enrolled.add(StoredEmbedding.of(rows.get(i)));
+                    report.accept(Outcome.enrolled(ready.get(i).row));
+                } catch (DataAccessException rowError) {
+                    report.accept(Outcome.failed(ready.get(i).row, rowError.getMostSpecificCause().getMessage()));
+                }
+            }
+        }
+        ready.clear();
+    }
+
+    private Object[] insertValues(FaceData faceData) {
+        return new Object[] {
+                faceData.getUsername(),
+                faceData.getName(),
+                faceData.getMobno(),
+                faceData.getDept(),
+                faceData.getCollege(),
+                faceData.getCollegeUsername(),
+                faceData.getAge(),
+                faceData.getPassword(),
+                faceData.getFaceImage(),
+                embeddingConverter.convertToDatabaseColumn(faceData.getFaceEmbedding()),
+                faceData.getEmbeddingModelVersion(),
+                embeddingConverter.convertToDatabaseColumn(faceData.getPendingEmbedding()),
+                faceData.getPendingModelVersion()
+        };
+    }
+
+    private Set<String> findRegistered(Collection<StudentRow> rows) {
+        List<String> usernames = new ArrayList<>();
+        for (StudentRow row : rows) {
+            usernames.add(row.username);
+        }
+        Set<String> registered = new HashSet<>();
+        for (int from = 0; from < usernames.size(); from += LOOKUP_CHUNK) {
+            List<String> chunk = usernames.subList(from, Math.min(usernames.size(), from + LOOKUP_CHUNK));
+            registered.addAll(faceDataRepository.findExistingUsernames(chunk));
+        }
+        return registered;
+    }
+
+    /**
+     * Archive entries are matched to CSV rows by file name, ignoring folders
+     * and case.
+     */
+    private static String imageKey(String path) {
+        String name = path.substring(Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1);
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Splits one CSV line, honouring double quotes and doubled quotes inside
+     * them.
+     */
+    static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+
+    /**
+     * One student line of the CSV.
+     */
+    public static class StudentRow {
+        private final int rowNumber;
+        private String username;
+        private String name;
+        private long mobNo;
+        private String dept;
+        private String college;
+        private String collegeUsername;
+        private int age;
+        private String password;
+        private String image;
+        private String error;
+
+        StudentRow(int rowNumber, List<String> fields, Map<String, Integer> columnIndex) {
+            this.rowNumber = rowNumber;
+            for (String column : COLUMNS) {
+                Integer index = columnIndex.get(column);
+                String value = index < fields.size() ? fields.get(index) : "";
+                if (value.isEmpty()) {
+                    error = "Missing " + column;
+                    return;
+                }
+                try {
+                    switch (column) {
+                        case "username" -> username = value;
+                        case "name" -> name = value;
+                        case "mobno" -> mobNo = Long.parseLong(value);
+                        case "dept" -> dept = value;
+                        case "college" -> college = value;
+                        case "collegeusername" -> collegeUsername = value;
+                        case "age" -> age = Integer.parseInt(value);
+                        case "password" -> password = value;
+                        case "image" -> image = value;
+                        default -> { }
+                    }
+                } catch (NumberFormatException e) {
+                    error = "Invalid " + column + ": " + value;
+                    return;
+                }
+            }
+        }
+
+        public int getRowNumber() {
+            return rowNumber;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+    }
+
+    /**
+     * Result for one CSV row, written as one line of the report.
+     */
+    public static class Outcome {
+        public static final String CSV_HEADER = "row,username,status,message";
+
+        private final int rowNumber;
+        private final String username;
+        private final boolean enrolled;
+        private final String message;
+
+        private Outcome(int rowNumber, String username, boolean enrolled, String message) {
+            this.rowNumber = rowNumber;
+            this.username = username;
+            this.enrolled = enrolled;
+            this.message = message;
+        }
+
+        static Outcome enrolled(StudentRow row) {
+            return new Outcome(row.rowNumber, row.username, true, "");
+        }
+
+        static Outcome failed(StudentRow row, String message) {
+            return new Outcome(row.rowNumber, row.username, false, message);
+        }
+
+        public boolean isEnrolled() {
+            return enrolled;
+        }
+
+        public String toCsvLine() {
+            return rowNumber + "," + Csv.field(username) + "," + (enrolled ? "enrolled" : "failed") + ","
+                    + Csv.field(message);
+        }
+    }
+
+    public enum JobState {
+        QUEUED, RUNNING, DONE, FAILED
+    }
+
+    /**
+     * A bulk enrollment upload and the report lines of the rows done so far.
+     */
+    public static class Job {
+        private final long id;
+        private final int students;
+        private final List<Outcome> outcomes = new ArrayList<>();
+        private volatile JobState state = JobState.QUEUED;
+        private volatile String error;
+
+        Job(long id, int students) {
+            this.id = id;
+            this.students = students;
+        }
+
+        private synchronized void add(Outcome outcome) {
+            outcomes.add(outcome);
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public JobState getState() {
+            return state;
+        }
+
+        public boolean isFinished() {
+            return state == JobState.DONE || state == JobState.FAILED;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public int getStudents() {
+            return students;
+        }
+
+        public synchronized int getCompleted() {
+            return outcomes.size();
+        }
+
+        /**
+         * The report so far, a header line and one line per finished row.
+         */
+        public synchronized String toCsv() {
+            StringBuilder report = new StringBuilder(Outcome.CSV_HEADER).append('\n');
+            for (Outcome outcome : outcomes) {
+                report.append(outcome.toCsvLine()).append('\n');
+            }
+            return report.toString();
+        }
+    }
+
+    /**
+     * A photo that went through detection, or the reason it could not.
+     */
+    private static final class Prepared {
+        private final StudentRow row;
+        private final EnrolledFace face;
+        private final String error;
+
+        Prepared(StudentRow row, EnrolledFace face, String error) {
+            this.row = row;
+            this.face = face;
+            this.error = error;
+        }
+
+        FaceData toFaceData() {
+            FaceData faceData = new FaceData(row.username, row.name, row.mobNo, row.dept, row.college,
+                    row.collegeUsername, row.age, row.password, face.getFaceImage());
+            face.applyTo(faceData);
+            return faceData;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.demo.service;
+
+/**
+ * CSV helpers shared by the attendance export and the bulk enrollment report.
+ */
+public final class Csv {
+
+    private Csv() {
+    }
+
+    /**
+     * Formats a value as one CSV field, quoting it when it holds a comma, a
+     * quote or a line break. {@code null} becomes an empty field.
+     */
+    public static String field(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.demo.service;
+
+import com.example.demo.model.FaceData;
+
+/**
+ * What enrollment keeps from a photo: the PNG-encoded face crop, its
+ * normalized embedding and, while a model migration runs, its embedding from
+ * the target model.
+ */
+public class EnrolledFace {
+
+    private final byte[] faceImage;
+    private final float[] embedding;
+    private final String modelVersion;
+    private final float[] pendingEmbedding;
+    private final String pendingModelVersion;
+
+    public EnrolledFace(byte[] faceImage, float[] embedding, String modelVersion,
+                        float[] pendingEmbedding, String pendingModelVersion) {
+        this.faceImage = faceImage;
+        this.embedding = embedding;
+        this.modelVersion = modelVersion;
+        this.pendingEmbedding = pendingEmbedding;
+        this.pendingModelVersion = pendingModelVersion;
+    }
+
+    public byte[] getFaceImage() {
+        return faceImage;
+    }
+
+    public float[] getEmbedding() {
+        return embedding;
+    }
+
+    public String getModelVersion() {
+        return modelVersion;
+    }
+
+    public float[] getPendingEmbedding() {
+        return pendingEmbedding;
+    }
+
+    public String getPendingModelVersion() {
+        return pendingModelVersion;
+    }
+
+    /**
+     * Copies the embeddings and their model versions onto a user record.
+     */
+    public void applyTo(FaceData faceData) {
+        faceData.setFaceEmbedding(embedding);
+        faceData.setEmbeddingModelVersion(modelVersion);
+        faceData.setPendingEmbedding(pendingEmbedding);
+        faceData.setPendingModelVersion(pendingModelVersion);
+    }
+}
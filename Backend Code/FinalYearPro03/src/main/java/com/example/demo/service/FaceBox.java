@@ -0,0 +1,93 @@
+package com.example.demo.service;
+
+import org.bytedeco.opencv.opencv_core.Rect;
+
+/**
+ * A detected face in image pixel coordinates. Detection results are copied
+ * into this plain Java value so they stay valid after the native memory they
+ * were read from has been released.
+ */
+final class FaceBox {
+
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+    private final float confidence;
+
+    FaceBox(int x, int y, int width, int height, float confidence) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.confidence = confidence;
+    }
+
+    /**
+     * Builds a box from corner coordinates, clipped to an image of the given
+     * size. Returns {@code null} if nothing of the box lies inside the image.
+     */
+    static FaceBox clipped(float x1, float y1, float x2, float y2, int imageWidth, int imageHeight,
+                           float confidence) {
+        int left = Math.max(0, (int) x1);
+        int top = Math.max(0, (int) y1);
+        int right = Math.min(imageWidth, (int) x2);
+        int bottom = Math.min(imageHeight, (int) y2);
+        if (right <= left || bottom <= top) {
+            return null;
+        }
+        return new FaceBox(left, top, right - left, bottom - top, confidence);
+    }
+
+    /**
+     * Maps a box found in a resized copy of an image back to the image,
+     * {@code scale} being the ratio of the image's size to the copy's.
+     */
+    FaceBox scaled(double scale, int offsetX, int offsetY, int imageWidth, int imageHeight) {
+        return clipped((float) (offsetX + x * scale), (float) (offsetY + y * scale),
+                (float) (offsetX + (x + width) * scale), (float) (offsetY + (y + height) * scale),
+                imageWidth, imageHeight, confidence);
+    }
+
+    /**
+     * Grows the box by {@code margin} of its size on every side, clipped to
+     * the image.
+     */
+    FaceBox expanded(double margin, int imageWidth, int imageHeight) {
+        float dx = (float) (width * margin);
+        float dy = (float) (height * margin);
+        return clipped(x - dx, y - dy, x + width + dx, y + height + dy, imageWidth, imageHeight, confidence);
+    }
+
+    long area() {
+        return (long) width * height;
+    }
+
+    int getX() {
+        return x;
+    }
+
+    int getY() {
+        return y;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    float getConfidence() {
+        return confidence;
+    }
+
+    /**
+     * Creates a native rectangle for cropping; it belongs to the caller's
+     * {@link org.bytedeco.javacpp.PointerScope}, if any.
+     */
+    Rect toRect() {
+        return new Rect(x, y, width, height);
+    }
+}
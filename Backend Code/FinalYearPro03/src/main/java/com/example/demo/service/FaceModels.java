@@ -0,0 +1,161 @@
+package com.example.demo.service;
+
+import org.bytedeco.opencv.global.opencv_dnn;
+import org.bytedeco.opencv.opencv_dnn.Net;
+import org.bytedeco.opencv.opencv_objdetect.CascadeClassifier;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Locates the face model files on disk and creates fresh, independent
+ * {@link FaceNets} instances from them.
+ * <p>
+ * Recognition models are Torch files named after their version, e.g.
+ * {@code models/openface.nn4.small2.v1.t7}. Embeddings are tagged with the
+ * version that produced them, since vectors from different models cannot be
+ * compared. A target version can be configured next to the serving one; it
+ * is loaded too so stored faces can be re-embedded with it.
+ */
+@Component
+public class FaceModels {
+
+    public static final String DEFAULT_MODEL_VERSION = "openface.nn4.small2.v1";
+
+    // Paths to model files
+    private final String FACE_DETECTION_MODEL = "models/deploy.prototxt";
+    private final String FACE_DETECTION_WEIGHTS = "models/res10_300x300_ssd_iter_140000.caffemodel";
+
+    private final String modelVersion;
+    private final String targetVersion;
+    private final File cascadeFile;
+
+    public FaceModels() {
+        this(DEFAULT_MODEL_VERSION, "");
+    }
+
+    @Autowired
+    public FaceModels(@Value("${face.embedding.model-version:" + DEFAULT_MODEL_VERSION + "}") String modelVersion,
+                      @Value("${face.embedding.target-version:}") String targetVersion) {
+        this.modelVersion = modelVersion;
+        this.targetVersion = targetVersion == null || targetVersion.isBlank() || targetVersion.equals(modelVersion)
+                ? null : targetVersion;
+
+        // Make sure model directory exists
+        try {
+            Path modelDir = Paths.get("models");
+            if (!Files.exists(modelDir)) {
+                Files.createDirectories(modelDir);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create model directory", e);
+        }
+
+        // Face detection cascade used as backup
+        cascadeFile = extractCascade("/haarcascade_frontalface_alt.xml");
+    }
+
+    /**
+     * Version of the recognition model the stored embeddings come from.
+     */
+    public String getModelVersion() {
+        return modelVersion;
+    }
+
+    /**
+     * Version stored faces should be re-embedded with, or {@code null}.
+     */
+    public String getTargetVersion() {
+        return targetVersion;
+    }
+
+    /**
+     * Loads a new set of pre-trained deep learning models for face detection
+     * and recognition. Each call reads the model files again, so the returned
+     * nets share no state with any other instance.
+     */
+    public FaceNets load() {
+        Net faceNet = null;
+        Map<String, Net> recognitionNets = new LinkedHashMap<>();
+        try {
+            // Load SSD face detector
+            File protoFile = loadResourceToFile("/models/deploy.prototxt.txt", FACE_DETECTION_MODEL);
+            File modelFile = loadResourceToFile("/models/res10_300x300_ssd_iter_140000.caffemodel", FACE_DETECTION_WEIGHTS);
+
+            faceNet = opencv_dnn.readNetFromCaffe(
+                protoFile.getAbsolutePath(),
+                modelFile.getAbsolutePath()
+            );
+
+            // Load OpenFace models for face embedding
+            recognitionNets.put(modelVersion, loadRecognitionNet(modelVersion));
+            if (targetVersion != null) {
+                recognitionNets.put(targetVersion, loadRecognitionNet(targetVersion));
+            }
+
+            System.out.println("Deep learning models loaded successfully on " + Thread.currentThread().getName());
+        } catch (Exception e) {
+            System.err.println("Failed to load deep learning models: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return new FaceNets(faceNet, recognitionNets, new CascadeClassifier(cascadeFile.getAbsolutePath()));
+    }
+
+    private Net loadRecognitionNet(String version) throws IOException {
+        File faceRecognizerFile = loadResourceToFile("/models/" + version + ".t7", "models/" + version + ".t7");
+        return opencv_dnn.readNetFromTorch(faceRecognizerFile.getAbsolutePath());
+    }
+
+    /**
+     * Loads a resource file from classpath to a file on disk.
+     */
+    private synchronized File loadResourceToFile(String resourcePath, String outputPath) throws IOException {
+        File outputFile = new File(outputPath);
+
+        // Skip if file already exists
+        if (outputFile.exists()) {
+            return outputFile;
+        }
+
+        try (InputStream is = getClass().getResourceAsStream(resourcePath)) {
+            if (is == null) {
+                throw new RuntimeException("Resource not found: " + resourcePath);
+            }
+
+            outputFile.getParentFile().mkdirs();
+            try (FileOutputStream os = new FileOutputStream(outputFile)) {
+                is.transferTo(os);
+            }
+        }
+        return outputFile;
+    }
+
+    /**
+     * Copies a cascade classifier file from the classpath to a temp file.
+     */
+    private File extractCascade(String resourcePath) {
+        try (InputStream is = getClass().getResourceAsStream(resourcePath)) {
+            if (is == null) {
+                throw new RuntimeException("Resource not found: " + resourcePath);
+            }
+            File tempFile = File.createTempFile("cascade", ".xml");
+            tempFile.deleteOnExit();
+            try (FileOutputStream os = new FileOutputStream(tempFile)) {
+                is.transferTo(os);
+            }
+            return tempFile;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load cascade classifier from " + resourcePath, e);
+        }
+    }
+}
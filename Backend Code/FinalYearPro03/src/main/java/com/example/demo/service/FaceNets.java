@@ -0,0 +1,166 @@
+package com.example.demo.service;
+
+import org.bytedeco.javacpp.PointerScope;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.bytedeco.opencv.opencv_core.MatVector;
+import org.bytedeco.opencv.opencv_core.Scalar;
+import org.bytedeco.opencv.opencv_core.Size;
+import org.bytedeco.opencv.opencv_dnn.Net;
+import org.bytedeco.opencv.opencv_objdetect.CascadeClassifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One independently loaded set of face models. {@link Net#setInput} and
+ * {@link Net#forward()} keep state inside the net, so an instance must only
+ * ever be used by the single inference worker that owns it.
+ * <p>
+ * The instance also owns the native scratch buffers its worker reuses for
+ * every pass, so steady-state inference allocates no new image memory.
+ */
+public class FaceNets implements AutoCloseable {
+
+    private final Net detectionNet;
+    // Recognition nets by model version
+    private final Map<String, Net> recognitionNets;
+    private final CascadeClassifier cascade;
+
+    // Blob geometry and mean values expected by the two models
+    private final Size detectionSize = new Size(300, 300);
+    private final Scalar detectionMean = new Scalar(104.0, 177.0, 123.0, 0.0);
+    private final Size embeddingSize = new Size(96, 96);
+    private final Scalar embeddingMean = new Scalar(0.0, 0.0, 0.0, 0.0);
+
+    // Scratch buffers, resized by OpenCV only when the batch shape changes
+    private final MatVector inputs = new MatVector();
+    private final Mat detectionBlob = new Mat();
+    private final Mat embeddingBlob = new Mat();
+    private final Mat gray = new Mat();
+    private final List<Mat> resizedFaces = new ArrayList<>();
+
+    public FaceNets(Net detectionNet, Map<String, Net> recognitionNets, CascadeClassifier cascade) {
+        this.detectionNet = detectionNet;
+        this.recognitionNets = recognitionNets;
+        this.cascade = cascade;
+    }
+
+    public Net getDetectionNet() {
+        return detectionNet;
+    }
+
+    /**
+     * Returns the recognition net of the given model version.
+     *
+     * @throws IllegalStateException if that version was not loaded
+     */
+    public Net getRecognitionNet(String modelVersion) {
+        Net net = recognitionNets.get(modelVersion);
+        if (net == null) {
+            throw new IllegalStateException("Face recognition model " + modelVersion + " is not loaded");
+        }
+        return net;
+    }
+
+    public CascadeClassifier getCascade() {
+        return cascade;
+    }
+
+    Size getDetectionSize() {
+        return detectionSize;
+    }
+
+    Scalar getDetectionMean() {
+        return detectionMean;
+    }
+
+    Size getEmbeddingSize() {
+        return embeddingSize;
+    }
+
+    Scalar getEmbeddingMean() {
+        return embeddingMean;
+    }
+
+    Mat getDetectionBlob() {
+        return detectionBlob;
+    }
+
+    Mat getEmbeddingBlob() {
+        return embeddingBlob;
+    }
+
+    Mat getGray() {
+        return gray;
+    }
+
+    /**
+     * Fills the reusable input vector with the given images. Call
+     * {@link #clearInputs()} after the pass so the vector does not keep the
+     * caller's image memory alive.
+     */
+    MatVector inputs(List<Mat> images) {
+        inputs.resize(images.size());
+        for (int i = 0; i < images.size(); i++) {
+            inputs.put(i, images.get(i));
+        }
+        return inputs;
+    }
+
+    void clearInputs() {
+        inputs.resize(0);
+    }
+
+    /**
+     * Returns the i-th reusable buffer for a resized face crop, growing the
+     * pool the first time a batch this large is seen. New buffers are
+     * detached from any open {@link PointerScope} so they outlive the pass.
+     */
+    Mat resizedFace(int i) {
+        while (resizedFaces.size() <= i) {
+            Mat buffer = new Mat();
+            PointerScope scope = PointerScope.getInnerScope();
+            if (scope != null) {
+                scope.detach(buffer);
+            }
+            resizedFaces.add(buffer);
+        }
+        return resizedFaces.get(i);
+    }
+
+    /**
+     * Releases the models and scratch buffers once the owning worker exits.
+     */
+    @Override
+    public void close() {
+        for (Mat mat : resizedFaces) {
+            mat.close();
+        }
+        resizedFaces.clear();
+        gray.close();
+        embeddingBlob.close();
+        detectionBlob.close();
+        inputs.close();
+        embeddingMean.close();
+        embeddingSize.close();
+        detectionMean.close();
+        detectionSize.close();
+        closeQuietly(cascade);
+        for (Net net : recognitionNets.values()) {
+            closeQuietly(net);
+        }
+        closeQuietly(detectionNet);
+    }
+
+    private static void closeQuietly(AutoCloseable resource) {
+        if (resource == null) {
+            return;
+        }
+        try {
+            resource.close();
+        } catch (Exception e) {
+            System.err.println("Failed to release face model: " + e.getMessage());
+        }
+    }
+}
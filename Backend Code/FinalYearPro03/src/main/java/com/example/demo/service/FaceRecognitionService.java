@@ -1,8 +1,19 @@
 package com.example.demo.service;
 
+import com.example.demo.dtos.StoredEmbedding;
+import com.example.demo.gallery.EmbeddingGallery;
+import com.example.demo.gallery.EmbeddingIndex;
+import com.example.demo.gallery.GallerySnapshotStore;
+import com.example.demo.gallery.HnswIndex;
+import com.example.demo.gallery.PartitionedGallery;
+import com.example.demo.gallery.QuantizedGallery;
+import com.example.demo.gallery.RecallCheck;
 import com.example.demo.model.FaceData;
+import com.example.demo.model.ReembeddingCheckpoint;
 import com.example.demo.repository.FaceDataRepository;
+import com.example.demo.repository.ReembeddingCheckpointRepository;
 import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.PointerScope;
 import org.bytedeco.javacpp.indexer.FloatIndexer;
 import org.bytedeco.opencv.global.opencv_core;
 import org.bytedeco.opencv.global.opencv_dnn;
@@ -11,387 +22,1054 @@ import org.bytedeco.opencv.global.opencv_imgproc;
 import org.bytedeco.opencv.opencv_core.Mat;
 import org.bytedeco.opencv.opencv_core.Rect;
 import org.bytedeco.opencv.opencv_core.RectVector;
-import org.bytedeco.opencv.opencv_core.Scalar;
 import org.bytedeco.opencv.opencv_core.Size;
 import org.bytedeco.opencv.opencv_dnn.Net;
-import org.bytedeco.opencv.opencv_objdetect.CascadeClassifier;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import jakarta.annotation.PostConstruct;
-import java.io.File;
-import java.io.FileOutputStream;
+import jakarta.annotation.PreDestroy;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 @Service
 public class FaceRecognitionService {
 
-    private CascadeClassifier faceDetector;
-    private Net faceNet;
-    private Net recognitionNet;
-    private final Map<String, float[]> faceEmbeddings = new HashMap<>();
+    // Galleries recognition is served from, replaced as a whole when the HNSW
+    // index is ready or a model migration completes
+    private volatile ServingGallery serving;
+    // Galleries of the model being migrated to, filled by the re-embedding job
+    private volatile Migration migration;
+    private final Object enrollmentLock = new Object();
+    // Enrollments published while HNSW indexes are being built, only touched under enrollmentLock
+    private List<StoredEmbedding> enrolledDuringBuild;
     // Adjusted threshold value: increased from 0.6f to 0.8f to allow more matches
     private final float RECOGNITION_THRESHOLD = 0.8f;
+    // Per-dimension noise used to turn enrolled embeddings into recall probes
+    private static final double RECALL_PROBE_NOISE = 0.03;
+    // DNN detections above this confidence are accepted without the cascade
+    private static final float DETECTION_CONFIDENCE = 0.5f;
+    // Share of a low-confidence box added on every side before the cascade looks at it
+    private static final double CASCADE_ROI_MARGIN = 0.25;
+    // Cascade search on the whole detector input looks for faces of at least this fraction of its shorter side
+    private static final int CASCADE_MIN_FACE_DIVISOR = 6;
+    private static final double CASCADE_SCALE_FACTOR = 1.1;
+    private static final int CASCADE_MIN_NEIGHBORS = 4;
+    // Usernames per query when reading users missing from the gallery snapshot
+    private static final int RECONCILE_CHUNK = 500;
     private final FaceDataRepository faceDataRepository;
-    
-    // Paths to model files
-    private final String FACE_DETECTION_MODEL = "models/deploy.prototxt";
-    private final String FACE_DETECTION_WEIGHTS = "models/res10_300x300_ssd_iter_140000.caffemodel";
-    private final String FACE_RECOGNITION_MODEL = "models/openface.nn4.small2.v1.t7";
+    private final ReembeddingCheckpointRepository checkpointRepository;
+    private final InferenceExecutor inferenceExecutor;
+    private final FaceModels faceModels;
+    private final MicroBatcher<Mat, List<FaceBox>> detectionBatcher;
+    private final MicroBatcher<EmbeddingRequest, float[]> embeddingBatcher;
+    private final RecognitionMetrics metrics;
+    private GallerySnapshotStore snapshotStore;
+    // Highest FaceData id the serving gallery was loaded up to, and whether
+    // the stored snapshot lags behind it
+    private volatile long snapshotWatermark;
+    private volatile boolean snapshotStale;
+
+    @Value("${face.gallery.index:exact}")
+    private String galleryIndex;
+    @Value("${face.gallery.hnsw.m:16}")
+    private int hnswM;
+    @Value("${face.gallery.hnsw.ef-construction:200}")
+    private int hnswEfConstruction;
+    @Value("${face.gallery.hnsw.ef-search:64}")
+    private int hnswEfSearch;
+    @Value("${face.gallery.hnsw.verify-samples:0}")
+    private int hnswVerifySamples;
+    @Value("${face.gallery.quantized.rerank-candidates:8}")
+    private int rerankCandidates;
+    @Value("${face.ingest.min-decoded-side:480}")
+    private int minDecodedSide;
+    @Value("${face.gallery.snapshot.dir:}")
+    private String snapshotDir;
+    @Value("${face.detection.input-side:320}")
+    private int detectionInputSide;
+    @Value("${face.detection.selection:largest}")
+    private String faceSelection;
+    @Value("${face.detection.candidate-confidence:0.2}")
+    private float candidateConfidence;
+    @Value("${face.detection.cascade.roi-side:160}")
+    private int cascadeRoiSide;
     
     @Autowired
-    public FaceRecognitionService(FaceDataRepository faceDataRepository) {
+    public FaceRecognitionService(FaceDataRepository faceDataRepository,
+                                  ReembeddingCheckpointRepository checkpointRepository,
+                                  InferenceExecutor inferenceExecutor, FaceModels faceModels, RecognitionMetrics metrics,
+                                  @Value("${face.batching.max-batch-size:16}") int maxBatchSize,
+                                  @Value("${face.batching.max-delay-ms:2}") long maxDelayMillis,
+                                  @Value("${face.inference.queue-capacity:256}") int queueCapacity) {
         this.faceDataRepository = faceDataRepository;
-        
-        // Make sure model directory exists
-        try {
-            Path modelDir = Paths.get("models");
-            if (!Files.exists(modelDir)) {
-                Files.createDirectories(modelDir);
+        this.checkpointRepository = checkpointRepository;
+        this.inferenceExecutor = inferenceExecutor;
+        this.faceModels = faceModels;
+        this.metrics = metrics;
+        this.detectionBatcher = new MicroBatcher<>("face-detection", inferenceExecutor,
+                (nets, images) -> detectFacesWithDNN(nets, images),
+                maxBatchSize, maxDelayMillis, queueCapacity);
+        this.embeddingBatcher = new MicroBatcher<>("face-embedding", inferenceExecutor,
+                (nets, requests) -> extractFaceEmbeddings(nets, requests),
+                maxBatchSize, maxDelayMillis, queueCapacity);
+        metrics.gauge("face.gallery.size", "Face embeddings in the serving gallery", this,
+                service -> service.serving != null ? service.serving.exact.size() : 0);
+        metrics.gauge("face.inference.queue.depth", "Inference tasks waiting for a worker", inferenceExecutor,
+                InferenceExecutor::getQueueDepth);
+        metrics.gauge("face.batcher.queue.depth", "Items waiting to join a batch", detectionBatcher,
+                MicroBatcher::getQueueDepth, "batcher", "detection");
+        metrics.gauge("face.batcher.queue.depth", "Items waiting to join a batch", embeddingBatcher,
+                MicroBatcher::getQueueDepth, "batcher", "embedding");
+    }
+
+    @PostConstruct
+    public void init() {
+        if (snapshotDir != null && !snapshotDir.isBlank()) {
+            snapshotStore = new GallerySnapshotStore(Path.of(snapshotDir));
+        }
+        // Embeddings stored before versions were recorded come from the configured model
+        int tagged = faceDataRepository.tagUnversionedEmbeddings(faceModels.getModelVersion());
+        if (tagged > 0) {
+            System.out.println("Tagged " + tagged + " stored embeddings with model version "
+                    + faceModels.getModelVersion());
+        }
+        String version = startupModelVersion();
+        // Rows enrolled while a finished migration was being promoted
+        int promoted = faceDataRepository.promotePendingEmbeddings(version);
+        // Both change rows the snapshot may already cover, so it cannot be trusted then
+        ServingGallery loaded = loadServingGallery(version, tagged == 0 && promoted == 0);
+        synchronized (enrollmentLock) {
+            serving = loaded;
+        }
+        saveSnapshotInBackground(loaded.exact);
+        startIndexBuild();
+    }
+
+    /**
+     * Model version to serve on startup: the target version once its
+     * re-embedding has finished, so its gallery is the only one loaded, and
+     * the configured version otherwise.
+     */
+    private String startupModelVersion() {
+        String target = faceModels.getTargetVersion();
+        if (target != null && checkpointRepository != null) {
+            ReembeddingCheckpoint checkpoint = checkpointRepository.findById(target).orElse(null);
+            if (checkpoint != null && checkpoint.getCompletedAt() != null) {
+                return target;
             }
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to create model directory", e);
         }
-        
-        // Initialize face detection cascade as backup
-        faceDetector = loadCascadeClassifier("/haarcascade_frontalface_alt.xml");
-        
-        // Load pre-trained models
-        loadModels();
+        return faceModels.getModelVersion();
     }
-    
+
+    @PreDestroy
+    public void shutdown() {
+        detectionBatcher.shutdown();
+        embeddingBatcher.shutdown();
+        if (snapshotStore != null) {
+            try {
+                snapshotStore.close();
+            } catch (IOException e) {
+                System.err.println("Could not close the gallery log: " + e.getMessage());
+            }
+        }
+    }
+
     /**
-     * Loads pre-trained deep learning models for face detection and recognition.
+     * Version of the recognition model queries are currently embedded with.
      */
-    private void loadModels() {
-        try {
-            // Load SSD face detector
-            File protoFile = loadResourceToFile("/models/deploy.prototxt.txt", FACE_DETECTION_MODEL);
-            File modelFile = loadResourceToFile("/models/res10_300x300_ssd_iter_140000.caffemodel", FACE_DETECTION_WEIGHTS);
-            
-            faceNet = opencv_dnn.readNetFromCaffe(
-                protoFile.getAbsolutePath(),
-                modelFile.getAbsolutePath()
-            );
-            
-            // Load OpenFace model for face embedding
-            File faceRecognizerFile = loadResourceToFile("/models/openface.nn4.small2.v1.t7", FACE_RECOGNITION_MODEL);
-            recognitionNet = opencv_dnn.readNetFromTorch(faceRecognizerFile.getAbsolutePath());
-            
-            System.out.println("Deep learning models loaded successfully");
-        } catch (Exception e) {
-            System.err.println("Failed to load deep learning models: " + e.getMessage());
-            e.printStackTrace();
+    public String getModelVersion() {
+        return serving.modelVersion;
+    }
+
+    /**
+     * Loads the stored embeddings of one model version into new galleries,
+     * from the on-disk snapshot when there is one for that version and
+     * otherwise from the database.
+     */
+    private ServingGallery loadServingGallery(String version, boolean useSnapshot) {
+        long start = System.currentTimeMillis();
+        // Read first, so every row up to it is covered by whatever is loaded below
+        Long maxId = faceDataRepository.findMaxId();
+        long watermark = maxId == null ? 0 : maxId;
+        PartitionedGallery<EmbeddingGallery> gallery = useSnapshot ? loadSnapshot(version, watermark) : null;
+        if (gallery == null) {
+            gallery = loadFromDatabase(version);
+            snapshotStale = true;
         }
+        snapshotWatermark = watermark;
+        System.out.println("Gallery of model " + version + " ready in " + (System.currentTimeMillis() - start)
+                + " ms");
+        return new ServingGallery(version, gallery, gallery);
     }
 
     /**
-     * Loads a resource file from classpath to a file on disk.
+     * Reads every stored embedding of one model version, grouped by college
+     * and department. Users whose embeddings come from another model are
+     * left out, since their distances would be meaningless.
      */
-    private File loadResourceToFile(String resourcePath, String outputPath) throws IOException {
-        File outputFile = new File(outputPath);
-        
-        // Skip if file already exists
-        if (outputFile.exists()) {
-            return outputFile;
+    private PartitionedGallery<EmbeddingGallery> loadFromDatabase(String version) {
+        List<StoredEmbedding> stored = faceDataRepository.findAllEmbeddings();
+        PartitionedGallery<EmbeddingGallery> gallery = new PartitionedGallery<>(EmbeddingGallery::new);
+        int partitions = addAll(gallery, stored, version);
+        int otherModel = 0;
+        for (StoredEmbedding data : stored) {
+            if (data.getFaceEmbedding() != null && data.embeddingFor(version) == null) {
+                otherModel++;
+            }
         }
-        
-        try (InputStream is = getClass().getResourceAsStream(resourcePath)) {
-            if (is == null) {
-                throw new RuntimeException("Resource not found: " + resourcePath);
+        System.out.println("Loaded " + gallery.size() + " face embeddings of model " + version + " in "
+                + partitions + " college/department partitions");
+        if (otherModel > 0) {
+            System.err.println("Warning: " + otherModel + " users have embeddings from another model"
+                    + " and cannot be recognized until they are re-embedded");
+        }
+        return gallery;
+    }
+
+    /**
+     * Restores the gallery from the snapshot and its log, then reads only the
+     * users added after the snapshot that neither of them holds. Returns
+     * {@code null} if there is no usable snapshot of the model version.
+     */
+    private PartitionedGallery<EmbeddingGallery> loadSnapshot(String version, long watermark) {
+        if (snapshotStore == null) {
+            return null;
+        }
+        PartitionedGallery<EmbeddingGallery> gallery = new PartitionedGallery<>(EmbeddingGallery::new);
+        try {
+            GallerySnapshotStore.Loaded loaded = snapshotStore.load(version, gallery);
+            if (loaded == null) {
+                return null;
             }
-            
-            outputFile.getParentFile().mkdirs();
-            try (FileOutputStream os = new FileOutputStream(outputFile)) {
-                byte[] buffer = new byte[4096];
-                int bytesRead;
-                while ((bytesRead = is.read(buffer)) != -1) {
-                    os.write(buffer, 0, bytesRead);
+            List<String> missing = new ArrayList<>();
+            for (String username : faceDataRepository.findUsernamesAfter(loaded.getWatermark())) {
+                if (!loaded.getIds().contains(username)) {
+                    missing.add(username);
                 }
             }
+            for (int from = 0; from < missing.size(); from += RECONCILE_CHUNK) {
+                List<String> chunk = missing.subList(from, Math.min(missing.size(), from + RECONCILE_CHUNK));
+                addAll(gallery, faceDataRepository.findEmbeddingsByUsernames(chunk), version);
+            }
+            System.out.println("Restored " + gallery.size() + " face embeddings of model " + version
+                    + " from the gallery snapshot, " + loaded.getLogEntries() + " from its log and "
+                    + missing.size() + " users read from the database");
+            snapshotStale = loaded.getLogEntries() > 0 || !missing.isEmpty() || loaded.getWatermark() != watermark;
+            return gallery;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not restore the gallery snapshot, loading from the database: "
+                    + e.getMessage());
+            return null;
         }
-        return outputFile;
     }
 
     /**
-     * Loads a cascade classifier file from the classpath.
+     * Rewrites the snapshot from a freshly loaded gallery in the background,
+     * if it lags behind. Enrollments wait while it is written, so none of
+     * them can fall between the snapshot and the new log.
      */
-    private CascadeClassifier loadCascadeClassifier(String resourcePath) {
-        try (InputStream is = getClass().getResourceAsStream(resourcePath)) {
-            if (is == null) {
-                throw new RuntimeException("Resource not found: " + resourcePath);
-            }
-            File tempFile = File.createTempFile("cascade", ".xml");
-            tempFile.deleteOnExit();
-            try (FileOutputStream os = new FileOutputStream(tempFile)) {
-                byte[] buffer = new byte[4096];
-                int bytesRead;
-                while ((bytesRead = is.read(buffer)) != -1) {
-                    os.write(buffer, 0, bytesRead);
+    private void saveSnapshotInBackground(PartitionedGallery<EmbeddingGallery> gallery) {
+        if (snapshotStore == null || !snapshotStale) {
+            return;
+        }
+        Thread writer = new Thread(() -> {
+            long start = System.currentTimeMillis();
+            synchronized (enrollmentLock) {
+                ServingGallery current = serving;
+                if (current.exact != gallery) {
+                    return; // replaced meanwhile, its own writer takes over
+                }
+                try {
+                    snapshotStore.write(current.modelVersion, gallery, snapshotWatermark);
+                    snapshotStale = false;
+                } catch (IOException e) {
+                    System.err.println("Could not write the gallery snapshot: " + e.getMessage());
+                    return;
                 }
             }
-            return new CascadeClassifier(tempFile.getAbsolutePath());
+            System.out.println("Wrote gallery snapshot of " + gallery.size() + " face embeddings in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        }, "gallery-snapshot-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Records enrolled embeddings of the serving model in the snapshot log
+     * before the enrollment returns. The next start only reads users added
+     * after the snapshot from the database, so if the log cannot take a
+     * re-enrollment the snapshot is discarded and that start reads them all.
+     */
+    private void appendToSnapshotLog(String version, List<StoredEmbedding> enrolled) {
+        if (snapshotStore == null) {
+            return;
+        }
+        List<GallerySnapshotStore.Entry> entries = new ArrayList<>();
+        for (StoredEmbedding data : enrolled) {
+            float[] embedding = data.embeddingFor(version);
+            if (embedding != null) {
+                entries.add(new GallerySnapshotStore.Entry(data.getCollege(), data.getDept(), data.getUsername(),
+                        embedding));
+            }
+        }
+        try {
+            snapshotStore.append(version, entries);
         } catch (IOException e) {
-            throw new RuntimeException("Failed to load cascade classifier from " + resourcePath, e);
+            System.err.println("Could not append to the gallery log, discarding the snapshot: " + e.getMessage());
+            try {
+                snapshotStore.discard();
+            } catch (IOException discardFailed) {
+                System.err.println("Could not discard the gallery snapshot: " + discardFailed.getMessage());
+            }
         }
     }
 
-    @PostConstruct
-    public void init() {
-        loadFaceEmbeddings();
+    /**
+     * Adds the embeddings of many users from one model version with one bulk
+     * insert per partition, moving users who changed college or department
+     * out of their old partition. Returns the number of partitions touched.
+     */
+    private static <T extends EmbeddingIndex> int addAll(PartitionedGallery<T> gallery, List<StoredEmbedding> stored,
+                                                         String version) {
+        Map<T, List<String>> usernames = new HashMap<>();
+        Map<T, List<float[]>> embeddings = new HashMap<>();
+        for (StoredEmbedding data : stored) {
+            float[] embedding = data.embeddingFor(version);
+            if (embedding != null) {
+                T partition = gallery.partition(data.getCollege(), data.getDept());
+                usernames.computeIfAbsent(partition, p -> new ArrayList<>()).add(data.getUsername());
+                embeddings.computeIfAbsent(partition, p -> new ArrayList<>()).add(embedding);
+            }
+        }
+        usernames.forEach((partition, ids) -> gallery.putAll(partition, ids, embeddings.get(partition)));
+        return usernames.size();
+    }
+
+    /**
+     * Builds the configured search index. HNSW graphs are built in the
+     * background and recognition is served by the exact scan until they are
+     * ready; quantized galleries are cheap enough to build right away.
+     */
+    private void startIndexBuild() {
+        if ("hnsw".equalsIgnoreCase(galleryIndex)) {
+            Thread builder = new Thread(this::buildHnswIndex, "hnsw-index-builder");
+            builder.setDaemon(true);
+            builder.start();
+            return;
+        }
+        QuantizedGallery.Encoding encoding = QuantizedGallery.Encoding.parse(galleryIndex);
+        if (encoding != null) {
+            buildQuantizedIndex(encoding);
+        }
     }
 
     /**
-     * Loads face embeddings from database into memory.
+     * Switches recognition to quantized copies of the exact galleries. Each
+     * one follows its exact partition, so enrollments only need to be added
+     * to the exact gallery first.
      */
-    private void loadFaceEmbeddings() {
-        List<FaceData> faceDataList = faceDataRepository.findAll();
-        for (FaceData data : faceDataList) {
-            if (data.getFaceEmbedding() != null) {
-                faceEmbeddings.put(data.getUsername(), data.getFaceEmbedding());
+    private void buildQuantizedIndex(QuantizedGallery.Encoding encoding) {
+        long start = System.currentTimeMillis();
+        synchronized (enrollmentLock) {
+            ServingGallery base = serving;
+            PartitionedGallery<QuantizedGallery> quantized = new PartitionedGallery<>(
+                    (college, dept) -> new QuantizedGallery(base.exact.partition(college, dept), encoding,
+                            rerankCandidates));
+            long[] codeBytes = {0};
+            base.exact.forEachPartition((college, dept, partition) ->
+                    codeBytes[0] += quantized.partition(college, dept).codeBytes());
+            serving = new ServingGallery(base.modelVersion, base.exact, quantized);
+            System.out.println("Built " + encoding + " galleries over " + quantized.size() + " face embeddings ("
+                    + (codeBytes[0] >> 10) + " KB of codes) in " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    /**
+     * Builds an HNSW index for every partition and switches recognition over
+     * to them. Enrollments made while the graphs were being built, new users
+     * and re-enrolled ones alike, are replayed before the switch, so none is
+     * lost or left with its old embedding. The indexes are dropped if the
+     * galleries were replaced in the meantime.
+     */
+    private void buildHnswIndex() {
+        long start = System.currentTimeMillis();
+        ServingGallery base;
+        synchronized (enrollmentLock) {
+            base = serving;
+            enrolledDuringBuild = new ArrayList<>();
+        }
+        PartitionedGallery<HnswIndex> indexes = new PartitionedGallery<>(
+                () -> new HnswIndex(hnswM, hnswEfConstruction, hnswEfSearch));
+        base.exact.forEachPartition((college, dept, partition) ->
+                addRows(indexes, indexes.partition(college, dept), partition.snapshot()));
+        synchronized (enrollmentLock) {
+            List<StoredEmbedding> enrolled = enrolledDuringBuild;
+            enrolledDuringBuild = null;
+            if (serving.exact != base.exact) {
+                System.out.println("Discarding HNSW indexes of model " + base.modelVersion
+                        + " since recognition has moved to new galleries");
+                return;
+            }
+            // Some may already be in the graphs; adding them again only replaces their nodes
+            addAll(indexes, enrolled, base.modelVersion);
+            serving = new ServingGallery(base.modelVersion, base.exact, indexes);
+        }
+        System.out.println("Built HNSW indexes over " + indexes.size() + " face embeddings in "
+                + (System.currentTimeMillis() - start) + " ms");
+        if (hnswVerifySamples > 0) {
+            System.out.println("HNSW recall check: " + checkIndexRecall(hnswVerifySamples));
+        }
+    }
+
+    private static <T extends EmbeddingIndex> void addRows(PartitionedGallery<T> gallery, T index,
+                                                           EmbeddingGallery.Snapshot snapshot) {
+        List<String> usernames = new ArrayList<>();
+        List<float[]> embeddings = new ArrayList<>();
+        for (int row = 0; row < snapshot.size(); row++) {
+            usernames.add(snapshot.id(row));
+            embeddings.add(snapshot.embedding(row));
+        }
+        gallery.putAll(index, usernames, embeddings);
+    }
+
+    /**
+     * Compares the galleries used for recognition against the exact scan on
+     * noisy copies of enrolled embeddings, both for the nearest neighbour and
+     * for the accept/reject decision under the recognition threshold. Probes
+     * are drawn from every partition in proportion to its size and searched
+     * without a scope, which is the hardest case for the index.
+     */
+    public RecallCheck.Report checkIndexRecall(int samples) {
+        ServingGallery current = serving;
+        int total = Math.max(1, current.exact.size());
+        List<float[]> probes = new ArrayList<>();
+        current.exact.forEachPartition((college, dept, partition) -> {
+            int share = (int) Math.ceil((double) samples * partition.size() / total);
+            probes.addAll(RecallCheck.noisyProbes(partition.snapshot(), share, RECALL_PROBE_NOISE, 42));
+        });
+        return RecallCheck.compare(current.exact.view(null, null), current.search.view(null, null),
+                probes, RECOGNITION_THRESHOLD);
+    }
+
+    /**
+     * Adds the embeddings of newly enrolled users in one step, so every
+     * partition and search index is updated once rather than per user. Each
+     * gallery takes the embedding from its own model version.
+     */
+    public void publishEmbeddings(List<StoredEmbedding> enrolled) {
+        synchronized (enrollmentLock) {
+            ServingGallery current = serving;
+            addAll(current.exact, enrolled, current.modelVersion);
+            appendToSnapshotLog(current.modelVersion, enrolled);
+            if (current.search != current.exact) {
+                addAll(current.search, enrolled, current.modelVersion);
+            }
+            if (enrolledDuringBuild != null) {
+                enrolledDuringBuild.addAll(enrolled);
+            }
+            Migration pending = migration;
+            if (pending != null) {
+                addAll(pending.gallery, enrolled, pending.modelVersion);
             }
         }
-        System.out.println("Loaded " + faceEmbeddings.size() + " face embeddings");
     }
 
     /**
-     * Detects faces in an image using a deep learning model.
+     * Starts collecting embeddings of the target model next to the serving
+     * ones; from now on enrollments compute both. Embeddings stored by an
+     * earlier, interrupted run of the job are loaded right away.
      */
-    private List<Rect> detectFacesWithDNN(Mat image) {
-        List<Rect> faceRects = new ArrayList<>();
+    public void beginMigration(String targetVersion) {
+        synchronized (enrollmentLock) {
+            Migration started = new Migration(targetVersion, new PartitionedGallery<>(EmbeddingGallery::new));
+            addAll(started.gallery, faceDataRepository.findPendingEmbeddings(targetVersion), targetVersion);
+            migration = started;
+            System.out.println("Migrating to model " + targetVersion + ", resuming with "
+                    + started.gallery.size() + " embeddings already computed");
+        }
+    }
+
+    /**
+     * Adds embeddings the re-embedding job has stored to the target gallery.
+     */
+    public void addMigratedEmbeddings(List<StoredEmbedding> migrated) {
+        synchronized (enrollmentLock) {
+            Migration pending = migration;
+            if (pending != null) {
+                addAll(pending.gallery, migrated, pending.modelVersion);
+            }
+        }
+    }
+
+    /**
+     * Runs {@code promote}, which makes the pending embeddings the stored
+     * ones, and switches recognition to the target gallery in the same
+     * critical section, so no enrollment sees a half-switched state.
+     */
+    public void completeMigration(Runnable promote) {
+        Migration finished;
+        synchronized (enrollmentLock) {
+            finished = migration;
+            if (finished == null) {
+                throw new IllegalStateException("No model migration in progress");
+            }
+            promote.run();
+            serving = new ServingGallery(finished.modelVersion, finished.gallery, finished.gallery);
+            migration = null;
+            snapshotStale = true;
+        }
+        System.out.println("Recognition switched to model " + finished.modelVersion + " with "
+                + finished.gallery.size() + " face embeddings");
+        saveSnapshotInBackground(finished.gallery);
+        startIndexBuild();
+    }
+
+    /**
+     * Serves recognition from the stored embeddings of another model version,
+     * e.g. after a migration finished but the configuration still names the
+     * previous model.
+     */
+    public void switchModelVersion(String version) {
+        int promoted = faceDataRepository.promotePendingEmbeddings(version);
+        ServingGallery loaded = loadServingGallery(version, promoted == 0);
+        synchronized (enrollmentLock) {
+            serving = loaded;
+        }
+        saveSnapshotInBackground(loaded.exact);
+        startIndexBuild();
+    }
+
+    /**
+     * Detects faces in a batch of images with one pass of the deep learning
+     * model. Returns one list of face boxes per input image, including the
+     * low-confidence ones the cascade may confirm. The blob is
+     * built in the worker's reusable buffer, and everything else allocated
+     * natively during the pass is freed when it ends.
+     */
+    List<List<FaceBox>> detectFacesWithDNN(FaceNets nets, List<Mat> images) {
+        List<List<FaceBox>> faceBoxes = new ArrayList<>();
+        for (int i = 0; i < images.size(); i++) {
+            faceBoxes.add(new ArrayList<>());
+        }
         
-        try {
-            Mat inputBlob = opencv_dnn.blobFromImage(
-                    image,
+        try (PointerScope scope = new PointerScope()) {
+            Mat inputBlob = nets.getDetectionBlob();
+            opencv_dnn.blobFromImages(
+                    nets.inputs(images),
+                    inputBlob,
                     1.0,
-                    new Size(300, 300),
-                    new Scalar(104.0, 177.0, 123.0, 0.0),
+                    nets.getDetectionSize(),
+                    nets.getDetectionMean(),
                     false,
                     false,
                     opencv_core.CV_32F  // Force output blob depth to CV_32F
             );
+            Net faceNet = nets.getDetectionNet();
             faceNet.setInput(inputBlob);
             
-            // Forward pass to get face detections
+            // Forward pass to get face detections for the whole batch
             Mat detections = faceNet.forward();
             
-            // The detection output is a 4D blob [1,1,N,7]
-            int numDetections = (int) detections.size(2);
-            int height = image.rows();
-            int width = image.cols();
-            FloatIndexer idx = detections.createIndexer();
-            
-            for (int i = 0; i < numDetections; i++) {
-                float confidence = idx.get(0, 0, i, 2);
-                if (confidence > 0.5) {
-                    float x1 = idx.get(0, 0, i, 3) * width;
-                    float y1 = idx.get(0, 0, i, 4) * height;
-                    float x2 = idx.get(0, 0, i, 5) * width;
-                    float y2 = idx.get(0, 0, i, 6) * height;
-                    
-                    Rect faceRect = new Rect(
-                            (int) x1,
-                            (int) y1,
-                            (int) (x2 - x1),
-                            (int) (y2 - y1)
+            // The detection output is a 4D blob [1,1,N,7]; the first value of
+            // each row is the index of the image it belongs to
+            int numDetections = detections.size(2);
+            try (FloatIndexer idx = detections.createIndexer()) {
+                for (int i = 0; i < numDetections; i++) {
+                    int imageId = (int) idx.get(0, 0, i, 0);
+                    float confidence = idx.get(0, 0, i, 2);
+                    if (imageId < 0 || imageId >= images.size() || confidence <= candidateConfidence) {
+                        continue;
+                    }
+                    Mat image = images.get(imageId);
+                    int height = image.rows();
+                    int width = image.cols();
+                    FaceBox face = FaceBox.clipped(
+                            idx.get(0, 0, i, 3) * width,
+                            idx.get(0, 0, i, 4) * height,
+                            idx.get(0, 0, i, 5) * width,
+                            idx.get(0, 0, i, 6) * height,
+                            width,
+                            height,
+                            confidence
                     );
-                    faceRects.add(faceRect);
+                    if (face != null) {
+                        faceBoxes.get(imageId).add(face);
+                    }
                 }
             }
         } catch (Exception e) {
             System.err.println("Error in face detection: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            nets.clearInputs();
         }
         
-        return faceRects;
+        return faceBoxes;
+    }
+    
+    /**
+     * Looks for a face with the cascade classifier in the region of a
+     * low-confidence DNN box, scaled so its longer side is
+     * {@code face.detection.cascade.roi-side} pixels. Small faces are
+     * enlarged to a size the cascade finds reliably, and only face sizes that
+     * fit the region are tried.
+     */
+    private List<FaceBox> detectFacesWithCascade(FaceNets nets, Mat image, FaceBox candidate) {
+        List<FaceBox> faceBoxes = new ArrayList<>();
+        FaceBox region = candidate.expanded(CASCADE_ROI_MARGIN, image.cols(), image.rows());
+        if (region == null) {
+            return faceBoxes;
+        }
+        try (PointerScope scope = new PointerScope()) {
+            double scale = (double) Math.max(region.getWidth(), region.getHeight()) / cascadeRoiSide;
+            Mat roi = new Mat();
+            opencv_imgproc.resize(new Mat(image, region.toRect()), roi,
+                    new Size(Math.max(1, (int) Math.round(region.getWidth() / scale)),
+                            Math.max(1, (int) Math.round(region.getHeight() / scale))),
+                    0, 0, scale < 1 ? opencv_imgproc.INTER_LINEAR : opencv_imgproc.INTER_AREA);
+            int minSide = cascadeRoiSide / 3;
+            for (FaceBox face : detectWithCascade(nets, roi, minSide, new Size(cascadeRoiSide, cascadeRoiSide))) {
+                FaceBox mapped = face.scaled(scale, region.getX(), region.getY(), image.cols(), image.rows());
+                if (mapped != null) {
+                    faceBoxes.add(mapped);
+                }
+            }
+        }
+        return faceBoxes;
     }
     
     /**
-     * Fallback method to detect faces using cascade classifier.
+     * Looks for a face with the cascade classifier in the downscaled detector
+     * input, for images in which the DNN found nothing at all. Faces smaller
+     * than a sixth of the shorter side are not tried. Boxes are mapped back
+     * to the image the input was downscaled from by {@code scale}.
      */
-    private List<Rect> detectFacesWithCascade(Mat image) {
-        List<Rect> faceRects = new ArrayList<>();
-        Mat gray = new Mat();
+    private List<FaceBox> detectFacesWithCascade(FaceNets nets, Mat input, double scale, Mat image) {
+        List<FaceBox> faceBoxes = new ArrayList<>();
+        try (PointerScope scope = new PointerScope()) {
+            int minSide = Math.min(input.cols(), input.rows()) / CASCADE_MIN_FACE_DIVISOR;
+            for (FaceBox face : detectWithCascade(nets, input, minSide, new Size(input.cols(), input.rows()))) {
+                FaceBox mapped = face.scaled(scale, 0, 0, image.cols(), image.rows());
+                if (mapped != null) {
+                    faceBoxes.add(mapped);
+                }
+            }
+        }
+        return faceBoxes;
+    }
+    
+    private static List<FaceBox> detectWithCascade(FaceNets nets, Mat image, int minSide, Size maxSize) {
+        Mat gray = nets.getGray();
         opencv_imgproc.cvtColor(image, gray, opencv_imgproc.COLOR_BGR2GRAY);
         
         RectVector faces = new RectVector();
-        faceDetector.detectMultiScale(gray, faces);
+        nets.getCascade().detectMultiScale(gray, faces, CASCADE_SCALE_FACTOR, CASCADE_MIN_NEIGHBORS, 0,
+                new Size(minSide, minSide), maxSize);
         
+        List<FaceBox> faceBoxes = new ArrayList<>();
         for (long i = 0; i < faces.size(); i++) {
-            faceRects.add(faces.get(i));
+            Rect face = faces.get(i);
+            faceBoxes.add(new FaceBox(face.x(), face.y(), face.width(), face.height(), 0f));
         }
-        
-        return faceRects;
+        return faceBoxes;
     }
     
     /**
-     * Extracts face embeddings using the deep neural network.
+     * Extracts face embeddings for a batch of face crops with one pass of the
+     * deep neural network of the given model version. Entries are
+     * {@code null} where extraction failed. Crops are resized into the worker's reusable 96x96 buffers.
      */
-    private float[] extractFaceEmbedding(Mat faceImg) {
-        try {
-            // Resize face to 96x96 as expected by the OpenFace model
-            Mat resizedFace = new Mat();
-            opencv_imgproc.resize(faceImg, resizedFace, new Size(96, 96));
+    List<float[]> extractFaceEmbeddings(FaceNets nets, String modelVersion, List<Mat> faceImgs) {
+        List<float[]> embeddings = new ArrayList<>(Collections.nCopies(faceImgs.size(), (float[]) null));
+        Net recognitionNet = nets.getRecognitionNet(modelVersion);
+        try (PointerScope scope = new PointerScope()) {
+            // Resize faces to 96x96 as expected by the OpenFace model
+            List<Mat> resizedFaces = new ArrayList<>(faceImgs.size());
+            for (int i = 0; i < faceImgs.size(); i++) {
+                Mat resizedFace = nets.resizedFace(i);
+                opencv_imgproc.resize(faceImgs.get(i), resizedFace, nets.getEmbeddingSize());
+                resizedFaces.add(resizedFace);
+            }
             
-            // Create a blob from the resized face.
-            Mat faceBlob = opencv_dnn.blobFromImage(
-                    resizedFace,
+            // Create one NCHW blob from all resized faces.
+            Mat faceBlob = nets.getEmbeddingBlob();
+            opencv_dnn.blobFromImages(
+                    nets.inputs(resizedFaces),
+                    faceBlob,
                     1.0 / 255.0,
-                    new Size(96, 96),
-                    new Scalar(0.0, 0.0, 0.0, 0.0),
+                    nets.getEmbeddingSize(),
+                    nets.getEmbeddingMean(),
                     true,
                     false,
                     opencv_core.CV_32F  // Force output blob depth to CV_32F
             );
             recognitionNet.setInput(faceBlob);
-            Mat embedding = recognitionNet.forward();
+            Mat output = recognitionNet.forward();
             
-            // Convert embedding to a float array
-            float[] embeddingArray = new float[(int) embedding.total()];
-            FloatIndexer embeddingIdx = embedding.createIndexer();
-            for (int i = 0; i < embeddingArray.length; i++) {
-                embeddingArray[i] = embeddingIdx.get(0, i);
-            }
-            
-            // Normalize the embedding (L2 normalization)
-            float sum = 0;
-            for (float val : embeddingArray) {
-                sum += val * val;
-            }
-            sum = (float) Math.sqrt(sum);
-            if(sum == 0) {
-                System.err.println("Warning: Embedding norm is zero.");
-                return null;
-            }
-            for (int i = 0; i < embeddingArray.length; i++) {
-                embeddingArray[i] /= sum;
+            // The output holds one embedding row per face
+            int dimension = (int) (output.total() / faceImgs.size());
+            try (FloatIndexer embeddingIdx = output.createIndexer()) {
+                for (int face = 0; face < faceImgs.size(); face++) {
+                    float[] embeddingArray = new float[dimension];
+                    embeddingIdx.get(face, embeddingArray);
+                    
+                    // Normalize the embedding (L2 normalization)
+                    float sum = 0;
+                    for (float val : embeddingArray) {
+                        sum += val * val;
+                    }
+                    sum = (float) Math.sqrt(sum);
+                    if(sum == 0) {
+                        System.err.println("Warning: Embedding norm is zero.");
+                        continue;
+                    }
+                    for (int i = 0; i < embeddingArray.length; i++) {
+                        embeddingArray[i] /= sum;
+                    }
+                    embeddings.set(face, embeddingArray);
+                }
             }
-            
-            return embeddingArray;
         } catch (Exception e) {
             System.err.println("Error extracting face embedding: " + e.getMessage());
             e.printStackTrace();
-            return null;
+        } finally {
+            nets.clearInputs();
         }
+        return embeddings;
     }
 
     /**
-     * Registers a new user with their face image and personal details.
+     * Runs a batch of embedding requests, one network pass per model version
+     * present in the batch (normally just one).
      */
-    public String registerFace(String userName, String name, long mobNo, String dept, String college,
-                               String collegeUsername, int age, String password, MultipartFile file) throws IOException {
-        byte[] fileBytes = file.getBytes();
-        Mat rawData = new Mat(1, fileBytes.length, opencv_core.CV_8UC1, new BytePointer(fileBytes));
-        Mat image = opencv_imgcodecs.imdecode(rawData, opencv_imgcodecs.IMREAD_COLOR);
-        
-        if (image.empty()) {
-            throw new IOException("Failed to load image");
+    private List<float[]> extractFaceEmbeddings(FaceNets nets, List<EmbeddingRequest> requests) {
+        Map<String, List<Integer>> byVersion = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            byVersion.computeIfAbsent(requests.get(i).modelVersion, v -> new ArrayList<>()).add(i);
         }
+        List<float[]> embeddings = new ArrayList<>(Collections.nCopies(requests.size(), (float[]) null));
+        byVersion.forEach((version, indices) -> {
+            List<Mat> faces = new ArrayList<>(indices.size());
+            for (int i : indices) {
+                faces.add(requests.get(i).face);
+            }
+            List<float[]> results = extractFaceEmbeddings(nets, version, faces);
+            for (int i = 0; i < indices.size(); i++) {
+                embeddings.set(indices.get(i), results.get(i));
+            }
+        });
+        return embeddings;
+    }
+
+    /**
+     * Finds the face to use in the image, trying the cheaper detectors
+     * first. The DNN runs on a copy downscaled to
+     * {@code face.detection.input-side}, batched with concurrent requests. If
+     * it finds no confident face, the cascade checks the region of its best
+     * low-confidence box, or the downscaled copy if there is none. The
+     * returned box is in the image's coordinates.
+     */
+    private FaceBox detectFace(Mat image, RecognitionTrace trace) throws IOException {
+        long start = System.nanoTime();
+        // The network input is 300x300, so detecting on a small copy loses nothing
+        Mat input = image;
+        double scale = 1;
+        int longerSide = Math.max(image.cols(), image.rows());
+        if (detectionInputSide > 0 && longerSide > detectionInputSide) {
+            scale = (double) longerSide / detectionInputSide;
+            input = new Mat();
+            opencv_imgproc.resize(image, input,
+                    new Size(Math.max(1, (int) Math.round(image.cols() / scale)),
+                            Math.max(1, (int) Math.round(image.rows() / scale))),
+                    0, 0, opencv_imgproc.INTER_AREA);
+        }
+        List<FaceBox> found = InferenceExecutor.await(submit(detectionBatcher, input));
+        metrics.record(RecognitionMetrics.Stage.DETECT, start, trace);
         
-        // Try to detect faces with DNN first
-        List<Rect> faces = detectFacesWithDNN(image);
-        
-        // Fall back to cascade classifier if no faces detected
-        if (faces.isEmpty()) {
-            faces = detectFacesWithCascade(image);
-            if (faces.isEmpty()) {
-                throw new IOException("No face detected in the image");
+        List<FaceBox> confident = new ArrayList<>();
+        FaceBox candidate = null;
+        for (FaceBox box : found) {
+            FaceBox mapped = box.scaled(scale, 0, 0, image.cols(), image.rows());
+            if (mapped == null) {
+                continue;
             }
+            if (box.getConfidence() > DETECTION_CONFIDENCE) {
+                confident.add(mapped);
+            } else if (candidate == null || box.getConfidence() > candidate.getConfidence()) {
+                candidate = mapped;
+            }
+        }
+        if (!confident.isEmpty()) {
+            return detected(confident, RecognitionTrace.Detector.DNN, trace);
         }
         
-        Rect faceRect = faces.get(0); // Use the first detected face
-        Mat face = new Mat(image, faceRect);
+        // Fall back to the cascade classifier, bounded to the sizes a face can have here
+        metrics.cascadeFallback();
+        start = System.nanoTime();
+        Mat cascadeInput = input;
+        double cascadeScale = scale;
+        FaceBox roi = candidate;
+        List<FaceBox> faces = inferenceExecutor.execute(nets -> roi != null
+                ? detectFacesWithCascade(nets, image, roi)
+                : detectFacesWithCascade(nets, cascadeInput, cascadeScale, image));
+        metrics.record(RecognitionMetrics.Stage.CASCADE, start, trace);
+        if (faces.isEmpty()) {
+            throw new NoFaceDetectedException();
+        }
+        return detected(faces, roi != null ? RecognitionTrace.Detector.CASCADE_ROI : RecognitionTrace.Detector.CASCADE,
+                trace);
+    }
+
+    /**
+     * Picks the face to use among several: by default the largest, which is
+     * the person closest to the camera, or the most confident one if
+     * {@code face.detection.selection} is {@code confidence}.
+     */
+    private FaceBox detected(List<FaceBox> faces, RecognitionTrace.Detector detector, RecognitionTrace trace) {
+        metrics.detected(detector);
+        if (trace != null) {
+            trace.setDetector(detector);
+        }
+        Comparator<FaceBox> order = "confidence".equalsIgnoreCase(faceSelection)
+                ? Comparator.comparingDouble(FaceBox::getConfidence).thenComparingLong(FaceBox::area)
+                : Comparator.comparingLong(FaceBox::area).thenComparingDouble(FaceBox::getConfidence);
+        return Collections.max(faces, order);
+    }
+
+    /**
+     * Detects the face in the image and extracts its embedding with the
+     * given model. The returned crop belongs to the caller's
+     * {@link PointerScope} and is reused for the stored face image and any
+     * further embeddings, so the image is only searched once.
+     */
+    private DetectedFace detectAndEmbed(Mat image, String modelVersion, RecognitionTrace trace) throws IOException {
+        FaceBox faceBox = detectFace(image, trace);
+        Mat face = new Mat(image, faceBox.toRect());
         
         // Extract face embedding
-        float[] embedding = extractFaceEmbedding(face);
+        return new DetectedFace(face, embed(face, modelVersion, trace));
+    }
+
+    /**
+     * Extracts the embedding of a face crop with the given model.
+     */
+    private float[] embed(Mat face, String modelVersion, RecognitionTrace trace) throws IOException {
+        long start = System.nanoTime();
+        float[] embedding = InferenceExecutor.await(submit(embeddingBatcher, new EmbeddingRequest(face, modelVersion)));
+        metrics.record(RecognitionMetrics.Stage.EMBED, start, trace);
         if (embedding == null) {
             throw new IOException("Failed to extract face features");
         }
-        
-        // Save face image as bytes
-        BytePointer buf = new BytePointer();
-        opencv_imgcodecs.imencode(".png", face, buf);
-        byte[] faceBytes = new byte[(int) buf.limit()];
-        buf.get(faceBytes);
+        return embedding;
+    }
+
+    /**
+     * Queues an item on a batcher, reporting a full queue like a busy pool.
+     */
+    private static <I, O> CompletableFuture<O> submit(MicroBatcher<I, O> batcher, I item)
+            throws IOException {
+        try {
+            return batcher.submit(item);
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Face recognition is busy, please retry", e);
+        }
+    }
+
+    /**
+     * Registers a new user with their face image and personal details.
+     */
+    public String registerFace(String userName, String name, long mobNo, String dept, String college,
+                               String collegeUsername, int age, String password, MultipartFile file,
+                               RecognitionTrace trace) throws IOException {
+        EnrolledFace enrolled;
+        // Every native object of the request is freed when the scope closes
+        try (PointerScope scope = new PointerScope()) {
+            // Enrollment keeps the full resolution for the stored face crop
+            enrolled = enrollFace(ImageIngestor.decode(file, 0), trace);
+        }
         
         // Store user data with embedding
-        FaceData faceData = new FaceData(userName, name, mobNo, dept, college, collegeUsername, age, password, faceBytes);
-        faceData.setFaceEmbedding(embedding);
+        FaceData faceData = new FaceData(userName, name, mobNo, dept, college, collegeUsername, age, password,
+                enrolled.getFaceImage());
+        enrolled.applyTo(faceData);
         faceDataRepository.save(faceData);
         
-        // Update in-memory map
-        faceEmbeddings.put(userName, embedding);
+        // Publish to the in-memory gallery
+        publishEmbeddings(List.of(StoredEmbedding.of(faceData)));
         
         return "User " + userName + " registered successfully.";
     }
 
     /**
-     * Recognizes a face from an image file.
+     * Detects the face in an enrollment photo and returns its crop and
+     * embeddings without storing anything. Used by bulk enrollment, which
+     * saves and publishes many users at once.
      */
-    public String recognizeFace(MultipartFile file) throws IOException {
-        byte[] fileBytes = file.getBytes();
-        Mat rawData = new Mat(1, fileBytes.length, opencv_core.CV_8UC1, new BytePointer(fileBytes));
-        Mat image = opencv_imgcodecs.imdecode(rawData, opencv_imgcodecs.IMREAD_COLOR);
-        
-        if (image.empty()) {
-            throw new IOException("Failed to load image");
+    public EnrolledFace prepareEnrollment(byte[] photo) throws IOException {
+        try (PointerScope scope = new PointerScope()) {
+            return enrollFace(ImageIngestor.decode(photo, 0), null);
         }
+    }
+
+    /**
+     * Detects and embeds the face and encodes its crop as PNG. While a model
+     * migration runs the crop is embedded with the target model as well.
+     */
+    private EnrolledFace enrollFace(Mat image, RecognitionTrace trace) throws IOException {
+        String modelVersion = serving.modelVersion;
+        Migration pending = migration;
         
-        // Try to detect faces with DNN first
-        List<Rect> faces = detectFacesWithDNN(image);
+        // Detect and embed on the inference workers
+        DetectedFace detected = detectAndEmbed(image, modelVersion, trace);
+        float[] pendingEmbedding = pending != null ? embed(detected.face, pending.modelVersion, trace) : null;
         
-        // Fall back to cascade classifier if no faces detected
-        if (faces.isEmpty()) {
-            faces = detectFacesWithCascade(image);
-            if (faces.isEmpty()) {
-                throw new IOException("No face detected in the image");
-            }
+        // Save face image as bytes
+        BytePointer buf = new BytePointer();
+        opencv_imgcodecs.imencode(".png", detected.face, buf);
+        byte[] faceBytes = new byte[(int) buf.limit()];
+        buf.get(faceBytes);
+        return new EnrolledFace(faceBytes, detected.embedding, modelVersion,
+                pendingEmbedding, pending != null ? pending.modelVersion : null);
+    }
+
+    /**
+     * Recomputes the embedding of a stored face crop with the given model,
+     * for the re-embedding job.
+     */
+    public float[] embedStoredFace(byte[] faceImage, String modelVersion) throws IOException {
+        try (PointerScope scope = new PointerScope()) {
+            return embed(ImageIngestor.decode(faceImage, 0), modelVersion, null);
         }
-        
-        Rect faceRect = faces.get(0); // Use the first detected face
-        Mat face = new Mat(image, faceRect);
-        
-        // Extract face embedding
-        float[] queryEmbedding = extractFaceEmbedding(face);
-        if (queryEmbedding == null) {
-            throw new IOException("Failed to extract face features");
+    }
+
+    /**
+     * Recognizes a face from an image file.
+     */
+    public String recognizeFace(MultipartFile file) throws IOException {
+        try (BytePointer encoded = ImageIngestor.read(file)) {
+            return recognizeFace(encoded, null, null);
+        }
+    }
+
+    /**
+     * Recognizes a face from an upload read by {@link ImageIngestor#read},
+     * only comparing it against users enrolled in the given college and
+     * department. A {@code null} or blank scope searches every college or
+     * department.
+     */
+    public String recognizeFace(BytePointer encoded, String college, String dept) throws IOException {
+        return recognizeFace(encoded, college, dept, null);
+    }
+
+    /**
+     * Recognizes a face like {@link #recognizeFace(BytePointer, String, String)},
+     * noting the detector used and the stage times in the trace. Takes the
+     * upload already read into native memory rather than the upload itself,
+     * since recognition runs after the request thread has moved on and the
+     * upload's temporary file may be gone. The caller still owns the bytes.
+     */
+    public String recognizeFace(BytePointer encoded, String college, String dept, RecognitionTrace trace)
+            throws IOException {
+        // The query must be embedded by the model the searched gallery was built with
+        ServingGallery current = serving;
+        float[] queryEmbedding;
+        // Every native object of the request is freed when the scope closes
+        try (PointerScope scope = new PointerScope()) {
+            long start = System.nanoTime();
+            Mat image = ImageIngestor.decode(encoded, minDecodedSide);
+            metrics.record(RecognitionMetrics.Stage.DECODE, start, trace);
+            
+            // Detect and embed on the inference workers
+            queryEmbedding = detectAndEmbed(image, current.modelVersion, trace).embedding;
+        } catch (NoFaceDetectedException e) {
+            metrics.outcome(RecognitionMetrics.Outcome.NO_FACE);
+            throw e;
         }
         
         // Find the closest match
-        String bestMatch = null;
-        float bestDistance = Float.MAX_VALUE;
-        
-        for (Map.Entry<String, float[]> entry : faceEmbeddings.entrySet()) {
-            float distance = calculateDistance(queryEmbedding, entry.getValue());
-            if (distance < bestDistance) {
-                bestDistance = distance;
-                bestMatch = entry.getKey();
-            }
-        }
+        long start = System.nanoTime();
+        EmbeddingGallery.Match bestMatch = current.search.nearest(college, dept, queryEmbedding);
+        metrics.record(RecognitionMetrics.Stage.SEARCH, start, trace);
         
-        // Check if the match is close enough (using the adjusted threshold)
-        if (bestMatch != null && bestDistance < RECOGNITION_THRESHOLD) {
-            return bestMatch;
+        // The gallery reports squared distances, so compare against the squared threshold
+        if (bestMatch != null && bestMatch.getSquaredDistance() < RECOGNITION_THRESHOLD * RECOGNITION_THRESHOLD) {
+            metrics.outcome(RecognitionMetrics.Outcome.RECOGNIZED);
+            return bestMatch.getId();
         } else {
+            metrics.outcome(RecognitionMetrics.Outcome.BELOW_THRESHOLD);
+            float bestDistance = bestMatch != null ? bestMatch.getDistance() : Float.MAX_VALUE;
             throw new IOException("Face not recognized (confidence too low). Best distance: " + bestDistance);
         }
     }
-    
+
+    /**
+     * Thrown by {@link #detectFace} when neither detector finds a face.
+     */
+    private static final class NoFaceDetectedException extends IOException {
+        NoFaceDetectedException() {
+            super("No face detected in the image");
+        }
+    }
+
+    /**
+     * Face crop and its embedding produced by {@link #detectAndEmbed}.
+     */
+    private static final class DetectedFace {
+        private final Mat face;
+        private final float[] embedding;
+
+        DetectedFace(Mat face, float[] embedding) {
+            this.face = face;
+            this.embedding = embedding;
+        }
+    }
+
+    /**
+     * A face crop to embed and the model version to embed it with.
+     */
+    private static final class EmbeddingRequest {
+        private final Mat face;
+        private final String modelVersion;
+
+        EmbeddingRequest(Mat face, String modelVersion) {
+            this.face = face;
+            this.modelVersion = modelVersion;
+        }
+    }
+
+    /**
+     * The exact galleries of one model version and the galleries searched
+     * for recognition, which are either the same or HNSW indexes over them.
+     */
+    private static final class ServingGallery {
+        private final String modelVersion;
+        private final PartitionedGallery<EmbeddingGallery> exact;
+        private final PartitionedGallery<? extends EmbeddingIndex> search;
+
+        ServingGallery(String modelVersion, PartitionedGallery<EmbeddingGallery> exact,
+                       PartitionedGallery<? extends EmbeddingIndex> search) {
+            this.modelVersion = modelVersion;
+            this.exact = exact;
+            this.search = search;
+        }
+    }
+
     /**
-     * Calculate Euclidean distance between two face embeddings.
+     * Exact galleries being filled with embeddings of a new model version.
      */
-    private float calculateDistance(float[] embedding1, float[] embedding2) {
-        float sum = 0;
-        for (int i = 0; i < embedding1.length; i++) {
-            float diff = embedding1[i] - embedding2[i];
-            sum += diff * diff;
+    private static final class Migration {
+        private final String modelVersion;
+        private final PartitionedGallery<EmbeddingGallery> gallery;
+
+        Migration(String modelVersion, PartitionedGallery<EmbeddingGallery> gallery) {
+            this.modelVersion = modelVersion;
+            this.gallery = gallery;
         }
-        return (float) Math.sqrt(sum);
     }
 }
@@ -0,0 +1,193 @@
+package com.example.demo.service;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.opencv.global.opencv_core;
+import org.bytedeco.opencv.global.opencv_imgcodecs;
+import org.bytedeco.opencv.opencv_core.Mat;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads uploaded images straight into native memory and decodes them at the
+ * smallest resolution that still suits face detection. JPEG decoders can
+ * skip most of the work for a reduced size, so a 12MP phone photo decoded
+ * at 1/4 scale costs a fraction of the time and memory of a full decode.
+ */
+public final class ImageIngestor {
+
+    // Largest encoded image accepted, whether uploaded alone or inside an archive
+    public static final int MAX_IMAGE_BYTES = 10 * 1024 * 1024;
+
+    private ImageIngestor() {
+    }
+
+    /**
+     * Streams the upload into a native buffer and decodes it so that its
+     * shorter side is still at least {@code minDecodedSide} pixels. Use 0 to
+     * decode at full resolution. The returned image and the encoded bytes
+     * belong to the caller's {@link org.bytedeco.javacpp.PointerScope}.
+     */
+    public static Mat decode(MultipartFile file, int minDecodedSide) throws IOException {
+        return decode(read(file), minDecodedSide);
+    }
+
+    /**
+     * Streams the upload into a native buffer whose limit is the number of
+     * bytes read, for work that decodes it later on another thread. The
+     * caller owns the buffer and closes it when done, unless it was read
+     * inside a {@link org.bytedeco.javacpp.PointerScope}.
+     */
+    public static BytePointer read(MultipartFile file) throws IOException {
+        long size = file.getSize();
+        if (size <= 0) {
+            throw new IOException("Failed to load image");
+        }
+        if (size > MAX_IMAGE_BYTES) {
+            throw new IOException("Image is larger than " + (MAX_IMAGE_BYTES >> 20) + "MB");
+        }
+
+        // Copy the body in small chunks, never holding the whole upload on the heap
+        BytePointer data = new BytePointer(size);
+        try {
+            ByteBuffer buffer = data.asByteBuffer();
+            try (InputStream in = file.getInputStream(); ReadableByteChannel channel = Channels.newChannel(in)) {
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // keep reading until the buffer is full or the stream ends
+                }
+            }
+            data.limit(buffer.position());
+            return data;
+        } catch (IOException | RuntimeException e) {
+            data.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Decodes an upload read by {@link #read(MultipartFile)}, with the same
+     * reduction rule as {@link #decode(MultipartFile, int)}. The encoded
+     * bytes stay with the caller.
+     */
+    public static Mat decode(BytePointer encoded, int minDecodedSide) throws IOException {
+        if (encoded.limit() <= 0) {
+            throw new IOException("Failed to load image");
+        }
+        return decode(encoded, encoded.asByteBuffer(), (int) encoded.limit(), minDecodedSide);
+    }
+
+    /**
+     * Decodes an image that is already in memory, such as an archive entry,
+     * with the same reduction rule as {@link #decode(MultipartFile, int)}.
+     */
+    public static Mat decode(byte[] encoded, int minDecodedSide) throws IOException {
+        if (encoded.length == 0) {
+            throw new IOException("Failed to load image");
+        }
+        if (encoded.length > MAX_IMAGE_BYTES) {
+            throw new IOException("Image is larger than " + (MAX_IMAGE_BYTES >> 20) + "MB");
+        }
+        return decode(new BytePointer(encoded), ByteBuffer.wrap(encoded), encoded.length, minDecodedSide);
+    }
+
+    private static Mat decode(BytePointer data, ByteBuffer header, int length, int minDecodedSide)
+            throws IOException {
+        int flags = decodeFlags(header, length, minDecodedSide);
+        Mat rawData = new Mat(1, length, opencv_core.CV_8UC1, data);
+        Mat image = opencv_imgcodecs.imdecode(rawData, flags);
+        if (image.empty()) {
+            throw new IOException("Failed to load image");
+        }
+        return image;
+    }
+
+    /**
+     * Picks the {@code imdecode} flags for an encoded image: the largest
+     * reduction that keeps the shorter side at or above
+     * {@code minDecodedSide}, or a full colour decode when the size is
+     * unknown or no reduction fits.
+     */
+    public static int decodeFlags(ByteBuffer encoded, int length, int minDecodedSide) {
+        if (minDecodedSide <= 0) {
+            return opencv_imgcodecs.IMREAD_COLOR;
+        }
+        int[] dimensions = readDimensions(encoded, length);
+        if (dimensions == null) {
+            return opencv_imgcodecs.IMREAD_COLOR;
+        }
+        int shortSide = Math.min(dimensions[0], dimensions[1]);
+        if (shortSide / 8 >= minDecodedSide) {
+            return opencv_imgcodecs.IMREAD_REDUCED_COLOR_8;
+        }
+        if (shortSide / 4 >= minDecodedSide) {
+            return opencv_imgcodecs.IMREAD_REDUCED_COLOR_4;
+        }
+        if (shortSide / 2 >= minDecodedSide) {
+            return opencv_imgcodecs.IMREAD_REDUCED_COLOR_2;
+        }
+        return opencv_imgcodecs.IMREAD_COLOR;
+    }
+
+    /**
+     * Reads {width, height} from a JPEG frame header or PNG IHDR chunk
+     * without decoding any pixels. Returns {@code null} for other formats
+     * or truncated headers.
+     */
+    static int[] readDimensions(ByteBuffer encoded, int length) {
+        if (length >= 24 && u8(encoded, 0) == 0x89 && u8(encoded, 1) == 'P'
+                && u8(encoded, 2) == 'N' && u8(encoded, 3) == 'G') {
+            return new int[] {u32(encoded, 16), u32(encoded, 20)};
+        }
+        if (length < 4 || u8(encoded, 0) != 0xFF || u8(encoded, 1) != 0xD8) {
+            return null;
+        }
+        // Walk the JPEG marker segments up to the first start-of-frame
+        int pos = 2;
+        while (pos + 4 <= length) {
+            if (u8(encoded, pos) != 0xFF) {
+                return null;
+            }
+            int marker = u8(encoded, pos + 1);
+            if (marker == 0xFF) {
+                pos++; // fill byte
+                continue;
+            }
+            if (marker == 0xD8 || marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                pos += 2; // markers without a length field
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                return null; // end of image or start of scan before any frame header
+            }
+            int segmentLength = u16(encoded, pos + 2);
+            boolean startOfFrame = marker >= 0xC0 && marker <= 0xCF
+                    && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+            if (startOfFrame) {
+                if (pos + 9 > length) {
+                    return null;
+                }
+                int height = u16(encoded, pos + 5);
+                int width = u16(encoded, pos + 7);
+                return width > 0 && height > 0 ? new int[] {width, height} : null;
+            }
+            pos += 2 + segmentLength;
+        }
+        return null;
+    }
+
+    private static int u8(ByteBuffer buffer, int index) {
+        return buffer.get(index) & 0xFF;
+    }
+
+    private static int u16(ByteBuffer buffer, int index) {
+        return (u8(buffer, index) << 8) | u8(buffer, index + 1);
+    }
+
+    private static int u32(ByteBuffer buffer, int index) {
+        return (u16(buffer, index) << 16) | u16(buffer, index + 2);
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.demo.service;
+
+import org.bytedeco.opencv.global.opencv_core;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs DNN inference on a fixed set of worker threads. Every worker loads its
+ * own {@link FaceNets} when it starts and is the only thread that ever touches
+ * them, so concurrent requests can never interleave {@code setInput} and
+ * {@code forward} on the same net.
+ * <p>
+ * Work is queued in a bounded queue; when it is full new work is rejected with
+ * a {@link RejectedExecutionException} instead of piling up.
+ */
+@Component
+public class InferenceExecutor {
+
+    private final FaceModels faceModels;
+    private final ThreadPoolExecutor executor;
+
+    @Autowired
+    public InferenceExecutor(FaceModels faceModels,
+                             @Value("${face.inference.pool-size:0}") int poolSize,
+                             @Value("${face.inference.queue-capacity:256}") int queueCapacity) {
+        this.faceModels = faceModels;
+        int workers = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+
+        // Parallelism comes from the workers; letting every forward pass fan out
+        // over all cores as well would just oversubscribe the CPU.
+        if (workers > 1) {
+            opencv_core.setNumThreads(1);
+        }
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                workers, workers,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> new InferenceThread(runnable, threadIndex.incrementAndGet()));
+        // Load every worker's models now rather than on the first request
+        executor.prestartAllCoreThreads();
+        System.out.println("Inference pool started with " + workers + " workers");
+    }
+
+    /**
+     * Queues a task for the next free worker.
+     *
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public <T> CompletableFuture<T> submit(InferenceTask<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                InferenceThread worker = (InferenceThread) Thread.currentThread();
+                result.complete(task.run(worker.nets));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Runs a task on a worker and waits for its result.
+     */
+    public <T> T execute(InferenceTask<T> task) throws IOException {
+        try {
+            return await(submit(task));
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Face recognition is busy, please retry", e);
+        }
+    }
+
+    /**
+     * Waits for an inference result, unwrapping failures into the
+     * {@link IOException}s the recognition API reports to clients.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for face recognition", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RejectedExecutionException) {
+                throw new IOException("Face recognition is busy, please retry", cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Whether a worker could start on new work right away.
+     */
+    public boolean hasIdleWorker() {
+        return executor.getActiveCount() < executor.getCorePoolSize() && executor.getQueue().isEmpty();
+    }
+
+    public int getPoolSize() {
+        return executor.getCorePoolSize();
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Work that needs exclusive use of one worker's nets.
+     */
+    @FunctionalInterface
+    public interface InferenceTask<T> {
+        T run(FaceNets nets) throws Exception;
+    }
+
+    private final class InferenceThread extends Thread {
+
+        private FaceNets nets;
+
+        InferenceThread(Runnable runnable, int index) {
+            super(runnable, "face-inference-" + index);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            nets = faceModels.load();
+            try {
+                super.run();
+            } finally {
+                nets.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects items submitted by concurrent callers and runs them through one
+ * batched inference call, then hands each caller its own result.
+ * <p>
+ * Whatever is already waiting is always batched together. While every
+ * inference worker is busy the dispatcher additionally waits up to
+ * {@code maxDelayMillis} for more items, so batches grow under load without
+ * adding latency to an idle server.
+ */
+public class MicroBatcher<I, O> {
+
+    private final String name;
+    private final InferenceExecutor inferenceExecutor;
+    private final BatchFunction<I, O> batchFunction;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Pending<I, O>> queue;
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    public MicroBatcher(String name, InferenceExecutor inferenceExecutor, BatchFunction<I, O> batchFunction,
+                        int maxBatchSize, long maxDelayMillis, int queueCapacity) {
+        this.name = name;
+        this.inferenceExecutor = inferenceExecutor;
+        this.batchFunction = batchFunction;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.dispatcher = new Thread(this::dispatchLoop, name + "-batcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Queues an item for the next batch.
+     *
+     * @throws RejectedExecutionException if too many items are already waiting
+     */
+    public CompletableFuture<O> submit(I item) {
+        Pending<I, O> pending = new Pending<>(item);
+        if (!queue.offer(pending)) {
+            throw new RejectedExecutionException(name + " batch queue is full");
+        }
+        return pending.result;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public void shutdown() {
+        running = false;
+        dispatcher.interrupt();
+    }
+
+    private void dispatchLoop() {
+        List<Pending<I, O>> batch = new ArrayList<>(maxBatchSize);
+        while (running) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, maxBatchSize - batch.size());
+
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatchSize && !inferenceExecutor.hasIdleWorker()) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    Pending<I, O> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                }
+
+                dispatch(new ArrayList<>(batch));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            } finally {
+                batch.clear();
+            }
+        }
+        // Fail whatever is left so no caller waits forever
+        List<Pending<I, O>> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        for (Pending<I, O> pending : remaining) {
+            pending.result.completeExceptionally(new RejectedExecutionException(name + " batcher stopped"));
+        }
+    }
+
+    private void dispatch(List<Pending<I, O>> batch) {
+        List<I> items = new ArrayList<>(batch.size());
+        for (Pending<I, O> pending : batch) {
+            items.add(pending.item);
+        }
+        try {
+            inferenceExecutor.submit(nets -> batchFunction.apply(nets, items))
+                    .whenComplete((results, error) -> {
+                        for (int i = 0; i < batch.size(); i++) {
+                            if (error != null) {
+                                batch.get(i).result.completeExceptionally(error);
+                            } else {
+                                batch.get(i).result.complete(results.get(i));
+                            }
+                        }
+                    });
+        } catch (RejectedExecutionException e) {
+            for (Pending<I, O> pending : batch) {
+                pending.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Batched inference over items in submission order. Must return exactly
+     * one result per item, in the same order.
+     */
+    @FunctionalInterface
+    public interface BatchFunction<I, O> {
+        List<O> apply(FaceNets nets, List<I> items) throws Exception;
+    }
+
+    private static final class Pending<I, O> {
+        private final I item;
+        private final CompletableFuture<O> result = new CompletableFuture<>();
+
+        Pending(I item) {
+            this.item = item;
+        }
+    }
+}
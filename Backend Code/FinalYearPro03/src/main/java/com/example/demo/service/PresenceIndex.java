@@ -0,0 +1,293 @@
+package com.example.demo.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Who has punched in and out today, keyed by mobile number like the
+ * attendance table. Answers repeated punches without a database round trip.
+ * <p>
+ * Entries live in an open-addressing table of primitive longs with one state
+ * byte per slot, so ten thousand students take a few hundred kilobytes and
+ * no objects. The table is loaded from the attendance table at startup and
+ * replaced by the next day's rows the first time a later date is asked for.
+ * That table is read without holding the index's lock, so the first punch
+ * after midnight does not hold up the others: until it is swapped in, the
+ * new day is answered as unknown, which sends punches to the database, and
+ * the marks made for it are replayed onto the loaded rows. Callers update
+ * the index only after the database (or the write-behind log) has accepted
+ * the punch it records.
+ */
+@Component
+// Reads the attendance tables on startup, so let Hibernate create them and the duplicates be merged first
+@DependsOn({"entityManagerFactory", "attendanceSchemaMigration"})
+public class PresenceIndex {
+
+    public enum Presence {
+        ABSENT, IN, OUT
+    }
+
+    private static final String PUNCHES_ON = "SELECT mobno, out_time FROM attendance WHERE date = ?";
+    private static final int INITIAL_CAPACITY = 1024;
+    // Slot states; EMPTY marks a free slot
+    private static final byte EMPTY = 0;
+    private static final byte ABSENT = 1;
+    private static final byte IN = 2;
+    private static final byte OUT = 3;
+    // Marks made while their day is loading, next to the states set directly
+    private static final byte MARK_IN = 4;
+    private static final byte MARK_OUT = 5;
+
+    private final JdbcTemplate jdbcTemplate;
+    private LocalDate date;
+    private Table table = new Table();
+    // Day whose table is being read, and the marks made for it meanwhile
+    private LocalDate loading;
+    private long[] pendingKeys;
+    private byte[] pendingMarks;
+    private int pendingCount;
+
+    @Autowired
+    public PresenceIndex(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void init() {
+        long start = System.currentTimeMillis();
+        rollOver(LocalDate.now());
+        synchronized (this) {
+            System.out.println("Loaded " + table.size + " attendance punches of " + date
+                    + " into the presence index in " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    public Presence get(LocalDate day, long mobno) {
+        rollOver(day);
+        synchronized (this) {
+            if (!day.equals(date)) {
+                return Presence.ABSENT;
+            }
+            int slot = table.find(mobno);
+            return slot < 0 ? Presence.ABSENT : toPresence(table.states[slot]);
+        }
+    }
+
+    /**
+     * Marks a punch-in unless one is recorded. Returns {@code false} if the
+     * user had already punched in (or out) that day.
+     */
+    public boolean markIn(LocalDate day, long mobno) {
+        rollOver(day);
+        synchronized (this) {
+            if (!day.equals(date)) {
+                addPending(day, mobno, MARK_IN);
+                return true;
+            }
+            return table.markIn(mobno);
+        }
+    }
+
+    /**
+     * Marks a punch-out after a recorded punch-in. Returns {@code false} if
+     * there is no punch-in or the user had already punched out.
+     */
+    public boolean markOut(LocalDate day, long mobno) {
+        rollOver(day);
+        synchronized (this) {
+            if (!day.equals(date)) {
+                addPending(day, mobno, MARK_OUT);
+                return true;
+            }
+            return table.markOut(mobno);
+        }
+    }
+
+    /**
+     * Records a state read from the database or undoes a mark whose punch
+     * could not be stored.
+     */
+    public void set(LocalDate day, long mobno, Presence presence) {
+        rollOver(day);
+        synchronized (this) {
+            if (!day.equals(date)) {
+                addPending(day, mobno, toState(presence));
+                return;
+            }
+            table.states[table.slotFor(mobno)] = toState(presence);
+        }
+    }
+
+    /**
+     * Moves to a later day: reads its table outside the lock, then swaps it
+     * in and replays the marks made while it was read. Only one thread loads
+     * a day; the others go on without waiting. Punches dated before the
+     * current day change nothing, as they no longer matter here.
+     */
+    private void rollOver(LocalDate day) {
+        synchronized (this) {
+            if ((date != null && !day.isAfter(date)) || (loading != null && !day.isAfter(loading))) {
+                return;
+            }
+            loading = day;
+            pendingKeys = new long[16];
+            pendingMarks = new byte[16];
+            pendingCount = 0;
+        }
+        Table loaded = new Table();
+        try {
+            jdbcTemplate.query(PUNCHES_ON, rs -> {
+                loaded.states[loaded.slotFor(rs.getLong(1))] = rs.getTime(2) != null ? OUT : IN;
+            }, Date.valueOf(day));
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                if (day.equals(loading)) {
+                    loading = null; // the next punch of the day tries again
+                }
+            }
+            throw e;
+        }
+        synchronized (this) {
+            if (!day.equals(loading)) {
+                return; // a later day started loading meanwhile
+            }
+            for (int i = 0; i < pendingCount; i++) {
+                long mobno = pendingKeys[i];
+                if (pendingMarks[i] == MARK_IN) {
+                    loaded.markIn(mobno);
+                } else if (pendingMarks[i] == MARK_OUT) {
+                    loaded.markOut(mobno);
+                } else {
+                    loaded.states[loaded.slotFor(mobno)] = pendingMarks[i];
+                }
+            }
+            date = day;
+            table = loaded;
+            loading = null;
+            pendingKeys = null;
+            pendingMarks = null;
+        }
+    }
+
+    private void addPending(LocalDate day, long mobno, byte mark) {
+        if (!day.equals(loading)) {
+            return;
+        }
+        if (pendingCount == pendingKeys.length) {
+            pendingKeys = Arrays.copyOf(pendingKeys, pendingCount * 2);
+            pendingMarks = Arrays.copyOf(pendingMarks, pendingCount * 2);
+        }
+        pendingKeys[pendingCount] = mobno;
+        pendingMarks[pendingCount++] = mark;
+    }
+
+    // Mobile numbers are close together, so spread their bits before masking
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private static Presence toPresence(byte state) {
+        return state == IN ? Presence.IN : state == OUT ? Presence.OUT : Presence.ABSENT;
+    }
+
+    private static byte toState(Presence presence) {
+        return presence == Presence.IN ? IN : presence == Presence.OUT ? OUT : ABSENT;
+    }
+
+    /**
+     * The states of one day. Not thread-safe: the index only touches its
+     * table under its lock, and a table being loaded belongs to the loading
+     * thread until it is swapped in.
+     */
+    private static final class Table {
+
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private byte[] states = new byte[INITIAL_CAPACITY];
+        private int size;
+
+        boolean markIn(long mobno) {
+            int slot = slotFor(mobno);
+            if (states[slot] != ABSENT) {
+                return false;
+            }
+            states[slot] = IN;
+            return true;
+        }
+
+        boolean markOut(long mobno) {
+            int slot = slotFor(mobno);
+            if (states[slot] != IN) {
+                return false;
+            }
+            states[slot] = OUT;
+            return true;
+        }
+
+        /**
+         * Returns the slot holding the key, or -1.
+         */
+        int find(long mobno) {
+            int mask = keys.length - 1;
+            for (int slot = hash(mobno) & mask; ; slot = (slot + 1) & mask) {
+                if (states[slot] == EMPTY) {
+                    return -1;
+                }
+                if (keys[slot] == mobno) {
+                    return slot;
+                }
+            }
+        }
+
+        /**
+         * Returns the slot holding the key, inserting it as absent if needed.
+         */
+        int slotFor(long mobno) {
+            int slot = find(mobno);
+            if (slot >= 0) {
+                return slot;
+            }
+            // Keep the table at most half full so probe runs stay short
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            slot = hash(mobno) & mask;
+            while (states[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = mobno;
+            states[slot] = ABSENT;
+            size++;
+            return slot;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            byte[] oldStates = states;
+            keys = new long[oldKeys.length * 2];
+            states = new byte[oldStates.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldStates[i] != EMPTY) {
+                    int slot = hash(oldKeys[i]) & mask;
+                    while (states[slot] != EMPTY) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    states[slot] = oldStates[i];
+                }
+            }
+            Arrays.fill(oldStates, EMPTY);
+        }
+    }
+}
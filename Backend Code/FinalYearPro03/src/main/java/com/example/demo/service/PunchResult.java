@@ -0,0 +1,15 @@
+package com.example.demo.service;
+
+/**
+ * Outcome of an attendance punch, derived from the rows the punch statement
+ * changed.
+ */
+public enum PunchResult {
+    PUNCHED_IN,
+    ALREADY_PUNCHED_IN,
+    PUNCHED_OUT,
+    ALREADY_PUNCHED_OUT,
+    // Punch-out without a punch-in today
+    NOT_PUNCHED_IN,
+    UNKNOWN_USER
+}
@@ -0,0 +1,184 @@
+package com.example.demo.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides whether a recognize request may start, before its image is
+ * decoded. Each access point (the {@code routerIP} parameter) and each
+ * device (the {@code X-Device-Id} header) draws from its own token bucket,
+ * so one noisy classroom cannot use up the capacity of the others, and at most
+ * {@code face.admission.max-in-flight} requests are admitted at a time.
+ * Refused requests are told how long to wait instead of joining the queue,
+ * and get back the tokens they took before hitting the limit that refused
+ * them, so a request refused by one limit costs nothing under the others.
+ * Devices are not told apart by address, since a whole classroom often
+ * reaches the server through one NAT; requests without a device id are
+ * only held to the other limits, and a client rate of 0 turns the device
+ * limit off.
+ */
+@Component
+public class RecognitionAdmission {
+
+    // How often admissions sweep out buckets that have been idle long enough to be full again
+    private static final int SWEEP_INTERVAL = 1024;
+
+    private final Semaphore inFlight;
+    private final long inFlightRetryAfterSeconds;
+    private final BucketSet routers;
+    // Null when the device limit is off
+    private final BucketSet clients;
+    private final AtomicInteger admissions = new AtomicInteger();
+    private final Counter rejectedInFlight;
+    private final Counter rejectedRouter;
+    private final Counter rejectedClient;
+
+    @Autowired
+    public RecognitionAdmission(MeterRegistry meterRegistry,
+                                @Value("${face.admission.max-in-flight:64}") int maxInFlight,
+                                @Value("${face.admission.retry-after-seconds:1}") long inFlightRetryAfterSeconds,
+                                @Value("${face.admission.router.rate-per-second:20}") double routerRate,
+                                @Value("${face.admission.router.burst:40}") double routerBurst,
+                                @Value("${face.admission.client.rate-per-second:1}") double clientRate,
+                                @Value("${face.admission.client.burst:5}") double clientBurst) {
+        this.inFlight = new Semaphore(maxInFlight);
+        this.inFlightRetryAfterSeconds = inFlightRetryAfterSeconds;
+        this.routers = new BucketSet(routerRate, routerBurst);
+        this.clients = clientRate > 0 ? new BucketSet(clientRate, clientBurst) : null;
+        this.rejectedInFlight = rejectedCounter("in_flight", meterRegistry);
+        this.rejectedRouter = rejectedCounter("router", meterRegistry);
+        this.rejectedClient = rejectedCounter("client", meterRegistry);
+    }
+
+    /**
+     * Tries to admit a request. Returns 0 if it was admitted, in which case
+     * {@link #release} must be called once it is done, or else the number
+     * of seconds the client should wait before retrying. {@code client} is
+     * the id of the sending device, or {@code null} if it sent none.
+     */
+    public long tryAdmit(String routerIP, String client) {
+        long now = System.nanoTime();
+        BucketSet devices = client != null && !client.isBlank() ? clients : null;
+        if (admissions.incrementAndGet() % SWEEP_INTERVAL == 0) {
+            routers.sweep(now);
+            if (clients != null) {
+                clients.sweep(now);
+            }
+        }
+        long wait = routers.take(routerIP, now);
+        if (wait > 0) {
+            rejectedRouter.increment();
+            return wait;
+        }
+        wait = devices != null ? devices.take(client, now) : 0;
+        if (wait > 0) {
+            routers.refund(routerIP);
+            rejectedClient.increment();
+            return wait;
+        }
+        if (!inFlight.tryAcquire()) {
+            routers.refund(routerIP);
+            if (devices != null) {
+                devices.refund(client);
+            }
+            rejectedInFlight.increment();
+            return inFlightRetryAfterSeconds;
+        }
+        return 0;
+    }
+
+    public void release() {
+        inFlight.release();
+    }
+
+    private static Counter rejectedCounter(String reason, MeterRegistry meterRegistry) {
+        return Counter.builder("face.admission.rejected")
+                .description("Recognize requests refused before decoding, by the limit they hit")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Token buckets with the same rate and burst, one per key.
+     */
+    static final class BucketSet {
+
+        private final double tokensPerNano;
+        private final double burst;
+        // A bucket idle this long is full, so dropping it changes nothing
+        private final long refillNanos;
+        private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+        BucketSet(double ratePerSecond, double burst) {
+            this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.burst = Math.max(1, burst);
+            this.refillNanos = (long) Math.ceil(this.burst / tokensPerNano);
+        }
+
+        /**
+         * Takes a token for the key. Returns 0 on success, or the seconds
+         * until a token is available.
+         */
+        long take(String key, long now) {
+            String bucketKey = key == null ? "" : key;
+            return buckets.computeIfAbsent(bucketKey, k -> new TokenBucket(burst, now)).take(now, tokensPerNano, burst);
+        }
+
+        /**
+         * Gives back a token taken for a request that was refused later on.
+         */
+        void refund(String key) {
+            TokenBucket bucket = buckets.get(key == null ? "" : key);
+            if (bucket != null) {
+                bucket.refund(burst);
+            }
+        }
+
+        void sweep(long now) {
+            buckets.values().removeIf(bucket -> bucket.idleSince(now) >= refillNanos);
+        }
+
+        int size() {
+            return buckets.size();
+        }
+    }
+
+    private static final class TokenBucket {
+
+        private double tokens;
+        private long updatedAt;
+
+        TokenBucket(double tokens, long now) {
+            this.tokens = tokens;
+            this.updatedAt = now;
+        }
+
+        synchronized long take(long now, double tokensPerNano, double burst) {
+            tokens = Math.min(burst, tokens + (now - updatedAt) * tokensPerNano);
+            updatedAt = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            double waitNanos = (1 - tokens) / tokensPerNano;
+            return Math.max(1, (long) Math.ceil(waitNanos / TimeUnit.SECONDS.toNanos(1)));
+        }
+
+        synchronized void refund(double burst) {
+            tokens = Math.min(burst, tokens + 1);
+        }
+
+        synchronized long idleSince(long now) {
+            return now - updatedAt;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.demo.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recent recognize results by the exact bytes of the upload. Phones resend
+ * the same capture when the network drops, and a resend within
+ * {@code face.recognition.cache.ttl-ms} is answered from here without
+ * decoding the image or running the networks again. Only recognized faces
+ * are kept; an upload that failed is processed again.
+ */
+@Component
+public class RecognitionCache {
+
+    private final RecognitionMetrics metrics;
+    private final long ttlNanos;
+    private final int maxEntries;
+    // In access order, so the least recently used entry is dropped first
+    private final LinkedHashMap<String, Entry> entries;
+
+    @Autowired
+    public RecognitionCache(RecognitionMetrics metrics,
+                            @Value("${face.recognition.cache.ttl-ms:60000}") long ttlMillis,
+                            @Value("${face.recognition.cache.max-entries:10000}") int maxEntries) {
+        this.metrics = metrics;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > RecognitionCache.this.maxEntries;
+            }
+        };
+        metrics.gauge("face.recognition.cache.size", "Recognize results kept for resent uploads", this,
+                RecognitionCache::size);
+    }
+
+    /**
+     * Builds the cache key of a request: the SHA-256 of the upload together
+     * with the direction and the scope it is searched in.
+     */
+    public String key(byte[] image, String direction, String college, String dept) {
+        return key(ByteBuffer.wrap(image), direction, college, dept);
+    }
+
+    /**
+     * Builds the cache key of an upload held in a buffer, such as one read
+     * into native memory by {@link ImageIngestor#read}. The buffer is hashed
+     * from its position to its limit and consumed.
+     */
+    public String key(ByteBuffer image, String direction, String college, String dept) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(image);
+        return HexFormat.of().formatHex(digest.digest()) + '|' + direction + '|'
+                + (college != null ? college : "") + '|' + (dept != null ? dept : "");
+    }
+
+    /**
+     * Returns the result stored under the key, or {@code null} if there is
+     * none or it has expired.
+     */
+    public Entry get(String key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && System.nanoTime() - entry.storedAt >= ttlNanos) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+        if (entry != null) {
+            metrics.cacheHit();
+        } else {
+            metrics.cacheMiss();
+        }
+        return entry;
+    }
+
+    public void put(String key, String username, PunchResult punch) {
+        if (ttlNanos <= 0 || maxEntries <= 0) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(key, new Entry(username, punch, System.nanoTime()));
+        }
+    }
+
+    private int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * The recognized user and how their punch went.
+     */
+    public static final class Entry {
+        private final String username;
+        private final PunchResult punch;
+        private final long storedAt;
+
+        Entry(String username, PunchResult punch, long storedAt) {
+            this.username = username;
+            this.punch = punch;
+            this.storedAt = storedAt;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public PunchResult getPunch() {
+            return punch;
+        }
+    }
+}
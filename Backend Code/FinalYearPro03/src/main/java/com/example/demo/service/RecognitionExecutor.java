@@ -0,0 +1,114 @@
+package com.example.demo.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Threads that carry recognize requests through decoding, the inference
+ * batches and the attendance write, so servlet threads are handed back as
+ * soon as a request is queued. The threads mostly wait on the inference
+ * workers, so there can be more of them than cores; the bounded queue keeps
+ * a backlog from growing without limit.
+ */
+@Component
+public class RecognitionExecutor {
+
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMillis;
+
+    @Autowired
+    public RecognitionExecutor(RecognitionMetrics metrics,
+                               @Value("${face.recognition.threads:32}") int threads,
+                               @Value("${face.recognition.queue-capacity:256}") int queueCapacity,
+                               @Value("${face.recognition.timeout-ms:15000}") long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                threads, threads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "recognition-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        metrics.gauge("face.recognition.queue.depth", "Recognize requests waiting for a thread", executor,
+                pool -> pool.getQueue().size());
+    }
+
+    /**
+     * Runs the task on a recognition thread. If the task has not committed
+     * its {@link Deadline} within {@code face.recognition.timeout-ms}, the
+     * returned future completes with {@code onTimeout} and the deadline
+     * expires, so the task can stop before it records anything the client
+     * was told to retry. Once the task has committed, the future waits for
+     * its result instead.
+     *
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public <T> CompletableFuture<T> submit(Function<Deadline, T> task, T onTimeout) {
+        Deadline deadline = new Deadline();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture.supplyAsync(() -> task.apply(deadline), executor).whenComplete((value, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(value);
+            }
+        });
+        CompletableFuture.runAsync(() -> {
+            if (deadline.expire()) {
+                result.complete(onTimeout);
+            }
+        }, CompletableFuture.delayedExecutor(timeoutMillis, TimeUnit.MILLISECONDS));
+        return result;
+    }
+
+    /**
+     * Decides between a task and its timeout: whichever of {@link #commit}
+     * and the timeout comes first wins.
+     */
+    public static final class Deadline {
+        private static final int OPEN = 0;
+        private static final int COMMITTED = 1;
+        private static final int EXPIRED = 2;
+
+        private final AtomicInteger state = new AtomicInteger(OPEN);
+
+        /**
+         * Returns whether the client has already been answered with the
+         * timeout response, in which case the task should stop.
+         */
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+        /**
+         * Claims the request before a side effect such as a punch. Returns
+         * {@code false} if it timed out first; otherwise the timeout can no
+         * longer fire and the client gets the task's result.
+         */
+        public boolean commit() {
+            return state.compareAndSet(OPEN, COMMITTED) || state.get() == COMMITTED;
+        }
+
+        private boolean expire() {
+            return state.compareAndSet(OPEN, EXPIRED);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
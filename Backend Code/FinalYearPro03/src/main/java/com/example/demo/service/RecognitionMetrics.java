@@ -0,0 +1,163 @@
+package com.example.demo.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Meters of the recognition pipeline: a timer per stage, with histograms so
+ * Prometheus can aggregate percentiles across instances, and counters of how
+ * recognitions and punches end. Whole requests are timed by Spring as
+ * {@code http.server.requests}.
+ */
+@Component
+public class RecognitionMetrics {
+
+    public enum Stage {
+        // Reading and decoding the uploaded image
+        DECODE,
+        // DNN face detection, including the wait for a batch
+        DETECT,
+        // Cascade classifier, only run when the DNN finds no confident face
+        CASCADE,
+        // Embedding the face crop, including the wait for a batch
+        EMBED,
+        // Nearest-neighbour search of the gallery
+        SEARCH,
+        // Recording the punch, including the user lookup
+        PUNCH
+    }
+
+    public enum Outcome {
+        RECOGNIZED, NO_FACE, BELOW_THRESHOLD
+    }
+
+    private final MeterRegistry registry;
+    private final Map<Stage, Timer> stages = new EnumMap<>(Stage.class);
+    private final Map<Outcome, Counter> outcomes = new EnumMap<>(Outcome.class);
+    private final Map<PunchResult, Counter> punchIns = new EnumMap<>(PunchResult.class);
+    private final Map<PunchResult, Counter> punchOuts = new EnumMap<>(PunchResult.class);
+    private final Counter cascadeFallbacks;
+    private final Map<RecognitionTrace.Detector, Counter> detectors = new EnumMap<>(RecognitionTrace.Detector.class);
+    private final Counter cacheHits;
+    private final Counter cacheMisses;
+
+    @Autowired
+    public RecognitionMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, Timer.builder("face.pipeline.stage")
+                    .description("Time spent in one stage of detecting, recognizing and punching a face")
+                    .tag("stage", tagValue(stage))
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+        for (Outcome outcome : Outcome.values()) {
+            outcomes.put(outcome, Counter.builder("face.recognition.outcome")
+                    .description("Recognition requests by how they ended")
+                    .tag("outcome", tagValue(outcome))
+                    .register(registry));
+        }
+        for (PunchResult result : PunchResult.values()) {
+            punchIns.put(result, punchCounter("in", result));
+            punchOuts.put(result, punchCounter("out", result));
+        }
+        cascadeFallbacks = Counter.builder("face.detection.cascade.fallbacks")
+                .description("Images in which the DNN found no face and the cascade classifier was tried")
+                .register(registry);
+        for (RecognitionTrace.Detector detector : RecognitionTrace.Detector.values()) {
+            if (detector != RecognitionTrace.Detector.CACHE) {
+                detectors.put(detector, Counter.builder("face.detection.detector")
+                        .description("Faces found, by the detector that found them")
+                        .tag("detector", tagValue(detector))
+                        .register(registry));
+            }
+        }
+        cacheHits = cacheCounter("hit");
+        cacheMisses = cacheCounter("miss");
+    }
+
+    /**
+     * Records the time since {@code startNanos}, a {@link System#nanoTime()}
+     * reading, against the stage.
+     */
+    public void record(Stage stage, long startNanos) {
+        record(stage, startNanos, null);
+    }
+
+    /**
+     * Records the stage time like {@link #record(Stage, long)} and adds it
+     * to the request's trace, if there is one.
+     */
+    public void record(Stage stage, long startNanos, RecognitionTrace trace) {
+        long elapsed = System.nanoTime() - startNanos;
+        stages.get(stage).record(elapsed, TimeUnit.NANOSECONDS);
+        if (trace != null) {
+            trace.add(stage, elapsed);
+        }
+    }
+
+    public void outcome(Outcome outcome) {
+        outcomes.get(outcome).increment();
+    }
+
+    public void cascadeFallback() {
+        cascadeFallbacks.increment();
+    }
+
+    public void detected(RecognitionTrace.Detector detector) {
+        detectors.get(detector).increment();
+    }
+
+    public void cacheHit() {
+        cacheHits.increment();
+    }
+
+    public void cacheMiss() {
+        cacheMisses.increment();
+    }
+
+    public void punchIn(PunchResult result) {
+        punchIns.get(result).increment();
+    }
+
+    public void punchOut(PunchResult result) {
+        punchOuts.get(result).increment();
+    }
+
+    public <T> void gauge(String name, String description, T source, ToDoubleFunction<T> value, String... tags) {
+        Gauge.builder(name, source, value)
+                .description(description)
+                .tags(tags)
+                .register(registry);
+    }
+
+    private Counter punchCounter(String direction, PunchResult result) {
+        // Already-marked punches show up as result=already_punched_in or already_punched_out
+        return Counter.builder("attendance.punch")
+                .description("Attendance punches by direction and result")
+                .tag("direction", direction)
+                .tag("result", tagValue(result))
+                .register(registry);
+    }
+
+    private Counter cacheCounter(String result) {
+        return Counter.builder("face.recognition.cache")
+                .description("Lookups of resent uploads in the recognize result cache")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private static String tagValue(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.demo.service;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * What one request went through: the detector that found the face and the
+ * time spent in each stage, reported back to the client in the
+ * {@code X-Face-Detector} and {@code Server-Timing} headers.
+ */
+public final class RecognitionTrace {
+
+    public enum Detector {
+        // The DNN found the face with full confidence
+        DNN,
+        // The cascade confirmed a face in the region of a low-confidence DNN detection
+        CASCADE_ROI,
+        // The cascade found a face where the DNN found nothing
+        CASCADE,
+        // The answer came from the recognize result cache
+        CACHE
+    }
+
+    private final Map<RecognitionMetrics.Stage, Long> stageNanos = new EnumMap<>(RecognitionMetrics.Stage.class);
+    private Detector detector;
+
+    // Requests are carried by one thread at a time, so nothing here is synchronized
+    void add(RecognitionMetrics.Stage stage, long nanos) {
+        stageNanos.merge(stage, nanos, Long::sum);
+    }
+
+    void setDetector(Detector detector) {
+        this.detector = detector;
+    }
+
+    public void markCached() {
+        this.detector = Detector.CACHE;
+    }
+
+    public String getDetector() {
+        return detector != null ? detector.name().toLowerCase(Locale.ROOT) : null;
+    }
+
+    public boolean isEmpty() {
+        return detector == null && stageNanos.isEmpty();
+    }
+
+    /**
+     * Formats the stage times as a {@code Server-Timing} header value, for
+     * example {@code decode;dur=3.1, detect;dur=42.7}.
+     */
+    public String toServerTiming() {
+        StringBuilder header = new StringBuilder();
+        stageNanos.forEach((stage, nanos) -> {
+            if (header.length() > 0) {
+                header.append(", ");
+            }
+            header.append(stage.name().toLowerCase(Locale.ROOT))
+                    .append(";dur=")
+                    .append(String.format(Locale.ROOT, "%.1f", nanos / 1_000_000.0));
+        });
+        return header.toString();
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.demo.service;
+
+import com.example.demo.converter.FloatArrayConverter;
+import com.example.demo.dtos.StoredEmbedding;
+import com.example.demo.dtos.StoredFace;
+import com.example.demo.model.ReembeddingCheckpoint;
+import com.example.demo.repository.FaceDataRepository;
+import com.example.demo.repository.ReembeddingCheckpointRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Re-embeds every stored face with the model configured as
+ * {@code face.embedding.target-version}. The job pages through users by id,
+ * recomputes embeddings from the stored face crops in parallel and writes
+ * them to the pending columns in batches, together with a checkpoint so a
+ * restart resumes where it stopped. Recognition keeps using the serving
+ * model until every user has been processed; then the pending embeddings
+ * are promoted and the galleries swapped in one step.
+ */
+@Service
+public class ReembeddingService {
+
+    private static final String UPDATE_PENDING = "UPDATE face_data SET pending_embedding = ?, "
+            + "pending_model_version = ? WHERE id = ?";
+
+    private final FaceRecognitionService faceRecognitionService;
+    private final FaceModels faceModels;
+    private final FaceDataRepository faceDataRepository;
+    private final ReembeddingCheckpointRepository checkpointRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final FloatArrayConverter embeddingConverter = new FloatArrayConverter();
+    private volatile boolean running = true;
+    private Thread job;
+
+    @Value("${face.reembedding.page-size:200}")
+    private int pageSize;
+    @Value("${face.reembedding.parallelism:0}")
+    private int parallelism;
+
+    @Autowired
+    public ReembeddingService(FaceRecognitionService faceRecognitionService, FaceModels faceModels,
+                              FaceDataRepository faceDataRepository,
+                              ReembeddingCheckpointRepository checkpointRepository,
+                              JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        this.faceRecognitionService = faceRecognitionService;
+        this.faceModels = faceModels;
+        this.faceDataRepository = faceDataRepository;
+        this.checkpointRepository = checkpointRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @PostConstruct
+    public void init() {
+        String target = faceModels.getTargetVersion();
+        if (target == null) {
+            return;
+        }
+        ReembeddingCheckpoint checkpoint = checkpointRepository.findById(target).orElse(null);
+        if (checkpoint != null && checkpoint.getCompletedAt() != null) {
+            System.out.println("Re-embedding with model " + target + " finished at " + checkpoint.getCompletedAt()
+                    + "; set face.embedding.model-version=" + target + " and clear the target version");
+            // Recognition normally started on the target model already; switch only if it did not
+            if (!target.equals(faceRecognitionService.getModelVersion())) {
+                faceRecognitionService.switchModelVersion(target);
+            }
+            return;
+        }
+        job = new Thread(() -> run(target), "reembedding-job");
+        job.setDaemon(true);
+        job.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (job != null) {
+            job.interrupt();
+        }
+    }
+
+    private void run(String target) {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "reembedding-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            faceRecognitionService.beginMigration(target);
+            ReembeddingCheckpoint checkpoint = checkpointRepository.findById(target)
+                    .orElseGet(() -> new ReembeddingCheckpoint(target, LocalDateTime.now()));
+            System.out.println("Re-embedding stored faces with model " + target + " from id "
+                    + checkpoint.getLastFaceDataId());
+
+            while (running) {
+                List<StoredFace> page = faceDataRepository.findStoredFacesAfter(
+                        checkpoint.getLastFaceDataId(), PageRequest.of(0, pageSize));
+                if (page.isEmpty()) {
+                    break;
+                }
+                processPage(page, target, checkpoint, pool);
+            }
+            if (!running) {
+                return;
+            }
+
+            checkpoint.setCompletedAt(LocalDateTime.now());
+            faceRecognitionService.completeMigration(() -> transactionTemplate.executeWithoutResult(status -> {
+                faceDataRepository.promotePendingEmbeddings(target);
+                checkpointRepository.save(checkpoint);
+            }));
+            System.out.println("Re-embedding with model " + target + " complete: " + checkpoint.getProcessed()
+                    + " faces re-embedded, " + checkpoint.getFailed() + " failed");
+            if (checkpoint.getFailed() > 0) {
+                System.err.println("Warning: users whose faces failed to re-embed must register again");
+            }
+        } catch (Exception e) {
+            if (running) {
+                System.err.println("Re-embedding job stopped: " + e.getMessage());
+                e.printStackTrace();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Re-embeds one page of users in parallel and stores the results and the
+     * advanced checkpoint in one transaction.
+     */
+    private void processPage(List<StoredFace> page, String target, ReembeddingCheckpoint checkpoint,
+                             ExecutorService pool) throws InterruptedException {
+        List<StoredFace> todo = new ArrayList<>();
+        List<Future<float[]>> results = new ArrayList<>();
+        for (StoredFace face : page) {
+            // Users enrolled since the migration started already have one
+            if (target.equals(face.getPendingModelVersion()) || face.getFaceImage() == null) {
+                continue;
+            }
+            todo.add(face);
+            results.add(pool.submit(() -> faceRecognitionService.embedStoredFace(face.getFaceImage(), target)));
+        }
+
+        List<Object[]> updates = new ArrayList<>();
+        List<StoredEmbedding> migrated = new ArrayList<>();
+        int failed = 0;
+        for (int i = 0; i < todo.size(); i++) {
+            StoredFace face = todo.get(i);
+            try {
+                float[] embedding = results.get(i).get();
+                updates.add(new Object[] {embeddingConverter.convertToDatabaseColumn(embedding), target,
+                        face.getId()});
+                migrated.add(new StoredEmbedding(face.getUsername(), face.getCollege(), face.getDept(),
+                        null, null, embedding, target));
+            } catch (ExecutionException e) {
+                failed++;
+                System.err.println("Could not re-embed " + face.getUsername() + ": " + e.getCause().getMessage());
+            }
+        }
+
+        checkpoint.setLastFaceDataId(page.get(page.size() - 1).getId());
+        checkpoint.setProcessed(checkpoint.getProcessed() + migrated.size());
+        checkpoint.setFailed(checkpoint.getFailed() + failed);
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!updates.isEmpty()) {
+                jdbcTemplate.batchUpdate(UPDATE_PENDING, updates);
+            }
+            checkpointRepository.save(checkpoint);
+        });
+        faceRecognitionService.addMigratedEmbeddings(migrated);
+    }
+}
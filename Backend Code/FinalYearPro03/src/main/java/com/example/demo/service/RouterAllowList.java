@@ -0,0 +1,270 @@
+package com.example.demo.service;
+
+import com.example.demo.gallery.PartitionedGallery;
+import com.example.demo.model.AllowedRouter;
+import com.example.demo.repository.AllowedRouterRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Wi-Fi networks attendance may be punched from, per college. Entries
+ * are stored in the database and held in memory as one binary prefix trie
+ * per college, so checking a request walks at most 32 (IPv4) or 128 (IPv6)
+ * nodes and never touches the database. Colleges are matched like the
+ * gallery partitions ({@link PartitionedGallery#normalize}), so a change of
+ * case or spacing finds the same list. Colleges without entries accept any
+ * network, unless {@code face.allow-list.require-entries} is set, in which
+ * case they accept none.
+ */
+@Service
+public class RouterAllowList {
+
+    private final AllowedRouterRepository allowedRouterRepository;
+    private final boolean requireEntries;
+    // Tries by college, plus one over every college for requests that name none
+    private volatile Map<String, PrefixTrie> tries = Map.of();
+    private volatile PrefixTrie anyCollege = new PrefixTrie();
+
+    @Autowired
+    public RouterAllowList(AllowedRouterRepository allowedRouterRepository,
+                           @Value("${face.allow-list.require-entries:false}") boolean requireEntries) {
+        this.allowedRouterRepository = allowedRouterRepository;
+        this.requireEntries = requireEntries;
+    }
+
+    @PostConstruct
+    public synchronized void reload() {
+        Map<String, PrefixTrie> loaded = new HashMap<>();
+        PrefixTrie all = new PrefixTrie();
+        List<AllowedRouter> routers = allowedRouterRepository.findAll();
+        for (AllowedRouter router : routers) {
+            int minSignal = router.getMinSignalStrength() != null ? router.getMinSignalStrength() : Integer.MIN_VALUE;
+            try {
+                Prefix prefix = Prefix.parse(router.getCidr());
+                loaded.computeIfAbsent(PartitionedGallery.normalize(router.getCollege()), college -> new PrefixTrie())
+                        .add(prefix, minSignal);
+                all.add(prefix, minSignal);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Ignoring allowed router " + router.getId() + ": " + e.getMessage());
+            }
+        }
+        tries = loaded;
+        anyCollege = all;
+        System.out.println("Loaded " + routers.size() + " allowed routers of " + loaded.size() + " colleges");
+    }
+
+    public List<AllowedRouter> list(String college) {
+        if (college == null) {
+            return allowedRouterRepository.findAll();
+        }
+        String normalized = PartitionedGallery.normalize(college);
+        List<AllowedRouter> routers = new ArrayList<>();
+        for (AllowedRouter router : allowedRouterRepository.findAll()) {
+            if (PartitionedGallery.normalize(router.getCollege()).equals(normalized)) {
+                routers.add(router);
+            }
+        }
+        return routers;
+    }
+
+    public AllowedRouter add(AllowedRouter router) {
+        if (router.getCollege() == null || router.getCollege().isBlank()) {
+            throw new IllegalArgumentException("College is required");
+        }
+        Prefix.parse(router.getCidr());
+        router.setId(null);
+        router.setCollege(PartitionedGallery.normalize(router.getCollege()));
+        AllowedRouter saved = allowedRouterRepository.save(router);
+        reload();
+        return saved;
+    }
+
+    public void remove(long id) {
+        allowedRouterRepository.deleteById(id);
+        reload();
+    }
+
+    /**
+     * Checks a punch request's network. Returns {@code null} if it may go
+     * ahead, or the reason it is refused.
+     */
+    public String check(String college, String routerIP, String wifiSignalStrength) {
+        boolean scoped = college != null && !college.isBlank();
+        PrefixTrie trie = scoped ? tries.get(PartitionedGallery.normalize(college)) : anyCollege;
+        if (trie == null || trie.isEmpty()) {
+            if (requireEntries) {
+                return scoped ? "No allowed networks are set up for college " + college.trim()
+                        : "A college is required to punch attendance";
+            }
+            return null;
+        }
+        byte[] address = parseAddress(routerIP);
+        if (address == null) {
+            return "Invalid router IP: " + routerIP;
+        }
+        Integer minSignal = trie.match(address);
+        if (minSignal == null) {
+            return "Router " + routerIP + " is not an allowed network";
+        }
+        if (minSignal != Integer.MIN_VALUE) {
+            Integer signal = parseSignal(wifiSignalStrength);
+            if (signal == null || signal < minSignal) {
+                return "Wi-Fi signal too weak: " + wifiSignalStrength + " (at least " + minSignal + " dBm needed)";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the leading signed integer of a strength like "-67" or "-67 dBm".
+     */
+    static Integer parseSignal(String value) {
+        if (value == null) {
+            return null;
+        }
+        String trimmed = value.trim();
+        int end = trimmed.startsWith("-") || trimmed.startsWith("+") ? 1 : 0;
+        int digitsStart = end;
+        while (end < trimmed.length() && Character.isDigit(trimmed.charAt(end)) && end - digitsStart < 9) {
+            end++;
+        }
+        return end > digitsStart ? Integer.valueOf(trimmed.substring(0, end)) : null;
+    }
+
+    /**
+     * Parses an IP literal without ever falling back to a DNS lookup.
+     * Returns {@code null} if the value is not an address.
+     */
+    static byte[] parseAddress(String value) {
+        if (value == null) {
+            return null;
+        }
+        String trimmed = value.trim();
+        if (trimmed.indexOf(':') >= 0) {
+            // Only IPv6 literals contain ':', and InetAddress parses those without a lookup
+            try {
+                return InetAddress.getByName(trimmed).getAddress();
+            } catch (UnknownHostException | SecurityException e) {
+                return null;
+            }
+        }
+        String[] parts = trimmed.split("\\.", -1);
+        if (parts.length != 4) {
+            return null;
+        }
+        byte[] address = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            if (parts[i].isEmpty() || parts[i].length() > 3) {
+                return null;
+            }
+            int octet = 0;
+            for (char c : parts[i].toCharArray()) {
+                if (c < '0' || c > '9') {
+                    return null;
+                }
+                octet = octet * 10 + (c - '0');
+            }
+            if (octet > 255) {
+                return null;
+            }
+            address[i] = (byte) octet;
+        }
+        return address;
+    }
+
+    /**
+     * An address and the number of leading bits that must match.
+     */
+    static final class Prefix {
+        private final byte[] address;
+        private final int length;
+
+        private Prefix(byte[] address, int length) {
+            this.address = address;
+            this.length = length;
+        }
+
+        static Prefix parse(String cidr) {
+            if (cidr == null) {
+                throw new IllegalArgumentException("CIDR is required");
+            }
+            int slash = cidr.indexOf('/');
+            byte[] address = parseAddress(slash >= 0 ? cidr.substring(0, slash) : cidr);
+            if (address == null) {
+                throw new IllegalArgumentException("Invalid address in " + cidr);
+            }
+            int length = address.length * 8;
+            if (slash >= 0) {
+                try {
+                    length = Integer.parseInt(cidr.substring(slash + 1).trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid prefix length in " + cidr);
+                }
+                if (length < 0 || length > address.length * 8) {
+                    throw new IllegalArgumentException("Invalid prefix length in " + cidr);
+                }
+            }
+            return new Prefix(address, length);
+        }
+    }
+
+    /**
+     * Binary trie of address prefixes, one root per address family. A node
+     * that ends a prefix holds that prefix's minimum signal; a lookup returns
+     * the value of the longest prefix that matches.
+     */
+    static final class PrefixTrie {
+        private final Node ipv4 = new Node();
+        private final Node ipv6 = new Node();
+        private int size;
+
+        void add(Prefix prefix, int minSignal) {
+            Node node = prefix.address.length == 4 ? ipv4 : ipv6;
+            for (int bit = 0; bit < prefix.length; bit++) {
+                if (bitAt(prefix.address, bit) == 0) {
+                    node = node.zero != null ? node.zero : (node.zero = new Node());
+                } else {
+                    node = node.one != null ? node.one : (node.one = new Node());
+                }
+            }
+            // The same network listed twice keeps the more lenient signal limit
+            node.minSignal = node.minSignal != null ? Math.min(node.minSignal, minSignal) : minSignal;
+            size++;
+        }
+
+        Integer match(byte[] address) {
+            Node node = address.length == 4 ? ipv4 : ipv6;
+            Integer best = node.minSignal;
+            for (int bit = 0; bit < address.length * 8 && node != null; bit++) {
+                node = bitAt(address, bit) == 0 ? node.zero : node.one;
+                if (node != null && node.minSignal != null) {
+                    best = node.minSignal;
+                }
+            }
+            return best;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        private static int bitAt(byte[] address, int bit) {
+            return (address[bit >> 3] >> (7 - (bit & 7))) & 1;
+        }
+
+        private static final class Node {
+            private Node zero;
+            private Node one;
+            private Integer minSignal;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.demo.controller;
+
+import com.example.demo.model.Attendance;
+import com.example.demo.service.AttendanceService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AttendanceControllerTest {
+
+    private static final LocalDate DAY = LocalDate.of(2026, 3, 2);
+
+    private final AttendanceService service = mock(AttendanceService.class);
+    private final AttendanceController controller = new AttendanceController();
+
+    @BeforeEach
+    void wire() {
+        ReflectionTestUtils.setField(controller, "attendanceService", service);
+    }
+
+    @Test
+    void listsTheWholeDayWithoutACursorOrLimit() {
+        when(service.getAttendanceByDate(DAY)).thenReturn(rows(1, 250));
+
+        ResponseEntity<List<Attendance>> response = controller.getAttendanceRecords("2026-03-02", "All", null, null,
+                "asc");
+
+        assertEquals(250, response.getBody().size());
+        assertNull(response.getHeaders().getFirst("X-Next-Cursor"));
+        verify(service, never()).getAttendancePage(any(), any(), any(), anyBoolean(), anyInt());
+    }
+
+    @Test
+    void pointsAFullPageAtTheNextOne() {
+        when(service.getAttendancePage(DAY, "cs", 20L, false, 3)).thenReturn(rows(21, 3));
+
+        ResponseEntity<List<Attendance>> response = controller.getAttendanceRecords("2026-03-02", "cs", 20L, 3,
+                "asc");
+
+        assertEquals("23", response.getHeaders().getFirst("X-Next-Cursor"));
+    }
+
+    @Test
+    void endsAfterAShortPage() {
+        when(service.getAttendancePage(DAY, null, 20L, true, 100)).thenReturn(rows(19, 2));
+
+        ResponseEntity<List<Attendance>> response = controller.getAttendanceRecords("2026-03-02", null, 20L, null,
+                "desc");
+
+        assertEquals(2, response.getBody().size());
+        assertNull(response.getHeaders().getFirst("X-Next-Cursor"));
+    }
+
+    @Test
+    void capsThePageSize() {
+        when(service.getAttendancePage(DAY, null, null, false, 1000)).thenReturn(List.of());
+
+        controller.getAttendanceRecords("2026-03-02", null, null, 50_000, "asc");
+
+        verify(service).getAttendancePage(DAY, null, null, false, 1000);
+    }
+
+    private static List<Attendance> rows(long firstId, int count) {
+        List<Attendance> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Attendance row = new Attendance();
+            row.setId(firstId + i);
+            rows.add(row);
+        }
+        return rows;
+    }
+}
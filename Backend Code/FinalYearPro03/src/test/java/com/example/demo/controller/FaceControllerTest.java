@@ -0,0 +1,69 @@
+package com.example.demo.controller;
+
+import com.example.demo.dtos.RegisteredUserSummary;
+import com.example.demo.repository.FaceDataRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class FaceControllerTest {
+
+    private final FaceDataRepository repository = mock(FaceDataRepository.class);
+    private final FaceController controller = new FaceController();
+
+    @BeforeEach
+    void wire() {
+        ReflectionTestUtils.setField(controller, "faceDataRepository", repository);
+    }
+
+    @Test
+    void listsEveryUserWithoutAfterIdOrLimit() {
+        when(repository.findSummaries(0, null, null, Pageable.unpaged())).thenReturn(users(1, 250));
+
+        ResponseEntity<List<RegisteredUserSummary>> response = controller.getRegisteredUsers(null, null, null, null);
+
+        assertEquals(250, response.getBody().size());
+        assertNull(response.getHeaders().getFirst("X-Next-After-Id"));
+    }
+
+    @Test
+    void pointsAFullPageAtTheNextOne() {
+        when(repository.findSummaries(40, "college", "cs", PageRequest.of(0, 100))).thenReturn(users(41, 100));
+
+        ResponseEntity<List<RegisteredUserSummary>> response = controller.getRegisteredUsers(40L, null, "college",
+                "cs");
+
+        assertEquals("140", response.getHeaders().getFirst("X-Next-After-Id"));
+    }
+
+    @Test
+    void endsAfterAShortPage() {
+        when(repository.findSummaries(0, null, null, PageRequest.of(0, 10))).thenReturn(users(1, 3));
+
+        ResponseEntity<List<RegisteredUserSummary>> response = controller.getRegisteredUsers(null, 10, null, null);
+
+        assertEquals(3, response.getBody().size());
+        assertNull(response.getHeaders().getFirst("X-Next-After-Id"));
+    }
+
+    private static List<RegisteredUserSummary> users(long firstId, int count) {
+        List<RegisteredUserSummary> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long id = firstId + i;
+            users.add(new RegisteredUserSummary(id, "user" + id, "User " + id, 9800000000L + id, "cs", "college",
+                    "college-user" + id, 20));
+        }
+        return users;
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.demo.gallery;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class GallerySnapshotStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void restoresReenrollmentsFromTheLog() throws IOException {
+        PartitionedGallery<EmbeddingGallery> gallery = new PartitionedGallery<>(EmbeddingGallery::new);
+        gallery.put("college", "cs", "alice", new float[] {1, 0});
+        gallery.put("college", "cs", "bob", new float[] {0, 1});
+        GallerySnapshotStore store = new GallerySnapshotStore(dir);
+        store.write("v1", gallery, 2);
+        // Alice re-enrolls in another department; her row id stays below the watermark
+        store.append("v1", List.of(new GallerySnapshotStore.Entry("college", "ee", "alice", new float[] {1, 1})));
+        store.close();
+
+        PartitionedGallery<EmbeddingGallery> restored = new PartitionedGallery<>(EmbeddingGallery::new);
+        GallerySnapshotStore.Loaded loaded = new GallerySnapshotStore(dir).load("v1", restored);
+
+        assertEquals(2, loaded.getWatermark());
+        assertEquals(1, loaded.getLogEntries());
+        assertEquals(2, restored.size());
+        assertEquals("bob", restored.nearest("college", "cs", new float[] {1, 0}).getId());
+        assertEquals("alice", restored.nearest("college", "ee", new float[] {1, 1}).getId());
+    }
+
+    @Test
+    void aDiscardedStoreLoadsNothing() throws IOException {
+        PartitionedGallery<EmbeddingGallery> gallery = new PartitionedGallery<>(EmbeddingGallery::new);
+        gallery.put("college", "cs", "alice", new float[] {1, 0});
+        GallerySnapshotStore store = new GallerySnapshotStore(dir);
+        store.write("v1", gallery, 1);
+
+        store.discard();
+
+        assertNull(new GallerySnapshotStore(dir).load("v1", new PartitionedGallery<>(EmbeddingGallery::new)));
+    }
+}
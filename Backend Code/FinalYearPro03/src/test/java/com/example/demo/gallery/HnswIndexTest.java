@@ -0,0 +1,96 @@
+package com.example.demo.gallery;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HnswIndexTest {
+
+    private static final int DIMENSION = 32;
+
+    @Test
+    void findsTheExactNearestNeighbourForMostQueries() {
+        Random random = new Random(3);
+        EmbeddingGallery exact = new EmbeddingGallery();
+        HnswIndex index = new HnswIndex(16, 100, 50);
+        List<String> ids = new ArrayList<>();
+        List<float[]> embeddings = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            ids.add("user" + i);
+            embeddings.add(randomUnit(random));
+        }
+        exact.putAll(ids, embeddings);
+        index.putAll(ids, embeddings);
+
+        int queries = 200;
+        int found = 0;
+        for (int i = 0; i < queries; i++) {
+            float[] query = randomUnit(random);
+            if (exact.nearest(query).getId().equals(index.nearest(query).getId())) {
+                found++;
+            }
+        }
+        assertTrue(found >= queries * 0.95, "recall " + found + "/" + queries);
+    }
+
+    @Test
+    void findsLiveNodesWhenEveryCandidateIsDeleted() {
+        Random random = new Random(5);
+        // A single search candidate, so deleting the closest node leaves none
+        HnswIndex index = new HnswIndex(4, 8, 1);
+        List<String> removed = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            index.put("user" + i, randomUnit(random));
+            if (i > 0) {
+                removed.add("user" + i);
+            }
+        }
+        index.removeAll(removed);
+
+        assertEquals(1, index.size());
+        assertEquals("user0", index.nearest(randomUnit(random)).getId());
+    }
+
+    @Test
+    void returnsReplacedEmbeddingsAndNothingOnceAllAreRemoved() {
+        HnswIndex index = new HnswIndex(4, 8, 4);
+        float[] first = unit(0);
+        float[] second = unit(1);
+        index.put("alice", first);
+        index.put("alice", second);
+
+        assertEquals(1, index.size());
+        assertEquals(0.0, index.nearest(second).getSquaredDistance(), 0.0);
+        assertEquals(2.0, index.nearest(first).getSquaredDistance(), 1e-6);
+
+        index.removeAll(List.of("alice"));
+        assertEquals(0, index.size());
+        assertNull(index.nearest(first));
+    }
+
+    private static float[] unit(int axis) {
+        float[] vector = new float[DIMENSION];
+        vector[axis] = 1;
+        return vector;
+    }
+
+    private static float[] randomUnit(Random random) {
+        float[] vector = new float[DIMENSION];
+        double norm = 0;
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.demo.gallery;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PartitionedGalleryTest {
+
+    @Test
+    void reenrollingInAnotherDepartmentLeavesTheOldOne() {
+        PartitionedGallery<EmbeddingGallery> gallery = new PartitionedGallery<>(EmbeddingGallery::new);
+        gallery.put("College", "CS", "alice", new float[] {1, 0});
+        gallery.put("College", "CS", "bob", new float[] {0, 1});
+
+        gallery.put(" college ", "EE", "alice", new float[] {1, 1});
+
+        assertEquals(2, gallery.size());
+        assertEquals("bob", gallery.nearest("college", "cs", new float[] {1, 0}).getId());
+        assertEquals("alice", gallery.nearest("college", "ee", new float[] {1, 1}).getId());
+    }
+
+    @Test
+    void searchGalleriesFollowMovesOfTheirSource() {
+        PartitionedGallery<EmbeddingGallery> exact = new PartitionedGallery<>(EmbeddingGallery::new);
+        exact.put("college", "cs", "alice", new float[] {1, 0});
+        exact.put("college", "cs", "bob", new float[] {0, 1});
+        PartitionedGallery<QuantizedGallery> quantized = new PartitionedGallery<>(
+                (college, dept) -> new QuantizedGallery(exact.partition(college, dept),
+                        QuantizedGallery.Encoding.FP16, 4));
+        quantized.partition("college", "cs");
+
+        exact.put("college", "ee", "alice", new float[] {1, 1});
+        quantized.putAll(quantized.partition("college", "ee"), List.of("alice"), List.of(new float[] {1, 1}));
+
+        assertEquals(1, quantized.partition("college", "cs").size());
+        assertEquals("bob", quantized.nearest("college", "cs", new float[] {1, 0}).getId());
+        assertEquals("alice", quantized.nearest("college", "ee", new float[] {1, 1}).getId());
+    }
+
+    @Test
+    void removingTheLastUserEmptiesThePartition() {
+        EmbeddingGallery gallery = new EmbeddingGallery();
+        gallery.put("alice", new float[] {1, 0});
+        gallery.removeAll(List.of("alice", "unknown"));
+
+        assertEquals(0, gallery.size());
+        assertNull(gallery.nearest(new float[] {1, 0}));
+    }
+}
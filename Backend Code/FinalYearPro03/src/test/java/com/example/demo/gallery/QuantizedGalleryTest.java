@@ -0,0 +1,144 @@
+package com.example.demo.gallery;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuantizedGalleryTest {
+
+    // Same threshold FaceRecognitionService applies to the match distance
+    private static final float RECOGNITION_THRESHOLD = 0.8f;
+    private static final int DIMENSION = 128;
+    private static final int RERANK_CANDIDATES = 8;
+
+    @Test
+    void int8MatchesExactDecisions() {
+        assertSameDecisions(QuantizedGallery.Encoding.INT8);
+    }
+
+    @Test
+    void fp16MatchesExactDecisions() {
+        assertSameDecisions(QuantizedGallery.Encoding.FP16);
+    }
+
+    @Test
+    void followsEnrollmentsAfterBuild() {
+        Random random = new Random(7);
+        EmbeddingGallery exact = new EmbeddingGallery();
+        exact.put("first", randomUnit(random));
+        QuantizedGallery quantized = new QuantizedGallery(exact, QuantizedGallery.Encoding.INT8, RERANK_CANDIDATES);
+
+        float[] second = randomUnit(random);
+        exact.put("second", second);
+        quantized.put("second", second);
+        assertEquals(2, quantized.size());
+        assertEquals("second", quantized.nearest(second).getId());
+
+        // A replaced embedding is found at its new position, even outside the old value range
+        float[] replacement = scaled(randomUnit(random), 3f);
+        exact.put("first", replacement);
+        quantized.put("first", replacement);
+        assertEquals(2, quantized.size());
+        assertEquals("first", quantized.nearest(replacement).getId());
+        assertEquals(0.0, quantized.nearest(replacement).getSquaredDistance(), 0.0);
+    }
+
+    @Test
+    void halfPrecisionRoundTrips() {
+        for (float value : new float[] {0f, 1f, -1f, 0.1f, -0.3333f, 65504f, 6.1e-5f, 3e-7f}) {
+            float restored = QuantizedGallery.halfToFloat(QuantizedGallery.floatToHalf(value) & 0xFFFF);
+            assertEquals(value, restored, Math.abs(value) / 1024 + 6e-8);
+        }
+    }
+
+    /**
+     * Enrolls identities in tight clusters, so several enrolled faces compete
+     * for most probes, and checks every probe gets the same accept/reject
+     * decision and the same user from both galleries. Genuine probes are
+     * labelled with the user they were made from; impostor probes with none.
+     */
+    private static void assertSameDecisions(QuantizedGallery.Encoding encoding) {
+        Random random = new Random(42);
+        List<String> ids = new ArrayList<>();
+        List<float[]> embeddings = new ArrayList<>();
+        for (int cluster = 0; cluster < 100; cluster++) {
+            float[] center = randomUnit(random);
+            for (int member = 0; member < 10; member++) {
+                ids.add("user-" + cluster + "-" + member);
+                embeddings.add(noisy(center, 0.05, random));
+            }
+        }
+        EmbeddingGallery exact = new EmbeddingGallery();
+        exact.putAll(ids, embeddings);
+        QuantizedGallery quantized = new QuantizedGallery(exact, encoding, RERANK_CANDIDATES);
+
+        List<float[]> probes = new ArrayList<>();
+        List<String> labels = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            int user = random.nextInt(ids.size());
+            // Noise from well inside to around the threshold
+            probes.add(noisy(embeddings.get(user), 0.02 + 0.06 * random.nextDouble(), random));
+            labels.add(ids.get(user));
+        }
+        for (int i = 0; i < 500; i++) {
+            probes.add(randomUnit(random));
+            labels.add(null);
+        }
+
+        int exactCorrect = 0;
+        int quantizedCorrect = 0;
+        int accepted = 0;
+        for (int i = 0; i < probes.size(); i++) {
+            String expected = decide(exact.nearest(probes.get(i)));
+            String actual = decide(quantized.nearest(probes.get(i)));
+            assertEquals(expected, actual, "Probe " + i + " labelled " + labels.get(i));
+            exactCorrect += equalsLabel(expected, labels.get(i)) ? 1 : 0;
+            quantizedCorrect += equalsLabel(actual, labels.get(i)) ? 1 : 0;
+            accepted += expected != null ? 1 : 0;
+        }
+        assertEquals(exactCorrect, quantizedCorrect);
+        // The sample has to exercise both sides of the threshold
+        assertTrue(accepted > 0 && accepted < probes.size());
+    }
+
+    private static String decide(EmbeddingGallery.Match match) {
+        return match != null && match.getDistance() < RECOGNITION_THRESHOLD ? match.getId() : null;
+    }
+
+    private static boolean equalsLabel(String decision, String label) {
+        return decision == null ? label == null : decision.equals(label);
+    }
+
+    private static float[] randomUnit(Random random) {
+        return normalized(noisy(new float[DIMENSION], 1.0, random));
+    }
+
+    private static float[] noisy(float[] base, double sigma, Random random) {
+        float[] result = new float[base.length];
+        for (int d = 0; d < base.length; d++) {
+            result[d] = (float) (base[d] + sigma * random.nextGaussian());
+        }
+        return normalized(result);
+    }
+
+    private static float[] normalized(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        return scaled(vector, (float) (1 / Math.sqrt(norm)));
+    }
+
+    private static float[] scaled(float[] vector, float factor) {
+        float[] result = new float[vector.length];
+        for (int d = 0; d < vector.length; d++) {
+            result[d] = vector[d] * factor;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Attendance;
+import com.example.demo.repository.AttendanceRepository;
+import com.example.demo.repository.FaceDataRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AttendanceServiceTest {
+
+    private static final long MOBNO = 9800000001L;
+
+    private final AttendanceRepository attendanceRepository = mock(AttendanceRepository.class);
+    private final FaceDataRepository faceDataRepository = mock(FaceDataRepository.class);
+    private final AttendanceWriteBehindService writeBehind = mock(AttendanceWriteBehindService.class);
+    private final PresenceIndex presence = mock(PresenceIndex.class);
+    private final AttendanceRollupService rollups = mock(AttendanceRollupService.class);
+    private final AttendanceService service = new AttendanceService();
+
+    @BeforeEach
+    void wire() {
+        ReflectionTestUtils.setField(service, "attendanceRepository", attendanceRepository);
+        ReflectionTestUtils.setField(service, "faceDataRepository", faceDataRepository);
+        ReflectionTestUtils.setField(service, "writeBehind", writeBehind);
+        ReflectionTestUtils.setField(service, "presence", presence);
+        ReflectionTestUtils.setField(service, "rollups", rollups);
+        when(faceDataRepository.findMobnoByUsername("alice")).thenReturn(MOBNO);
+        when(presence.get(any(), anyLong())).thenReturn(PresenceIndex.Presence.ABSENT);
+        when(rollups.counting(any())).thenAnswer(invocation -> ((Supplier<?>) invocation.getArgument(0)).get());
+    }
+
+    @Test
+    void reportsUnknownUsers() throws IOException {
+        when(faceDataRepository.findMobnoByUsername("mallory")).thenReturn(null);
+
+        assertEquals(PunchResult.UNKNOWN_USER, service.punchIn("mallory"));
+        assertEquals(PunchResult.UNKNOWN_USER, service.punchOut("mallory"));
+        verify(attendanceRepository, never()).punchIn(any(), any(), any());
+    }
+
+    @Test
+    void countsANewPunchIn() throws IOException {
+        when(attendanceRepository.punchIn(eq("alice"), any(), any())).thenReturn(1);
+
+        assertEquals(PunchResult.PUNCHED_IN, service.punchIn("alice"));
+        verify(rollups).recordPunchIns(any(), eq(List.of(MOBNO)));
+        verify(presence).markIn(any(), eq(MOBNO));
+    }
+
+    @Test
+    void aPunchInThatChangedNothingIsNotCounted() throws IOException {
+        // Another tap inserted the row first
+        when(attendanceRepository.punchIn(eq("alice"), any(), any())).thenReturn(0);
+
+        assertEquals(PunchResult.ALREADY_PUNCHED_IN, service.punchIn("alice"));
+        verify(rollups, never()).recordPunchIns(any(), any());
+        verify(presence).markIn(any(), eq(MOBNO));
+    }
+
+    @Test
+    void answersRepeatedPunchesFromThePresenceIndex() throws IOException {
+        when(presence.get(any(), eq(MOBNO))).thenReturn(PresenceIndex.Presence.OUT);
+
+        assertEquals(PunchResult.ALREADY_PUNCHED_IN, service.punchIn("alice"));
+        assertEquals(PunchResult.ALREADY_PUNCHED_OUT, service.punchOut("alice"));
+        verify(attendanceRepository, never()).punchIn(any(), any(), any());
+        verify(attendanceRepository, never()).punchOut(anyLong(), any(), any());
+        // The mobile number is looked up once
+        verify(faceDataRepository, times(1)).findMobnoByUsername("alice");
+    }
+
+    @Test
+    void countsAPunchOut() throws IOException {
+        when(attendanceRepository.punchOut(eq(MOBNO), any(), any())).thenReturn(1);
+
+        assertEquals(PunchResult.PUNCHED_OUT, service.punchOut("alice"));
+        verify(rollups).recordPunchOuts(any(), eq(List.of(MOBNO)));
+        verify(presence).set(any(), eq(MOBNO), eq(PresenceIndex.Presence.OUT));
+    }
+
+    @Test
+    void tellsAMissingPunchInFromAnEarlierPunchOut() throws IOException {
+        when(attendanceRepository.punchOut(eq(MOBNO), any(), any())).thenReturn(0);
+
+        assertEquals(PunchResult.NOT_PUNCHED_IN, service.punchOut("alice"));
+
+        Attendance row = new Attendance();
+        row.setOutTime(LocalTime.of(17, 0));
+        when(attendanceRepository.findByMobnoAndDate(eq(MOBNO), any(LocalDate.class))).thenReturn(row);
+        assertEquals(PunchResult.ALREADY_PUNCHED_OUT, service.punchOut("alice"));
+        verify(rollups, never()).recordPunchOuts(any(), any());
+    }
+
+    @Test
+    void pagesForwardFromTheCursor() {
+        LocalDate day = LocalDate.of(2026, 3, 2);
+
+        service.getAttendancePage(day, null, null, false, 50);
+        verify(attendanceRepository).findByDateAndIdGreaterThanOrderByIdAsc(day, 0, PageRequest.of(0, 50));
+
+        service.getAttendancePage(day, "cs", 120L, false, 50);
+        verify(attendanceRepository).findByDateAndDeptAndIdGreaterThanOrderByIdAsc(day, "cs", 120,
+                PageRequest.of(0, 50));
+    }
+
+    @Test
+    void pagesBackwardFromTheCursorWhenNewestFirst() {
+        LocalDate day = LocalDate.of(2026, 3, 2);
+
+        service.getAttendancePage(day, null, null, true, 50);
+        verify(attendanceRepository).findByDateAndIdLessThanOrderByIdDesc(day, Long.MAX_VALUE, PageRequest.of(0, 50));
+
+        service.getAttendancePage(day, "cs", 120L, true, 50);
+        verify(attendanceRepository).findByDateAndDeptAndIdLessThanOrderByIdDesc(day, "cs", 120,
+                PageRequest.of(0, 50));
+    }
+}
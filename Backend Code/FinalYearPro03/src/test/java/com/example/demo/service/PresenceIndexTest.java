@@ -0,0 +1,154 @@
+package com.example.demo.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PresenceIndexTest {
+
+    private final LocalDate today = LocalDate.now();
+    private final StoredPunches stored = new StoredPunches();
+
+    @Test
+    void tracksEachUserThroughTheDay() {
+        PresenceIndex index = load();
+
+        assertEquals(PresenceIndex.Presence.ABSENT, index.get(today, 100));
+        assertFalse(index.markOut(today, 100));
+        assertTrue(index.markIn(today, 100));
+        assertFalse(index.markIn(today, 100));
+        assertEquals(PresenceIndex.Presence.IN, index.get(today, 100));
+        assertTrue(index.markOut(today, 100));
+        assertFalse(index.markOut(today, 100));
+        assertEquals(PresenceIndex.Presence.OUT, index.get(today, 100));
+
+        // Undoing a mark whose punch could not be stored
+        index.set(today, 100, PresenceIndex.Presence.IN);
+        assertEquals(PresenceIndex.Presence.IN, index.get(today, 100));
+    }
+
+    @Test
+    void keepsEveryEntryWhileProbingAndGrowing() {
+        PresenceIndex index = load();
+        // Neighbouring mobile numbers, many times the initial capacity
+        long first = 9_800_000_000L;
+        for (long mobno = first; mobno < first + 10_000; mobno++) {
+            assertTrue(index.markIn(today, mobno));
+            if (mobno % 3 == 0) {
+                assertTrue(index.markOut(today, mobno));
+            }
+        }
+        for (long mobno = first; mobno < first + 10_000; mobno++) {
+            PresenceIndex.Presence expected = mobno % 3 == 0 ? PresenceIndex.Presence.OUT : PresenceIndex.Presence.IN;
+            assertEquals(expected, index.get(today, mobno), "mobno " + mobno);
+        }
+        assertEquals(PresenceIndex.Presence.ABSENT, index.get(today, first - 1));
+        assertEquals(PresenceIndex.Presence.ABSENT, index.get(today, first + 10_000));
+    }
+
+    @Test
+    void loadsTheDayFromTheDatabase() {
+        stored.add(today, 1, false);
+        stored.add(today, 2, true);
+        PresenceIndex index = load();
+
+        assertEquals(PresenceIndex.Presence.IN, index.get(today, 1));
+        assertEquals(PresenceIndex.Presence.OUT, index.get(today, 2));
+        assertFalse(index.markIn(today, 1));
+    }
+
+    @Test
+    void rollsOverAtMidnight() {
+        LocalDate tomorrow = today.plusDays(1);
+        stored.add(tomorrow, 2, false);
+        PresenceIndex index = load();
+        index.markIn(today, 1);
+        index.markOut(today, 1);
+
+        // The first question about the next day replaces the table with that day's punches
+        assertEquals(PresenceIndex.Presence.ABSENT, index.get(tomorrow, 1));
+        assertEquals(PresenceIndex.Presence.IN, index.get(tomorrow, 2));
+        assertTrue(index.markIn(tomorrow, 1));
+
+        // Late punches dated the day before are let through and not recorded
+        assertTrue(index.markIn(today, 3));
+        assertEquals(PresenceIndex.Presence.ABSENT, index.get(today, 3));
+        assertEquals(PresenceIndex.Presence.IN, index.get(tomorrow, 1));
+    }
+
+    @Test
+    void keepsAnsweringWhileTheNextDayLoads() {
+        LocalDate tomorrow = today.plusDays(1);
+        stored.add(tomorrow, 2, false);
+        PresenceIndex index = load();
+        index.markIn(today, 1);
+        stored.whileQuerying = () -> {
+            // Another thread is not held up by the query, and its mark for the new day is kept
+            CompletableFuture.runAsync(() -> {
+                assertEquals(PresenceIndex.Presence.IN, index.get(today, 1));
+                assertEquals(PresenceIndex.Presence.ABSENT, index.get(tomorrow, 2));
+                assertTrue(index.markIn(tomorrow, 3));
+            }).orTimeout(5, TimeUnit.SECONDS).join();
+        };
+
+        assertEquals(PresenceIndex.Presence.IN, index.get(tomorrow, 2));
+        assertEquals(PresenceIndex.Presence.IN, index.get(tomorrow, 3));
+        assertFalse(index.markIn(tomorrow, 3));
+    }
+
+    private PresenceIndex load() {
+        PresenceIndex index = new PresenceIndex(stored);
+        index.init();
+        return index;
+    }
+
+    /**
+     * Attendance rows by day: mobile number and whether it has an out time.
+     */
+    private static final class StoredPunches extends JdbcTemplate {
+
+        private final Map<LocalDate, Map<Long, Boolean>> days = new HashMap<>();
+        // Runs once when the next query starts
+        private Runnable whileQuerying;
+
+        void add(LocalDate day, long mobno, boolean punchedOut) {
+            days.computeIfAbsent(day, d -> new HashMap<>()).put(mobno, punchedOut);
+        }
+
+        @Override
+        public void query(String sql, RowCallbackHandler handler, Object... args) {
+            LocalDate day = ((Date) args[0]).toLocalDate();
+            if (whileQuerying != null) {
+                Runnable hook = whileQuerying;
+                whileQuerying = null;
+                hook.run();
+            }
+            days.getOrDefault(day, Map.of()).forEach((mobno, punchedOut) -> {
+                try {
+                    ResultSet row = mock(ResultSet.class);
+                    when(row.getLong(1)).thenReturn(mobno);
+                    when(row.getTime(2)).thenReturn(punchedOut ? Time.valueOf("17:00:00") : null);
+                    handler.processRow(row);
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+    }
+}
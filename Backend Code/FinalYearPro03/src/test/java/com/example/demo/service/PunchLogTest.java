@@ -0,0 +1,123 @@
+package com.example.demo.service;
+
+import com.example.demo.service.AttendanceWriteBehindService.Punch;
+import com.example.demo.service.AttendanceWriteBehindService.PunchLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PunchLogTest {
+
+    private static final LocalDate DAY = LocalDate.of(2026, 3, 2);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysAcknowledgedPunchesAfterARestart() throws IOException {
+        Path file = dir.resolve("attendance/punches.log");
+        PunchLog log = new PunchLog(file);
+        assertTrue(log.open().isEmpty());
+        log.append(new Punch(Punch.IN, "alice", 9800000001L, DAY, LocalTime.of(9, 15, 30)));
+        log.append(new Punch(Punch.OUT, "bob", 9800000002L, DAY, LocalTime.of(17, 0)));
+        log.close();
+
+        List<Punch> replayed = new PunchLog(file).open();
+
+        assertEquals(2, replayed.size());
+        Punch first = replayed.get(0);
+        assertEquals(Punch.IN, first.type);
+        assertEquals("alice", first.username);
+        assertEquals(9800000001L, first.mobno);
+        assertEquals(DAY, first.date);
+        assertEquals(LocalTime.of(9, 15, 30), first.time);
+        assertEquals(Punch.OUT, replayed.get(1).type);
+        assertEquals("bob", replayed.get(1).username);
+    }
+
+    @Test
+    void dropsARecordCutShortByACrash() throws IOException {
+        Path file = dir.resolve("punches.log");
+        long firstRecord = writeTwoPunches(file);
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            raw.setLength(raw.length() - 3);
+        }
+
+        PunchLog log = new PunchLog(file);
+        List<Punch> replayed = log.open();
+
+        assertEquals(1, replayed.size());
+        assertEquals("alice", replayed.get(0).username);
+        assertEquals(firstRecord, Files.size(file));
+
+        // New punches go after the last whole record
+        log.append(new Punch(Punch.IN, "carol", 9800000003L, DAY, LocalTime.NOON));
+        log.close();
+        replayed = new PunchLog(file).open();
+        assertEquals(2, replayed.size());
+        assertEquals("carol", replayed.get(1).username);
+    }
+
+    @Test
+    void dropsARecordWithABadChecksum() throws IOException {
+        Path file = dir.resolve("punches.log");
+        long firstRecord = writeTwoPunches(file);
+        try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+            long last = raw.length() - 1;
+            raw.seek(last);
+            int value = raw.read();
+            raw.seek(last);
+            raw.write(value ^ 0xFF);
+        }
+
+        List<Punch> replayed = new PunchLog(file).open();
+
+        assertEquals(1, replayed.size());
+        assertEquals("alice", replayed.get(0).username);
+        assertEquals(firstRecord, Files.size(file));
+    }
+
+    @Test
+    void emptiesTheFileOnceEveryPunchIsWritten() throws IOException {
+        Path file = dir.resolve("punches.log");
+        PunchLog log = new PunchLog(file);
+        log.open();
+        log.append(new Punch(Punch.IN, "alice", 9800000001L, DAY, LocalTime.NOON));
+        log.append(new Punch(Punch.IN, "bob", 9800000002L, DAY, LocalTime.NOON));
+
+        log.flushed(1);
+        assertTrue(Files.size(file) > 0);
+        log.flushed(1);
+        assertEquals(0, Files.size(file));
+
+        log.append(new Punch(Punch.OUT, "alice", 9800000001L, DAY, LocalTime.MIDNIGHT));
+        log.close();
+        List<Punch> replayed = new PunchLog(file).open();
+        assertEquals(1, replayed.size());
+        assertEquals(Punch.OUT, replayed.get(0).type);
+    }
+
+    /**
+     * Writes punches by alice and bob and returns the length of the first
+     * record.
+     */
+    private static long writeTwoPunches(Path file) throws IOException {
+        PunchLog log = new PunchLog(file);
+        log.open();
+        log.append(new Punch(Punch.IN, "alice", 9800000001L, DAY, LocalTime.of(9, 0)));
+        long firstRecord = Files.size(file);
+        log.append(new Punch(Punch.IN, "bob", 9800000002L, DAY, LocalTime.of(9, 5)));
+        log.close();
+        return firstRecord;
+    }
+}
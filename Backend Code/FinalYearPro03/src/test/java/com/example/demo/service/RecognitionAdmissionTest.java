@@ -0,0 +1,80 @@
+package com.example.demo.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecognitionAdmissionTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void bucketAllowsBurstThenRefills() {
+        RecognitionAdmission.BucketSet buckets = new RecognitionAdmission.BucketSet(1, 2);
+        assertEquals(0, buckets.take("a", 0));
+        assertEquals(0, buckets.take("a", 0));
+        assertEquals(1, buckets.take("a", 0));
+        // Another key has a bucket of its own
+        assertEquals(0, buckets.take("b", 0));
+
+        assertEquals(0, buckets.take("a", SECOND));
+        assertEquals(1, buckets.take("a", SECOND));
+    }
+
+    @Test
+    void sweepDropsOnlyBucketsIdleLongEnoughToBeFull() {
+        RecognitionAdmission.BucketSet buckets = new RecognitionAdmission.BucketSet(1, 2);
+        buckets.take("a", 0);
+        buckets.take("b", SECOND);
+
+        buckets.sweep(2 * SECOND);
+        assertEquals(1, buckets.size());
+
+        buckets.sweep(3 * SECOND);
+        assertEquals(0, buckets.size());
+        // A swept bucket starts full again, as it would have been by now
+        assertEquals(0, buckets.take("a", 3 * SECOND));
+        assertEquals(0, buckets.take("a", 3 * SECOND));
+        assertEquals(1, buckets.take("a", 3 * SECOND));
+    }
+
+    @Test
+    void refusedRequestsKeepTheTokensTheyTook() {
+        // Refills so slowly that only refunds can bring tokens back during the test
+        RecognitionAdmission admission = new RecognitionAdmission(new SimpleMeterRegistry(), 2, 1, 0.001, 3,
+                0.001, 1);
+        assertEquals(0, admission.tryAdmit("router", "a"));
+        // Refused by its client bucket, so the router token is given back
+        assertTrue(admission.tryAdmit("router", "a") > 0);
+        assertEquals(0, admission.tryAdmit("router", "b"));
+        // Refused by the in-flight limit, so both tokens are given back
+        assertEquals(1, admission.tryAdmit("router", "c"));
+
+        admission.release();
+        assertEquals(0, admission.tryAdmit("router", "c"));
+        assertTrue(admission.tryAdmit("router", "d") > 0);
+    }
+
+    @Test
+    void devicesWithoutAnIdAreOnlyHeldToTheOtherLimits() {
+        RecognitionAdmission admission = new RecognitionAdmission(new SimpleMeterRegistry(), 10, 1, 0.001, 10,
+                0.001, 1);
+        assertEquals(0, admission.tryAdmit("router", "phone"));
+        assertTrue(admission.tryAdmit("router", "phone") > 0);
+        // Requests behind one NAT that send no device id do not share a bucket
+        assertEquals(0, admission.tryAdmit("router", null));
+        assertEquals(0, admission.tryAdmit("router", ""));
+    }
+
+    @Test
+    void aClientRateOfZeroTurnsTheDeviceLimitOff() {
+        RecognitionAdmission admission = new RecognitionAdmission(new SimpleMeterRegistry(), 10, 1, 0.001, 10,
+                0, 1);
+        assertEquals(0, admission.tryAdmit("router", "phone"));
+        assertEquals(0, admission.tryAdmit("router", "phone"));
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.demo.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RecognitionCacheTest {
+
+    private static final byte[] IMAGE = "jpeg bytes".getBytes(StandardCharsets.UTF_8);
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void answersAResendUntilItExpires() throws InterruptedException {
+        RecognitionCache cache = cache(50, 10);
+        String key = cache.key(IMAGE, "in", "college", "cs");
+        cache.put(key, "alice", PunchResult.PUNCHED_IN);
+
+        RecognitionCache.Entry entry = cache.get(key);
+        assertNotNull(entry);
+        assertEquals("alice", entry.getUsername());
+        assertEquals(PunchResult.PUNCHED_IN, entry.getPunch());
+
+        Thread.sleep(80);
+        assertNull(cache.get(key));
+        assertEquals(1, registry.get("face.recognition.cache").tag("result", "hit").counter().count());
+        assertEquals(1, registry.get("face.recognition.cache").tag("result", "miss").counter().count());
+        assertEquals(0, registry.get("face.recognition.cache.size").gauge().value());
+    }
+
+    @Test
+    void dropsTheLeastRecentlyUsedEntryWhenFull() {
+        RecognitionCache cache = cache(60_000, 2);
+        cache.put("first", "alice", PunchResult.PUNCHED_IN);
+        cache.put("second", "bob", PunchResult.PUNCHED_IN);
+        cache.get("first");
+
+        cache.put("third", "carol", PunchResult.PUNCHED_OUT);
+
+        assertNotNull(cache.get("first"));
+        assertNull(cache.get("second"));
+        assertNotNull(cache.get("third"));
+        assertEquals(2, registry.get("face.recognition.cache.size").gauge().value());
+    }
+
+    @Test
+    void keepsNothingWhenDisabled() {
+        RecognitionCache cache = cache(0, 10);
+        cache.put("key", "alice", PunchResult.PUNCHED_IN);
+
+        assertNull(cache.get("key"));
+    }
+
+    @Test
+    void keysDifferByDirectionAndScope() {
+        RecognitionCache cache = cache(60_000, 10);
+        String key = cache.key(IMAGE, "in", "college", "cs");
+
+        assertEquals(key, cache.key(IMAGE.clone(), "in", "college", "cs"));
+        assertNotEquals(key, cache.key(IMAGE, "out", "college", "cs"));
+        assertNotEquals(key, cache.key(IMAGE, "in", "college", "ee"));
+        assertNotEquals(key, cache.key(IMAGE, "in", null, null));
+        assertNotEquals(key, cache.key("other bytes".getBytes(StandardCharsets.UTF_8), "in", "college", "cs"));
+    }
+
+    @Test
+    void hashesUploadsInNativeMemoryLikeHeapCopies() {
+        RecognitionCache cache = cache(60_000, 10);
+        ByteBuffer direct = ByteBuffer.allocateDirect(IMAGE.length).put(IMAGE).flip();
+
+        assertEquals(cache.key(IMAGE, "in", "college", "cs"), cache.key(direct, "in", "college", "cs"));
+    }
+
+    private RecognitionCache cache(long ttlMillis, int maxEntries) {
+        return new RecognitionCache(new RecognitionMetrics(registry), ttlMillis, maxEntries);
+    }
+}
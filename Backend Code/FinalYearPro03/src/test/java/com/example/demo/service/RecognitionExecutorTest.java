@@ -0,0 +1,60 @@
+package com.example.demo.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RecognitionExecutorTest {
+
+    private final RecognitionExecutor executor =
+            new RecognitionExecutor(new RecognitionMetrics(new SimpleMeterRegistry()), 2, 4, 100);
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void timedOutTaskCannotCommit() throws Exception {
+        CountDownLatch finished = new CountDownLatch(1);
+        AtomicBoolean committed = new AtomicBoolean(true);
+        String result = executor.submit(deadline -> {
+            sleep(300);
+            committed.set(deadline.commit());
+            finished.countDown();
+            return "punched";
+        }, "timeout").get(5, TimeUnit.SECONDS);
+
+        assertEquals("timeout", result);
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertFalse(committed.get());
+    }
+
+    @Test
+    void committedTaskIsWaitedFor() throws Exception {
+        String result = executor.submit(deadline -> {
+            assertTrue(deadline.commit());
+            // Runs past the timeout after committing, like a slow punch write
+            sleep(300);
+            return "punched";
+        }, "timeout").get(5, TimeUnit.SECONDS);
+
+        assertEquals("punched", result);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.demo.service;
+
+import com.example.demo.model.AllowedRouter;
+import com.example.demo.repository.AllowedRouterRepository;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RouterAllowListTest {
+
+    @Test
+    void parsesPrefixes() {
+        RouterAllowList.Prefix.parse("10.20.0.0/16");
+        RouterAllowList.Prefix.parse("10.20.1.1");
+        RouterAllowList.Prefix.parse("fd00::/8");
+        assertThrows(IllegalArgumentException.class, () -> RouterAllowList.Prefix.parse("10.20.0.0/33"));
+        assertThrows(IllegalArgumentException.class, () -> RouterAllowList.Prefix.parse("10.20.0/16"));
+        assertThrows(IllegalArgumentException.class, () -> RouterAllowList.Prefix.parse("10.20.0.256"));
+        assertThrows(IllegalArgumentException.class, () -> RouterAllowList.Prefix.parse("router.local"));
+        assertThrows(IllegalArgumentException.class, () -> RouterAllowList.Prefix.parse("10.0.0.0/x"));
+        assertThrows(IllegalArgumentException.class, () -> RouterAllowList.Prefix.parse(null));
+    }
+
+    @Test
+    void matchesLongestPrefix() {
+        RouterAllowList.PrefixTrie trie = new RouterAllowList.PrefixTrie();
+        trie.add(RouterAllowList.Prefix.parse("10.20.0.0/16"), Integer.MIN_VALUE);
+        trie.add(RouterAllowList.Prefix.parse("10.20.5.0/24"), -60);
+        trie.add(RouterAllowList.Prefix.parse("fd00::/8"), -70);
+
+        assertEquals(Integer.MIN_VALUE, trie.match(RouterAllowList.parseAddress("10.20.1.1")));
+        assertEquals(-60, trie.match(RouterAllowList.parseAddress("10.20.5.9")));
+        assertNull(trie.match(RouterAllowList.parseAddress("10.21.0.1")));
+        assertEquals(-70, trie.match(RouterAllowList.parseAddress("fd12::1")));
+        assertNull(trie.match(RouterAllowList.parseAddress("fe80::1")));
+    }
+
+    @Test
+    void matchesEverythingWithZeroLengthPrefix() {
+        RouterAllowList.PrefixTrie trie = new RouterAllowList.PrefixTrie();
+        trie.add(RouterAllowList.Prefix.parse("0.0.0.0/0"), -80);
+        assertEquals(-80, trie.match(RouterAllowList.parseAddress("192.168.1.1")));
+        // The families have separate roots
+        assertNull(trie.match(RouterAllowList.parseAddress("::1")));
+    }
+
+    @Test
+    void parsesSignalStrengths() {
+        assertEquals(-67, RouterAllowList.parseSignal("-67"));
+        assertEquals(-67, RouterAllowList.parseSignal(" -67 dBm"));
+        assertEquals(40, RouterAllowList.parseSignal("+40"));
+        assertNull(RouterAllowList.parseSignal("strong"));
+        assertNull(RouterAllowList.parseSignal("-"));
+        assertNull(RouterAllowList.parseSignal(null));
+    }
+
+    @Test
+    void normalizesColleges() {
+        RouterAllowList allowList = allowList(false, router("CollegeA", "10.20.0.0/16", -70));
+
+        assertNull(allowList.check("CollegeA", "10.20.3.4", "-50"));
+        assertNotNull(allowList.check(" collegea ", "192.168.0.1", "-50"));
+        assertNotNull(allowList.check("COLLEGEA", "10.20.3.4", "-80"));
+        assertNotNull(allowList.check("collegea", "not-an-ip", "-50"));
+    }
+
+    @Test
+    void unlistedCollegesFollowPolicy() {
+        assertNull(allowList(false, router("CollegeA", "10.20.0.0/16", null)).check("CollegeB", "192.168.0.1", "-50"));
+        assertNotNull(allowList(true, router("CollegeA", "10.20.0.0/16", null)).check("CollegeB", "192.168.0.1", "-50"));
+        assertNotNull(allowList(true).check(null, "192.168.0.1", "-50"));
+    }
+
+    private static RouterAllowList allowList(boolean requireEntries, AllowedRouter... routers) {
+        AllowedRouterRepository repository = mock(AllowedRouterRepository.class);
+        when(repository.findAll()).thenReturn(List.of(routers));
+        RouterAllowList allowList = new RouterAllowList(repository, requireEntries);
+        allowList.reload();
+        return allowList;
+    }
+
+    private static AllowedRouter router(String college, String cidr, Integer minSignal) {
+        AllowedRouter router = new AllowedRouter();
+        router.setCollege(college);
+        router.setCidr(cidr);
+        router.setMinSignalStrength(minSignal);
+        return router;
+    }
+}